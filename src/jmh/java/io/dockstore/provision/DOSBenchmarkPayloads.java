@@ -0,0 +1,26 @@
+package io.dockstore.provision;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * Realistic DOS requests and responses shared by the benchmarks
+ */
+final class DOSBenchmarkPayloads {
+
+    static final String OLD_STYLE_URI =
+            "dos://dos-dss.ucsc-cgp-dev.org/630d31c3-381e-488d-b639-ce5d047a0142?version=2018-05-26T134315.070662Z";
+    static final String NEW_STYLE_URI = "dos://dg.4503/630d31c3-381e-488d-b639-ce5d047a0142";
+
+    private DOSBenchmarkPayloads() {
+    }
+
+    static JSONObject dataObject(int urlCount) {
+        return StubDOSServer.dataObject("630d31c3-381e-488d-b639-ce5d047a0142", urlCount);
+    }
+
+    static byte[] dataObjectBytes(int urlCount) {
+        return dataObject(urlCount).toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of a whole uncached resolution, from DOS URI to ordered URL list, against a {@link StubDOSServer} in the same JVM
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EndToEndBenchmark {
+
+    private static final String OBJECT_ID = "630d31c3-381e-488d-b639-ce5d047a0142";
+
+    @Param({"1", "100", "10000"})
+    public int urls;
+
+    private final DOSPlugin.DOSPreProvision preProvision = new DOSPlugin.DOSPreProvision();
+    private StubDOSServer server;
+    private String uri;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new StubDOSServer().urls(urls).threads(4).start();
+
+        // Every invocation goes to the server
+        Map<String, String> config = new HashMap<>();
+        config.put(DOSPluginUtil.CACHE_MAX_ENTRIES, "0");
+        config.put(DOSPlugin.DOSPreProvision.SCHEME_PREFERENCE, "s3,gs");
+        preProvision.setConfiguration(config);
+        uri = server.uri(OBJECT_ID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public List<String> prepareDownload() {
+        return preProvision.prepareDownload(uri);
+    }
+}
@@ -0,0 +1,57 @@
+package io.dockstore.provision;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of grouping a resolved data object's URLs by scheme and ordering them by preference, with the lookup itself
+ * answered from memory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrepareDownloadBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int urls;
+
+    @Param({"old", "new"})
+    public String style;
+
+    private final DOSPlugin.DOSPreProvision preProvision = new DOSPlugin.DOSPreProvision();
+    private String uri;
+
+    @Setup
+    public void setUp() {
+        JSONObject response = DOSBenchmarkPayloads.dataObject(urls);
+        preProvision.dosPluginUtil = new DOSPluginUtil() {
+            @Override
+            CompletableFuture<Optional<JSONObject>> getResponseAsync(ImmutableTriple<String, String, String> immutableTriple,
+                    Executor executor) {
+                return CompletableFuture.completedFuture(Optional.of(response));
+            }
+        };
+        preProvision.setConfiguration(Collections.singletonMap(DOSPlugin.DOSPreProvision.SCHEME_PREFERENCE, "s3,gs"));
+        uri = "old".equals(style) ? DOSBenchmarkPayloads.OLD_STYLE_URI : DOSBenchmarkPayloads.NEW_STYLE_URI;
+    }
+
+    @Benchmark
+    public List<String> prepareDownload() {
+        return preProvision.prepareDownload(uri);
+    }
+}
@@ -0,0 +1,48 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of reading a DOS response body: the streaming extraction the plugin uses, against parsing the whole document
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadDataObjectBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int urls;
+
+    private final DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = DOSBenchmarkPayloads.dataObjectBytes(urls);
+    }
+
+    @Benchmark
+    public Optional<JSONObject> readDataObject() {
+        return dosPluginUtil.readDataObject(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public JSONObject parseWholeResponse() {
+        return new JSONObject(new JSONTokener(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)));
+    }
+}
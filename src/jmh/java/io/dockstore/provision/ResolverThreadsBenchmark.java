@@ -0,0 +1,95 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to resolve a batch of uncached DOS URIs against a slow {@link StubDOSServer}, with the lookups run on a pool of
+ * platform threads, or on a virtual thread each with as many running at once as the pool has threads. The virtual
+ * thread runs need JDK 21 or later, and fail on older JVMs.
+ *
+ * The benchmarks run from the compiled classes rather than the jar, so they create the executors themselves the way
+ * {@link DOSExecutors} does, whose Java 21 version is only picked up from the multi-release jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResolverThreadsBenchmark {
+
+    private static final int LOOKUPS = 2048;
+    private static final long LATENCY_MILLIS = 50;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"64", "1024"})
+    public int poolSize;
+
+    private final DOSPlugin.DOSPreProvision preProvision = new DOSPlugin.DOSPreProvision();
+    private StubDOSServer server;
+    private ExecutorService pool;
+    private int batch;
+
+    @Setup
+    public void setUp() throws IOException, ReflectiveOperationException {
+        pool = "virtual".equals(threads) ? new DOSBoundedExecutor(newVirtualThreadPerTaskExecutor(), poolSize)
+                : Executors.newFixedThreadPool(poolSize,
+                        new ThreadFactoryBuilder().setNameFormat("dos-resolver-%d").setDaemon(true).build());
+        server = new StubDOSServer().latency(LATENCY_MILLIS, 0).threads(poolSize).start();
+
+        // Every lookup goes to the server, and enough connections are kept alive for every thread to reuse its own.
+        // Each run is forked into its own JVM, so this is set before the JDK's keep-alive cache reads it.
+        System.setProperty("http.maxConnections", String.valueOf(poolSize));
+        Map<String, String> config = new HashMap<>();
+        config.put(DOSPluginUtil.CACHE_MAX_ENTRIES, "0");
+        config.put(DOSPluginUtil.METRICS_JMX, "false");
+        preProvision.setConfiguration(config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+        server.close();
+    }
+
+    @Benchmark
+    public int resolveBatch() {
+        // Fresh ids for every batch, so no lookup is coalesced with one still in flight
+        batch++;
+        List<CompletableFuture<List<String>>> lookups = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups.add(preProvision.prepareDownloadAsync(server.uri(String.format("%08d-%08d", batch, i)), pool));
+        }
+        int resolved = 0;
+        for (CompletableFuture<List<String>> lookup : lookups) {
+            resolved += lookup.join().isEmpty() ? 0 : 1;
+        }
+        if (resolved != LOOKUPS) {
+            throw new IllegalStateException("Only " + resolved + " of " + LOOKUPS + " lookups were resolved");
+        }
+        return resolved;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        // Executors.newVirtualThreadPerTaskExecutor(), which does not exist to the Java 8 compiler
+        return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+}
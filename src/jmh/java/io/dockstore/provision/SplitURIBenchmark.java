@@ -0,0 +1,45 @@
+package io.dockstore.provision;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of splitting a DOS URI into its scheme, host and path, against splitting it with java.net.URI. Run with
+ * <code>-prof gc</code> to compare the allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SplitURIBenchmark {
+
+    @Param({"old", "new"})
+    public String style;
+
+    private final DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+    private String uri;
+
+    @Setup
+    public void setUp() {
+        uri = "old".equals(style) ? DOSBenchmarkPayloads.OLD_STYLE_URI : DOSBenchmarkPayloads.NEW_STYLE_URI;
+    }
+
+    @Benchmark
+    public Optional<ImmutableTriple<String, String, String>> splitURI() {
+        return dosPluginUtil.splitURI(uri);
+    }
+
+    @Benchmark
+    public Optional<ImmutableTriple<String, String, String>> parseURI() {
+        return DOSPluginUtil.parseURI(uri);
+    }
+}
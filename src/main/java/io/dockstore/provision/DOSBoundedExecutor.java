@@ -0,0 +1,72 @@
+package io.dockstore.provision;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs at most a given number of tasks at once on an executor that starts every task as soon as it is submitted, such
+ * as one that starts a virtual thread per task. A task waits for its turn on the thread it was started on rather than
+ * in a queue, so submitting never blocks the caller, and a thread only exists while its task is waiting or running.
+ */
+final class DOSBoundedExecutor extends AbstractExecutorService {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    /**
+     * @param executor The executor to run the tasks on
+     * @param limit    The number of tasks run at once
+     */
+    DOSBoundedExecutor(ExecutorService executor, int limit) {
+        this.executor = executor;
+        this.permits = new Semaphore(Math.max(limit, 1));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Objects.requireNonNull(command);
+        executor.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // Shut down before the task's turn came, as a queued task would be
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                command.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,121 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+
+/**
+ * Looks up many data objects in one request. The DOS API has no such query, so this uses the bulk document endpoint
+ * of indexd, the server behind dataguids.org: a POST of a JSON list of ids, answered with the list of records found.
+ * Each record is turned into the same form as a single lookup's response, so that it is cached and used alike.
+ */
+final class DOSBulkLookup {
+
+    static final String API = "/bulk/documents";
+    static final int DEFAULT_MAX_IDS = 100;
+
+    private static final String DID = "did";
+    private static final String URL = "url";
+    private static final String UPDATED_DATE = "updated_date";
+    private static final String HASHES = "hashes";
+
+    private DOSBulkLookup() {
+    }
+
+    /**
+     * @param path The path of a DOS URI after the host
+     * @return Whether the path is a bare id, which a bulk lookup can ask for. Paths with a query or fragment select a
+     * version of the object, which only a single lookup can.
+     */
+    static boolean isBulkId(String path) {
+        return !path.isEmpty() && path.indexOf('?') < 0 && path.indexOf('#') < 0;
+    }
+
+    /**
+     * @param responseCode The response code of a bulk request
+     * @return Whether the response means the host has no bulk endpoint, rather than that it failed this time
+     */
+    static boolean isUnsupported(int responseCode) {
+        return responseCode == HTTP_BAD_REQUEST || responseCode == HTTP_NOT_FOUND || responseCode == HTTP_BAD_METHOD
+                || responseCode == HTTP_NOT_IMPLEMENTED;
+    }
+
+    /**
+     * Sends the ids as the body of a POST request
+     *
+     * @param conn A connection that has not been connected yet
+     * @param ids  The ids of the data objects to look up
+     */
+    static void send(HttpURLConnection conn, Collection<String> ids) throws IOException {
+        byte[] body = new JSONArray(ids).toString().getBytes(StandardCharsets.UTF_8);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json");
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @param stream The response body, which is read up to the end of the list but not closed
+     * @return The id of each record that lists URLs mapped to a response of the form
+     * <code>{"data_object": {"urls": [...], "updated": ..., "size": ..., "checksums": [...]}}</code>
+     * @throws JSONException if the response is not a list of records
+     */
+    static Map<String, JSONObject> read(InputStream stream) {
+        JSONTokener x = new JSONTokener(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        Object records = x.nextValue();
+        if (!(records instanceof JSONArray)) {
+            throw x.syntaxError("Bulk response is not a list of records");
+        }
+
+        Map<String, JSONObject> responses = new HashMap<>();
+        for (Object element : (JSONArray)records) {
+            if (!(element instanceof JSONObject)) {
+                continue;
+            }
+            JSONObject record = (JSONObject)element;
+            String did = record.optString(DID, null);
+            JSONArray urls = record.optJSONArray(DOSPluginUtil.URLS);
+            if (did == null || urls == null) {
+                continue;
+            }
+            // indexd lists bare URLs, DOS lists objects holding them
+            JSONArray dosUrls = new JSONArray();
+            for (int i = 0; i < urls.length(); i++) {
+                dosUrls.put(new JSONObject().put(URL, urls.getString(i)));
+            }
+            JSONObject dataObject = new JSONObject()
+                    .put(DOSPluginUtil.URLS, dosUrls)
+                    .putOpt(DOSValidators.UPDATED, record.optString(UPDATED_DATE, null))
+                    .putOpt(DOSDataObject.SIZE, record.opt(DOSDataObject.SIZE));
+            // indexd keeps checksums as a map of type to checksum, DOS as a list
+            JSONObject hashes = record.optJSONObject(HASHES);
+            if (hashes != null) {
+                Map<String, String> checksums = new LinkedHashMap<>();
+                hashes.keySet().forEach(type -> checksums.put(type, String.valueOf(hashes.get(type))));
+                dataObject.put(DOSDataObject.CHECKSUMS, DOSDataObject.toJSON(checksums));
+            }
+            responses.put(did, new JSONObject().put(DOSJsonExtractor.DATA_OBJECT, dataObject));
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,108 @@
+package io.dockstore.provision;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fails lookups fast while a DOS host is known to be down, instead of each one waiting out the connect timeout and
+ * its retries. A host's circuit opens after a number of consecutive transient failures. While it is open, lookups
+ * against the host are refused; once it has been open for the configured time, a single lookup is let through to
+ * probe the host, which closes the circuit if it succeeds and keeps it open for another period if it fails.
+ */
+class DOSCircuitBreaker {
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_TIME = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Clock clock;
+
+    DOSCircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+    }
+
+    /**
+     * @param failureThreshold The number of consecutive failures that opens a host's circuit, 0 to never open it
+     * @param openMillis       How long a circuit stays open before the host is probed, in milliseconds
+     */
+    DOSCircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, Clock.systemUTC());
+    }
+
+    // Package-private constructor with a configurable clock for unit testing
+    DOSCircuitBreaker(int failureThreshold, long openMillis, Clock clock) {
+        this.failureThreshold = Math.max(failureThreshold, 0);
+        this.openMillis = Math.max(openMillis, 0);
+        this.clock = clock;
+    }
+
+    /**
+     * @param host The DOS host
+     * @return Whether a request may be made to the host
+     */
+    boolean allowRequest(String host) {
+        Host state = hosts.get(host);
+        return state == null || state.allowRequest(clock.millis());
+    }
+
+    /**
+     * @param host The DOS host
+     * @return Whether the host's circuit is open, without letting a probe through
+     */
+    boolean isOpen(String host) {
+        Host state = hosts.get(host);
+        return state != null && state.isOpen(clock.millis());
+    }
+
+    /**
+     * Records that the host answered, even if only to say the object does not exist, which closes its circuit
+     *
+     * @param host The DOS host
+     */
+    void recordSuccess(String host) {
+        hosts.remove(host);
+    }
+
+    /**
+     * Records that a request to the host failed in a way that suggests the host is unhealthy
+     *
+     * @param host The DOS host
+     */
+    void recordFailure(String host) {
+        if (failureThreshold > 0) {
+            hosts.computeIfAbsent(host, k -> new Host()).recordFailure(clock.millis());
+        }
+    }
+
+    private final class Host {
+        private int failures;
+        private long openUntil;
+
+        private synchronized boolean isOpen(long now) {
+            return failures >= failureThreshold && now < openUntil;
+        }
+
+        private synchronized boolean allowRequest(long now) {
+            if (failures < failureThreshold) {
+                return true;
+            }
+            if (now < openUntil) {
+                return false;
+            }
+            // Let this request probe the host and hold back the others until it reports, or for another period if it never does
+            openUntil = now + openMillis;
+            return true;
+        }
+
+        private synchronized void recordFailure(long now) {
+            failures++;
+            if (failures >= failureThreshold) {
+                openUntil = now + openMillis;
+            }
+        }
+    }
+}
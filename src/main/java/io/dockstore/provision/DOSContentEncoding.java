@@ -0,0 +1,91 @@
+package io.dockstore.provision;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Negotiates compressed DOS responses and decompresses them as they are read, so that a large response is never held
+ * in memory whole, compressed or not.
+ *
+ * The <code>deflate</code> encoding is meant to be zlib-wrapped, but some servers send raw deflate data under that
+ * name; both are accepted, told apart by the zlib header.
+ */
+final class DOSContentEncoding {
+
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String SUPPORTED = "gzip, deflate";
+
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String DEFLATE = "deflate";
+    private static final String IDENTITY = "identity";
+    private static final int BUFFER_SIZE = 8192;
+
+    private DOSContentEncoding() {
+    }
+
+    /**
+     * @param body            The response body as it arrives
+     * @param contentEncoding The response's Content-Encoding header, may be null
+     * @param metrics         Receives the number of bytes that arrived and that they decoded to when the body is closed
+     * @return The decoded response body
+     * @throws IOException if the body uses an encoding that was not asked for, or a compressed body has a bad header
+     */
+    static InputStream decode(InputStream body, String contentEncoding, DOSPluginMetrics metrics) throws IOException {
+        CountingInputStream received = new CountingInputStream(body);
+        String encoding = contentEncoding == null ? "" : contentEncoding.trim().toLowerCase(Locale.ROOT);
+        InputStream decoded;
+        if (encoding.isEmpty() || IDENTITY.equals(encoding)) {
+            decoded = received;
+        } else if (GZIP.equals(encoding) || X_GZIP.equals(encoding)) {
+            decoded = new GZIPInputStream(received, BUFFER_SIZE);
+        } else if (DEFLATE.equals(encoding)) {
+            decoded = inflate(new BufferedInputStream(received, BUFFER_SIZE));
+        } else {
+            throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+        return new CountingInputStream(decoded) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        metrics.recordBytes(received.getByteCount(), getByteCount());
+                    }
+                }
+            }
+        };
+    }
+
+    private static InputStream inflate(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        // A zlib stream starts with a deflate method nibble and a header that is a multiple of 31
+        boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // An inflater passed in is not released by the stream
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A directory of files named by their checksum, as <code>type/checksum</code> such as <code>md5/8a6e1e5d...</code>,
+ * which data objects can be copied from instead of being downloaded. A file is only used if its size is the object's
+ * and, when verification is on, its checksum is too. A verified file is not read again until its size or
+ * modification time changes.
+ */
+class DOSContentStore {
+
+    // Checksum types that can be verified, strongest first
+    static final Map<String, String> DIGESTS = ImmutableMap.of(
+            "sha512", "SHA-512",
+            "sha256", "SHA-256",
+            "sha1", "SHA-1",
+            "md5", "MD5");
+    // Keeps checksums from naming a file outside of the store
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Path directory;
+    private final boolean verify;
+    private final Map<Path, String> verified = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory The directory holding a subdirectory for each checksum type
+     * @param verify    Whether a file's checksum is checked before it is used, rather than only its size
+     */
+    DOSContentStore(Path directory, boolean verify) {
+        this.directory = directory;
+        this.verify = verify;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param dataObject A resolved data object
+     * @return A file in the store holding the object's bytes, found by the strongest of its checksums that has one
+     */
+    Optional<Path> find(DOSDataObject dataObject) {
+        for (Map.Entry<String, String> checksum : byStrength(dataObject.getChecksums())) {
+            String type = checksum.getKey();
+            // Hex digests are stored under their lower case name
+            String value = DIGESTS.containsKey(type) ? checksum.getValue().toLowerCase(Locale.ROOT) : checksum.getValue();
+            if (!FILE_NAME.matcher(type).matches() || !FILE_NAME.matcher(value).matches()) {
+                continue;
+            }
+            Path file = directory.resolve(type).resolve(value);
+            if (isCopy(file, type, value, dataObject.getSize())) {
+                return Optional.of(file);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static List<Map.Entry<String, String>> byStrength(Map<String, String> checksums) {
+        List<Map.Entry<String, String>> ordered = new ArrayList<>(checksums.size());
+        DIGESTS.keySet().stream().filter(checksums::containsKey)
+                .forEach(type -> ordered.add(new AbstractMap.SimpleImmutableEntry<>(type, checksums.get(type))));
+        checksums.entrySet().stream().filter(checksum -> !DIGESTS.containsKey(checksum.getKey())).forEach(ordered::add);
+        return ordered;
+    }
+
+    private boolean isCopy(Path file, String type, String checksum, Optional<Long> size) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return false;
+        }
+        if (!attributes.isRegularFile() || size.isPresent() && size.get() != attributes.size()) {
+            return false;
+        }
+        if (!verify) {
+            return true;
+        }
+
+        String algorithm = DIGESTS.get(type);
+        if (algorithm == null) {
+            // Nothing to check it against
+            return false;
+        }
+        String stamp = attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+        if (stamp.equals(verified.get(file))) {
+            return true;
+        }
+        try {
+            if (digest(file, algorithm).equalsIgnoreCase(checksum)) {
+                verified.put(file, stamp);
+                return true;
+            }
+            System.err.println("Error: " + file + " does not match its " + type + " checksum, ignoring it");
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * @param file      A file to read
+     * @param algorithm A MessageDigest algorithm
+     * @return The digest of the file's contents in lower case hex
+     */
+    static String digest(Path file, String algorithm) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), messageDigest)) {
+            IOUtils.skip(in, Long.MAX_VALUE);
+        }
+        return BaseEncoding.base16().lowerCase().encode(messageDigest.digest());
+    }
+}
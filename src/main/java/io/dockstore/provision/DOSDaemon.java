@@ -0,0 +1,279 @@
+package io.dockstore.provision;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import static java.net.HttpURLConnection.HTTP_BAD_GATEWAY;
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Resolves DOS URIs for the launchers on this machine, so that the connection pools, caches and host health the
+ * plugin builds up outlive each short-lived launcher. It listens on the loopback address at <code>daemon-port</code>,
+ * the same setting that makes the plugin ask it, and resolves with the rest of the plugin's configuration.
+ *
+ * <pre>
+ * java -cp lib/dockstore-file-dos-plugin-*.jar io.dockstore.provision.DOSDaemon [--config ~/.dockstore/config]
+ * </pre>
+ *
+ * A lookup is a GET of {@value DOSDaemonClient#LOOKUP_API} with the scheme, host and path of the DOS URI as query
+ * parameters, answered with the response as a lookup returns it, a 404 if a server answered that the object does not
+ * exist, or a 502 if it could not be resolved, for example because its servers timed out or failed. A POST of a JSON
+ * list of such triples to {@value DOSDaemonClient#BULK_API} is answered with a list of responses in the same order,
+ * null where an object does not exist and {@value DOSDaemonClient#FAILED} where it could not be resolved.
+ */
+public final class DOSDaemon implements Closeable {
+
+    // A bulk request lists a few hundred bytes per object
+    static final long MAX_REQUEST_BYTES = 16L * 1024 * 1024;
+    // What a handler answers for an object it could not resolve
+    private static final Object FAILED = new Object();
+
+    private final DOSPluginUtil dosPluginUtil;
+    private final ExecutorService resolverPool;
+    private final int resolverThreads;
+    private final ExecutorService requestPool;
+    private final HttpServer server;
+
+    /**
+     * @param dosPluginUtil   A configured DOSPluginUtil, which must not itself ask a daemon
+     * @param resolverPool    Runs the lookups of bulk requests
+     * @param resolverThreads The number of lookups of a bulk request made at once, at most the threads of the pool
+     * @param port            The port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be listened on
+     */
+    DOSDaemon(DOSPluginUtil dosPluginUtil, ExecutorService resolverPool, int resolverThreads, int port) throws IOException {
+        this.dosPluginUtil = dosPluginUtil;
+        this.resolverPool = resolverPool;
+        this.resolverThreads = resolverThreads;
+        this.requestPool = DOSExecutors.newCachedPool("dos-daemon", dosPluginUtil.usesVirtualThreads());
+        // Only processes on this machine can connect
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(DOSDaemonClient.LOOKUP_API, exchange -> handle(exchange, "GET", this::lookup));
+        server.createContext(DOSDaemonClient.BULK_API, exchange -> handle(exchange, "POST", this::lookupAll));
+        server.setExecutor(requestPool);
+    }
+
+    DOSDaemon start() {
+        server.start();
+        return this;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        requestPool.shutdown();
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(HTTP_BAD_METHOD, -1);
+                return;
+            }
+            Object response;
+            try {
+                response = handler.handle(exchange);
+            } catch (JSONException | IllegalArgumentException e) {
+                exchange.sendResponseHeaders(HTTP_BAD_REQUEST, -1);
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Error: " + e.getMessage());
+                exchange.sendResponseHeaders(HTTP_INTERNAL_ERROR, -1);
+                return;
+            }
+            if (response == null) {
+                exchange.sendResponseHeaders(HTTP_NOT_FOUND, -1);
+                return;
+            }
+            if (response == FAILED) {
+                exchange.sendResponseHeaders(HTTP_BAD_GATEWAY, -1);
+                return;
+            }
+            byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(HTTP_OK, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        /**
+         * @return The JSON to answer with, <code>null</code> to answer 404, or {@link #FAILED} to answer 502
+         */
+        Object handle(HttpExchange exchange) throws IOException;
+    }
+
+    private Object lookup(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String scheme = query.get(DOSDaemonClient.SCHEME);
+        String host = query.get(DOSDaemonClient.HOST);
+        String path = query.get(DOSDaemonClient.PATH);
+        if (scheme == null || host == null || path == null) {
+            throw new IllegalArgumentException("A lookup needs a scheme, host and path");
+        }
+        ImmutableTriple<String, String, String> immutableTriple = new ImmutableTriple<>(scheme, host, path);
+        Optional<JSONObject> response = dosPluginUtil.getResponse(immutableTriple);
+        if (response.isPresent()) {
+            return response.get();
+        }
+        return dosPluginUtil.isKnownMissing(immutableTriple) ? null : FAILED;
+    }
+
+    private Object lookupAll(HttpExchange exchange) throws IOException {
+        Object request;
+        try (InputStream in = new BoundedInputStream(exchange.getRequestBody(), MAX_REQUEST_BYTES)) {
+            request = new JSONTokener(new InputStreamReader(in, StandardCharsets.UTF_8)).nextValue();
+        }
+        if (!(request instanceof JSONArray)) {
+            throw new IllegalArgumentException("A bulk lookup is a list of data objects");
+        }
+        List<ImmutableTriple<String, String, String>> immutableTriples = new ArrayList<>();
+        for (Object element : (JSONArray)request) {
+            if (!(element instanceof JSONObject)) {
+                throw new IllegalArgumentException("A bulk lookup is a list of data objects");
+            }
+            immutableTriples.add(DOSDaemonClient.fromJSON((JSONObject)element));
+        }
+
+        dosPluginUtil.loadInBulk(immutableTriples, resolverPool);
+        List<CompletableFuture<Optional<JSONObject>>> lookups = dosPluginUtil.getResponses(immutableTriples, resolverPool, resolverThreads);
+        JSONArray responses = new JSONArray();
+        for (int i = 0; i < lookups.size(); i++) {
+            Optional<JSONObject> response;
+            try {
+                response = DOSPluginUtil.await(lookups.get(i), Optional.empty());
+            } catch (RuntimeException e) {
+                System.err.println("Error: could not resolve " + DOSSnapshot.key(immutableTriples.get(i)) + ": " + e.getMessage());
+                responses.put(DOSDaemonClient.FAILED);
+                continue;
+            }
+            if (response.isPresent()) {
+                responses.put(response.get());
+            } else {
+                responses.put(dosPluginUtil.isKnownMissing(immutableTriples.get(i)) ? JSONObject.NULL : DOSDaemonClient.FAILED);
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * @param rawQuery The query of a request URI, still encoded, or <code>null</code>
+     * @return Each parameter mapped to its decoded value
+     */
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8.name()),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8.name()));
+            }
+        }
+        return parameters;
+    }
+
+    public static void main(String[] args) {
+        int status = run(args, System.out);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Starts the daemon, which keeps running until the JVM is stopped
+     *
+     * @param args [--config file]
+     * @param out  Receives the address the daemon listens on
+     * @return 0 if the daemon started, {@value DOSPrefetch#EXIT_USAGE} if the arguments or config could not be used
+     */
+    static int run(String[] args, PrintStream out) {
+        Path config = DOSPrefetch.DEFAULT_CONFIG;
+        boolean configGiven = false;
+        if (args.length == 2 && DOSPrefetch.CONFIG_OPTION.equals(args[0])) {
+            config = Paths.get(args[1]);
+            configGiven = true;
+        } else if (args.length != 0) {
+            System.err.println("Usage: DOSDaemon [" + DOSPrefetch.CONFIG_OPTION + " <dockstore config>]");
+            return DOSPrefetch.EXIT_USAGE;
+        }
+
+        MapConfiguration configuration;
+        try {
+            configuration = DOSPrefetch.loadConfiguration(config, configGiven);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return DOSPrefetch.EXIT_USAGE;
+        }
+        int port = configuration.getInt(DOSPluginUtil.DAEMON_PORT, 0);
+        if (port <= 0) {
+            System.err.println("Error: " + DOSPluginUtil.DAEMON_PORT + " is not set in " + config);
+            return DOSPrefetch.EXIT_USAGE;
+        }
+        // The daemon resolves directly rather than asking itself
+        configuration.clearProperty(DOSPluginUtil.DAEMON_PORT);
+        DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+        dosPluginUtil.setConfiguration(configuration);
+
+        ExecutorService pool = DOSPrefetch.newResolverPool(configuration, "dos-daemon-resolver");
+        DOSDaemon daemon;
+        try {
+            daemon = new DOSDaemon(dosPluginUtil, pool, DOSPrefetch.resolverThreads(configuration), port).start();
+        } catch (IOException e) {
+            System.err.println("Error: could not listen on port " + port + ": " + e.getMessage());
+            pool.shutdown();
+            dosPluginUtil.shutdown();
+            return DOSPrefetch.EXIT_USAGE;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+            pool.shutdown();
+            dosPluginUtil.shutdown();
+        }, "dos-daemon-shutdown"));
+        out.println("Resolving on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + daemon.getPort());
+        return 0;
+    }
+}
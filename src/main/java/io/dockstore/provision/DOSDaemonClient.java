@@ -0,0 +1,231 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import static java.net.HttpURLConnection.HTTP_BAD_GATEWAY;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Asks a {@link DOSDaemon} on this machine to resolve data objects, so that a short-lived launcher uses the
+ * daemon's warm caches, connections and host health instead of starting cold. A data object the daemon found does not
+ * exist is not looked up again, but one it failed to resolve, for example because its servers timed out, is resolved
+ * directly. A daemon that cannot be reached is not asked again for {@value #DEFAULT_RETRY_INTERVAL} ms, and lookups go
+ * straight to the DOS servers meanwhile.
+ */
+final class DOSDaemonClient {
+
+    static final String LOOKUP_API = "/v1/dataobject";
+    static final String BULK_API = "/v1/dataobjects";
+    static final String SCHEME = "scheme";
+    static final String HOST = "host";
+    static final String PATH = "path";
+    // Marks an object in a bulk answer that the daemon could not resolve, as opposed to null for one that does not exist
+    static final String FAILED = "failed";
+    // The daemon is on this machine, so it either answers a connection at once or is not running
+    static final int CONNECT_TIMEOUT = 250;
+    static final long DEFAULT_RETRY_INTERVAL = 30000L;
+
+    private final int port;
+    private final long readTimeoutMillis;
+    private final long retryIntervalNanos;
+    private volatile long unreachableUntil;
+    private volatile boolean unreachable;
+
+    /**
+     * @param port              The port the daemon listens on, on the loopback address
+     * @param readTimeoutMillis How long to wait for the daemon's answer, 0 for no limit
+     * @param retryIntervalMillis How long to resolve directly after the daemon could not be reached
+     */
+    DOSDaemonClient(int port, long readTimeoutMillis, long retryIntervalMillis) {
+        this.port = port;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Whether the daemon is worth asking, that is it has not recently failed to answer a connection
+     */
+    boolean isAvailable() {
+        return !unreachable || System.nanoTime() - unreachableUntil >= 0;
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The daemon's response for it, or <code>Optional.empty()</code> if the object does not exist
+     * @throws IOException if the daemon could not be asked or could not resolve the object, which then has to be
+     * resolved directly
+     */
+    Optional<JSONObject> lookup(ImmutableTriple<String, String, String> immutableTriple) throws IOException {
+        HttpURLConnection conn = open(LOOKUP_API + "?" + SCHEME + "=" + encode(immutableTriple.getLeft()) + "&" + HOST + "="
+                + encode(immutableTriple.getMiddle()) + "&" + PATH + "=" + encode(immutableTriple.getRight()));
+        try {
+            conn.connect();
+        } catch (IOException e) {
+            unreachable();
+            throw e;
+        }
+        return readResponse(conn, response -> {
+            if (!(response instanceof JSONObject)) {
+                throw new IOException("The resolver daemon did not answer with a data object");
+            }
+            return Optional.of((JSONObject)response);
+        }, Optional.empty());
+    }
+
+    /**
+     * Resolves many data objects in one request, which the daemon answers with its own bulk lookups
+     *
+     * @param immutableTriples The targetPaths as ImmutableTriples of <scheme, host, path>
+     * @return The daemon's response for each targetPath, in the same order, empty where an object does not exist and
+     * <code>null</code> where the daemon could not resolve one, which then has to be resolved directly
+     * @throws IOException if the daemon could not be asked, and the objects have to be resolved directly
+     */
+    List<Optional<JSONObject>> lookupAll(List<ImmutableTriple<String, String, String>> immutableTriples) throws IOException {
+        JSONArray request = new JSONArray();
+        immutableTriples.forEach(immutableTriple -> request.put(toJSON(immutableTriple)));
+        byte[] body = request.toString().getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection conn = open(BULK_API);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json");
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        } catch (IOException e) {
+            unreachable();
+            throw e;
+        }
+        return readResponse(conn, responses -> {
+            if (!(responses instanceof JSONArray) || ((JSONArray)responses).length() != immutableTriples.size()) {
+                throw new IOException("The resolver daemon did not answer with a response for each data object");
+            }
+            List<Optional<JSONObject>> resolved = new ArrayList<>();
+            for (Object response : (JSONArray)responses) {
+                if (response instanceof JSONObject) {
+                    resolved.add(Optional.of((JSONObject)response));
+                } else {
+                    resolved.add(JSONObject.NULL.equals(response) ? Optional.empty() : null);
+                }
+            }
+            return resolved;
+        }, null);
+    }
+
+    /**
+     * @param conn     A connection to the daemon that has been made
+     * @param reader   Turns the JSON body of a 200 response into the result
+     * @param notFound The result of a 404 response, or <code>null</code> if the daemon should not answer with one
+     * @throws IOException if the daemon answered anything else, or did not answer in time
+     */
+    private <T> T readResponse(HttpURLConnection conn, ResponseReader<T> reader, T notFound) throws IOException {
+        int responseCode;
+        try {
+            responseCode = conn.getResponseCode();
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+        if (responseCode != HTTP_OK) {
+            drain(conn);
+            if (responseCode == HTTP_NOT_FOUND && notFound != null) {
+                return notFound;
+            }
+            if (responseCode == HTTP_BAD_GATEWAY) {
+                throw new IOException("The resolver daemon could not resolve it");
+            }
+            throw new IOException("The resolver daemon answered " + responseCode);
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return reader.read(new JSONTokener(new InputStreamReader(in, StandardCharsets.UTF_8)).nextValue());
+        } catch (JSONException e) {
+            conn.disconnect();
+            throw new IOException("The resolver daemon's answer is not valid JSON: " + e.getMessage(), e);
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(Object json) throws IOException;
+    }
+
+    private HttpURLConnection open(String file) throws IOException {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, file);
+        // A proxy configured for the DOS servers must not see requests meant for this machine
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection(Proxy.NO_PROXY);
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout((int)Math.min(readTimeoutMillis, Integer.MAX_VALUE));
+        return conn;
+    }
+
+    private void unreachable() {
+        unreachableUntil = System.nanoTime() + retryIntervalNanos;
+        unreachable = true;
+    }
+
+    private static void drain(HttpURLConnection conn) {
+        // Reading the rest of the body lets the connection to the daemon be kept alive
+        try (InputStream in = conn.getErrorStream()) {
+            if (in != null) {
+                IOUtils.skip(in, Long.MAX_VALUE);
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The targetPath as the daemon's requests carry it
+     */
+    static JSONObject toJSON(ImmutableTriple<String, String, String> immutableTriple) {
+        return new JSONObject().put(SCHEME, immutableTriple.getLeft()).put(HOST, immutableTriple.getMiddle())
+                .put(PATH, immutableTriple.getRight());
+    }
+
+    /**
+     * @param json A targetPath as the daemon's requests carry it
+     * @return The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @throws JSONException if a part is missing
+     */
+    static ImmutableTriple<String, String, String> fromJSON(JSONObject json) {
+        return new ImmutableTriple<>(json.getString(SCHEME), json.getString(HOST), json.getString(PATH));
+    }
+}
@@ -0,0 +1,139 @@
+package io.dockstore.provision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A resolved DOS data object: its URLs, most preferred first, with the size and checksums the DOS server gave for it.
+ * Objects with a cryptographic checksum in common, and the same size if both have one, hold the same bytes, however
+ * they were referred to.
+ */
+public final class DOSDataObject {
+
+    static final String SIZE = "size";
+    static final String CHECKSUMS = "checksums";
+
+    private static final String CHECKSUM = "checksum";
+    private static final String TYPE = "type";
+
+    private final List<String> urls;
+    private final Long size;
+    private final Map<String, String> checksums;
+
+    DOSDataObject(List<String> urls, Long size, Map<String, String> checksums) {
+        this.urls = Collections.unmodifiableList(new ArrayList<>(urls));
+        this.size = size;
+        this.checksums = Collections.unmodifiableMap(new LinkedHashMap<>(checksums));
+    }
+
+    /**
+     * @param dataObject The <code>data_object</code> of a DOS response
+     * @param urls       Its URLs, in the order they should be tried
+     * @return The object, without a size or checksums if the response did not have usable ones
+     */
+    static DOSDataObject of(JSONObject dataObject, List<String> urls) {
+        Long size = null;
+        // DOS sends the size as a string, indexd as a number
+        Object value = dataObject.opt(SIZE);
+        if (value != null) {
+            try {
+                size = Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException e) {
+                System.err.println("Error: ignoring size " + value + ", it is not a number");
+            }
+        }
+
+        Map<String, String> checksums = new LinkedHashMap<>();
+        JSONArray checksumList = dataObject.optJSONArray(CHECKSUMS);
+        if (checksumList != null) {
+            for (Object element : checksumList) {
+                if (element instanceof JSONObject) {
+                    String type = normalizeType(((JSONObject)element).optString(TYPE, ""));
+                    String checksum = ((JSONObject)element).optString(CHECKSUM, "").trim();
+                    if (!type.isEmpty() && !checksum.isEmpty()) {
+                        checksums.putIfAbsent(type, checksum);
+                    }
+                }
+            }
+        }
+        return new DOSDataObject(urls, size, checksums);
+    }
+
+    /**
+     * @param type A checksum type, such as <code>md5</code> or <code>SHA-256</code>
+     * @return The type in lower case without dashes, such as <code>md5</code> or <code>sha256</code>
+     */
+    static String normalizeType(String type) {
+        return type.trim().toLowerCase(Locale.ROOT).replace("-", "");
+    }
+
+    /**
+     * @param checksums Checksum types mapped to checksums
+     * @return The checksums in the form of a DOS response
+     */
+    static JSONArray toJSON(Map<String, String> checksums) {
+        JSONArray checksumList = new JSONArray();
+        checksums.forEach((type, checksum) -> checksumList.put(new JSONObject().put(CHECKSUM, checksum).put(TYPE, type)));
+        return checksumList;
+    }
+
+    DOSDataObject withUrls(List<String> newUrls) {
+        return new DOSDataObject(newUrls, size, checksums);
+    }
+
+    /**
+     * Only the checksums the content store can verify are used. Others, such as a 32-bit <code>crc32c</code> or an S3
+     * <code>etag</code>, are too short or too loosely defined for different objects never to share one.
+     *
+     * @return Each cryptographic checksum as <code>type:checksum</code>, which an object holding the same bytes has too
+     */
+    Set<String> contentKeys() {
+        return checksums.entrySet().stream().filter(checksum -> DOSContentStore.DIGESTS.containsKey(checksum.getKey()))
+                .map(checksum -> checksum.getKey() + ":" + checksum.getValue().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @param other Another object
+     * @return Whether the objects hold the same bytes: they share a content key, and a size if both have one
+     */
+    boolean hasSameContent(DOSDataObject other) {
+        if (size != null && other.size != null && !size.equals(other.size)) {
+            return false;
+        }
+        Set<String> contentKeys = contentKeys();
+        return other.contentKeys().stream().anyMatch(contentKeys::contains);
+    }
+
+    /**
+     * @return The URLs of the object, most preferred first
+     */
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    /**
+     * @return The size of the object in bytes, if the DOS server gave it
+     */
+    public Optional<Long> getSize() {
+        return Optional.ofNullable(size);
+    }
+
+    /**
+     * @return Checksum types, in lower case without dashes such as <code>md5</code> or <code>sha256</code>, mapped to
+     * the object's checksum of that type, in the order the DOS server listed them
+     */
+    public Map<String, String> getChecksums() {
+        return checksums;
+    }
+}
@@ -0,0 +1,167 @@
+package io.dockstore.provision;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * On-disk cache of resolved DOS data objects that outlives the launcher JVM.
+ *
+ * Each entry is a small file named after the SHA-1 of its key and sharded into sub-directories by the first byte of
+ * the hash, so a lookup opens exactly one file. An entry holds three lines: its expiry time in epoch milliseconds,
+ * the key it was stored under, and the JSON response. A fourth line holds the validators the server sent with the
+ * response, if any; such an entry is kept after it expires so that a later launch can revalidate it.
+ *
+ * Entries are written to a temporary file in the same directory and atomically renamed into place, so several
+ * launcher processes can read and write the same directory at once and a reader only ever sees a complete entry.
+ */
+class DOSDiskCache {
+
+    private final Path directory;
+    private final long ttlMillis;
+    private final Clock clock;
+
+    /**
+     * @param directory  The cache directory, created if it does not exist
+     * @param ttlSeconds Time-to-live of a resolved data object, in seconds
+     */
+    DOSDiskCache(Path directory, long ttlSeconds) {
+        this(directory, ttlSeconds, Clock.systemUTC());
+    }
+
+    // Package-private constructor with a configurable clock for unit testing
+    DOSDiskCache(Path directory, long ttlSeconds, Clock clock) {
+        this.directory = directory;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(ttlSeconds, 0));
+        this.clock = clock;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Looks up a cached data object
+     *
+     * @param key The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The cached JSON response, or <code>Optional.empty()</code> if there is no live entry for the key
+     */
+    Optional<JSONObject> get(ImmutableTriple<String, String, String> key) {
+        return read(key).filter(entry -> !entry.isExpired()).map(Entry::getResponse);
+    }
+
+    /**
+     * Looks up a cached data object, including an expired one that can be revalidated
+     *
+     * @param key The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The cached entry, or <code>Optional.empty()</code> if there is no live or revalidatable entry for the key
+     */
+    Optional<Entry> read(ImmutableTriple<String, String, String> key) {
+        Path file = entryPath(key);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String expiresAt = in.readLine();
+            String storedKey = in.readLine();
+            String content = in.readLine();
+            String validators = in.readLine();
+            if (expiresAt == null || content == null || !keyString(key).equals(storedKey)) {
+                return Optional.empty();
+            }
+            Entry entry = new Entry(new JSONObject(content),
+                    validators == null ? DOSValidators.NONE : DOSValidators.fromJSON(validators),
+                    Long.parseLong(expiresAt) <= clock.millis());
+            if (entry.isExpired() && entry.getValidators().isEmpty()) {
+                Files.deleteIfExists(file);
+                return Optional.empty();
+            }
+            return Optional.of(entry);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | NumberFormatException | JSONException e) {
+            System.err.println("Error: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a resolved data object, replacing any existing entry for the key
+     *
+     * @param key      The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param response The JSON response to store
+     */
+    void put(ImmutableTriple<String, String, String> key, JSONObject response) {
+        put(key, response, DOSValidators.NONE);
+    }
+
+    /**
+     * Stores a resolved data object with its validators, replacing any existing entry for the key
+     *
+     * @param key        The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param response   The JSON response to store
+     * @param validators What the response can be revalidated with once it expires
+     */
+    void put(ImmutableTriple<String, String, String> key, JSONObject response, DOSValidators validators) {
+        if (ttlMillis == 0) {
+            return;
+        }
+        long expiresAt = clock.millis() + ttlMillis;
+        DOSFiles.writeAtomically(entryPath(key), out -> {
+            out.write(Long.toString(expiresAt));
+            out.write('\n');
+            out.write(keyString(key));
+            out.write('\n');
+            out.write(response.toString());
+            out.write('\n');
+            if (!validators.isEmpty()) {
+                out.write(validators.toJSON().toString());
+                out.write('\n');
+            }
+        });
+    }
+
+    Path entryPath(ImmutableTriple<String, String, String> key) {
+        String hash = Hashing.sha1().hashString(keyString(key), StandardCharsets.UTF_8).toString();
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private static String keyString(ImmutableTriple<String, String, String> key) {
+        return key.getLeft() + "://" + key.getMiddle() + "/" + key.getRight();
+    }
+
+    /**
+     * A stored data object, which may have expired if it has validators
+     */
+    static final class Entry {
+        private final JSONObject response;
+        private final DOSValidators validators;
+        private final boolean expired;
+
+        private Entry(JSONObject response, DOSValidators validators, boolean expired) {
+            this.response = response;
+            this.validators = validators;
+            this.expired = expired;
+        }
+
+        JSONObject getResponse() {
+            return response;
+        }
+
+        DOSValidators getValidators() {
+            return validators;
+        }
+
+        boolean isExpired() {
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Orders equally preferred URLs by how quickly the endpoints serving them answer, so that of several replicas of a
+ * data object in different regions the nearest one is downloaded first.
+ *
+ * An endpoint is measured by timing a TCP connect to it, which needs no credentials and costs one round trip. Its
+ * connect time is smoothed over repeated probes, and it is probed again once the last measurement is older than the
+ * time-to-live. Endpoints that have never been measured are probed together, and ordering waits for them for at most
+ * the probe budget; a probe that finishes later still informs later lookups. Endpoints being re-measured never hold
+ * up ordering.
+ *
+ * Measurements may be backed by a properties file so that short-lived launcher JVMs share what earlier ones learned.
+ * The probes finishing within {@value #SAVE_DELAY} ms of each other are written out together, and any measurements not
+ * yet written when the JVM exits are written then.
+ */
+class DOSEndpointRanker {
+
+    static final long DEFAULT_BUDGET = 200;
+    static final long DEFAULT_TTL = TimeUnit.MINUTES.toSeconds(10);
+    static final int PROBE_TIMEOUT = (int)TimeUnit.SECONDS.toMillis(2);
+    static final long SAVE_DELAY = 1000;
+
+    // The weight of a new measurement against the ones before it
+    private static final double SMOOTHING = 0.5;
+    private static final int PROBE_THREADS = 8;
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+    private static final String S3_HOST_SUFFIX = ".s3.amazonaws.com";
+
+    private final Map<String, Estimate> estimates = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Void>> probes = new ConcurrentHashMap<>();
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final long budgetMillis;
+    private final long ttlMillis;
+    private final Optional<Path> file;
+    private final Clock clock;
+    private final boolean virtualThreads;
+
+    /**
+     * @param budgetMillis   How long ordering may wait for endpoints to be measured, in milliseconds
+     * @param ttlSeconds     How long a measurement is used before the endpoint is probed again, in seconds
+     * @param file           The file measurements are persisted to, if any
+     * @param virtualThreads Whether to probe on virtual threads, if this JVM supports them
+     */
+    DOSEndpointRanker(long budgetMillis, long ttlSeconds, Optional<Path> file, boolean virtualThreads) {
+        this(budgetMillis, ttlSeconds, file, virtualThreads, Clock.systemUTC());
+    }
+
+    // The probe pools shared by every ranker, each created when a ranker first uses that kind of thread
+    private static final class VirtualThreadPools {
+        static final ExecutorService PROBE = DOSExecutors.newFixedPool(PROBE_THREADS, "dos-probe", true);
+    }
+
+    private static final class PlatformThreadPools {
+        static final ExecutorService PROBE = DOSExecutors.newFixedPool(PROBE_THREADS, "dos-probe", false);
+    }
+
+    // Writes out the measurements of rankers backed by a file, a while after they change and when the JVM exits
+    private static final class Saver {
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("dos-probe-save-%d").setDaemon(true).build());
+        private static final Set<DOSEndpointRanker> PENDING = ConcurrentHashMap.newKeySet();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> PENDING.forEach(DOSEndpointRanker::flush), "dos-probe-save"));
+        }
+
+        private static void schedule(DOSEndpointRanker ranker) {
+            PENDING.add(ranker);
+            try {
+                EXECUTOR.schedule(() -> {
+                    PENDING.remove(ranker);
+                    ranker.flush();
+                }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Left to the shutdown hook
+            }
+        }
+    }
+
+    // Package-private constructor with a configurable clock for unit testing
+    DOSEndpointRanker(long budgetMillis, long ttlSeconds, Optional<Path> file, boolean virtualThreads, Clock clock) {
+        this.budgetMillis = Math.max(budgetMillis, 0);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(ttlSeconds, 0));
+        this.file = file;
+        this.clock = clock;
+        this.virtualThreads = virtualThreads;
+        file.ifPresent(path -> estimates.putAll(load(path)));
+    }
+
+    /**
+     * @param tiers The URLs grouped by preference, most preferred group first
+     * @return The URLs group by group. Within a group, the URLs with an endpoint that can be measured are ordered from
+     * the fastest to the slowest, with those that could not be measured last, in the places such URLs held; the others
+     * keep the place the server listed them in.
+     */
+    List<URI> order(List<List<URI>> tiers) {
+        List<CompletableFuture<Void>> unmeasured = new ArrayList<>();
+        long now = clock.millis();
+        for (List<URI> tier : tiers) {
+            List<InetSocketAddress> endpoints = tier.stream().map(DOSEndpointRanker::endpoint).filter(Optional::isPresent)
+                    .map(Optional::get).collect(Collectors.toList());
+            if (endpoints.size() < 2) {
+                continue;
+            }
+            for (InetSocketAddress endpoint : endpoints) {
+                Estimate estimate = estimates.get(key(endpoint));
+                if (estimate == null) {
+                    unmeasured.add(probe(endpoint));
+                } else if (estimate.measuredAt + ttlMillis <= now) {
+                    probe(endpoint);
+                }
+            }
+        }
+        await(unmeasured);
+
+        List<URI> ordered = new ArrayList<>();
+        for (List<URI> tier : tiers) {
+            List<URI> ranked = new ArrayList<>(tier);
+            List<URI> measurable = tier.stream().filter(url -> endpoint(url).isPresent()).collect(Collectors.toList());
+            if (measurable.size() > 1) {
+                // A stable sort, so equally fast endpoints keep the server's order
+                measurable.sort(Comparator.comparingDouble(this::latencyMillis));
+                Iterator<URI> fastest = measurable.iterator();
+                for (int i = 0; i < ranked.size(); i++) {
+                    if (endpoint(ranked.get(i)).isPresent()) {
+                        ranked.set(i, fastest.next());
+                    }
+                }
+            }
+            ordered.addAll(ranked);
+        }
+        return ordered;
+    }
+
+    private void await(List<CompletableFuture<Void>> probing) {
+        if (probing.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(probing.toArray(new CompletableFuture<?>[0])).get(budgetMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Order by what has been measured so far, the rest are ranked last
+        }
+    }
+
+    /**
+     * @param url A URL of a data object
+     * @return The smoothed connect time of the endpoint serving the URL, in milliseconds, or infinity if it is unknown
+     */
+    double latencyMillis(URI url) {
+        return endpoint(url).map(endpoint -> estimates.get(key(endpoint)))
+                .map(estimate -> estimate.millis)
+                .orElse(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param url A URL of a data object
+     * @return The host and port a download of the URL connects to, or <code>Optional.empty()</code> if it is not known
+     * or would not tell apart where replicas are
+     */
+    static Optional<InetSocketAddress> endpoint(URI url) {
+        String scheme = url.getScheme();
+        // Bucket names that are not valid hostnames are only an authority
+        String host = url.getHost() != null ? url.getHost() : url.getAuthority();
+        if (scheme == null || host == null) {
+            return Optional.empty();
+        }
+        switch (scheme.toLowerCase(Locale.ROOT)) {
+        case "http":
+            return Optional.of(InetSocketAddress.createUnresolved(host, url.getPort() > 0 ? url.getPort() : HTTP_PORT));
+        case "https":
+            return Optional.of(InetSocketAddress.createUnresolved(host, url.getPort() > 0 ? url.getPort() : HTTPS_PORT));
+        case "s3":
+            // The bucket's virtual host resolves to the region the bucket is in
+            return Optional.of(InetSocketAddress.createUnresolved(host + S3_HOST_SUFFIX, HTTPS_PORT));
+        default:
+            // Including gs, which has no endpoint per region: every bucket is served from Google's anycast front end,
+            // so a connect time says nothing about where the bucket is
+            return Optional.empty();
+        }
+    }
+
+    private CompletableFuture<Void> probe(InetSocketAddress endpoint) {
+        String key = key(endpoint);
+        CompletableFuture<Void> probe = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = probes.putIfAbsent(key, probe);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        try {
+            (virtualThreads ? VirtualThreadPools.PROBE : PlatformThreadPools.PROBE).execute(() -> {
+                try {
+                    double millis;
+                    try {
+                        millis = connectMillis(endpoint);
+                    } catch (IOException e) {
+                        // An endpoint that cannot be reached ranks behind every one that can
+                        millis = PROBE_TIMEOUT;
+                    }
+                    record(key, millis);
+                } finally {
+                    probes.remove(key, probe);
+                    probe.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            probes.remove(key, probe);
+            probe.complete(null);
+        }
+        return probe;
+    }
+
+    /**
+     * Times a TCP connect to an endpoint, not counting the time to resolve its name
+     *
+     * @param endpoint The unresolved host and port
+     * @return The connect time in milliseconds
+     * @throws IOException if the endpoint could not be connected to within {@value #PROBE_TIMEOUT} milliseconds
+     */
+    double connectMillis(InetSocketAddress endpoint) throws IOException {
+        InetSocketAddress resolved = new InetSocketAddress(endpoint.getHostString(), endpoint.getPort());
+        try (Socket socket = new Socket()) {
+            long start = System.nanoTime();
+            socket.connect(resolved, PROBE_TIMEOUT);
+            return (System.nanoTime() - start) / 1e6;
+        }
+    }
+
+    private void record(String key, double millis) {
+        long now = clock.millis();
+        estimates.compute(key, (k, previous) -> new Estimate(
+                previous == null ? millis : previous.millis * (1 - SMOOTHING) + millis * SMOOTHING, now));
+        if (file.isPresent() && savePending.compareAndSet(false, true)) {
+            Saver.schedule(this);
+        }
+    }
+
+    /**
+     * Writes out the measurements made since they were last written, if there are any
+     */
+    void flush() {
+        if (savePending.compareAndSet(true, false)) {
+            file.ifPresent(this::save);
+        }
+    }
+
+    private static String key(InetSocketAddress endpoint) {
+        return endpoint.getHostString() + ":" + endpoint.getPort();
+    }
+
+    private Map<String, Estimate> load(Path path) {
+        Map<String, Estimate> loaded = new ConcurrentHashMap<>();
+        Properties properties = DOSFiles.loadProperties(path);
+        for (String key : properties.stringPropertyNames()) {
+            String[] value = properties.getProperty(key).split(",");
+            try {
+                loaded.put(key, new Estimate(Double.parseDouble(value[0]), Long.parseLong(value[1])));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // Skip malformed entries, the endpoint is simply probed again
+            }
+        }
+        return loaded;
+    }
+
+    private synchronized void save(Path path) {
+        // Merge with measurements other launcher processes have written since these were loaded
+        Map<String, Estimate> merged = load(path);
+        estimates.forEach((key, estimate) -> merged.merge(key, estimate, (a, b) -> a.measuredAt >= b.measuredAt ? a : b));
+
+        Properties properties = new Properties();
+        merged.forEach((key, estimate) -> properties.setProperty(key, estimate.millis + "," + estimate.measuredAt));
+        DOSFiles.storeProperties(path, properties);
+    }
+
+    private static final class Estimate {
+        private final double millis;
+        private final long measuredAt;
+
+        private Estimate(double millis, long measuredAt) {
+            this.millis = millis;
+            this.measuredAt = measuredAt;
+        }
+    }
+}
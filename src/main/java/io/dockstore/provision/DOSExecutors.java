@@ -0,0 +1,46 @@
+package io.dockstore.provision;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Creates the threads DOS lookups run on. This is the Java 8 version, which uses bounded pools of platform threads.
+ * The jar also holds a version for Java 21 and later, under <code>src/main/java21</code>, which runs lookups on
+ * virtual threads so that many concurrent lookups do not each hold a platform thread while waiting on a server.
+ */
+final class DOSExecutors {
+
+    /**
+     * Whether this JVM runs lookups on virtual threads when they are enabled
+     */
+    static final boolean VIRTUAL_THREADS = false;
+
+    private DOSExecutors() {
+    }
+
+    /**
+     * @param threads The number of lookups run at once
+     * @param name    The prefix of the threads' names
+     * @param virtual Whether to use virtual threads, if this JVM supports them
+     * @return A pool running at most <code>threads</code> tasks at once
+     */
+    static ExecutorService newFixedPool(int threads, String name, boolean virtual) {
+        return Executors.newFixedThreadPool(threads, threadFactory(name));
+    }
+
+    /**
+     * @param name    The prefix of the threads' names
+     * @param virtual Whether to use virtual threads, if this JVM supports them
+     * @return An executor running every task at once, reusing idle threads
+     */
+    static ExecutorService newCachedPool(String name, boolean virtual) {
+        return Executors.newCachedThreadPool(threadFactory(name));
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        return new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build();
+    }
+}
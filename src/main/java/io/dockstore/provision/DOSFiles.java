@@ -0,0 +1,89 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Reads and writes the small files the plugin shares between launcher processes. A file is written to a temporary file
+ * in the same directory and atomically renamed into place, so several processes can read and write it at once and a
+ * reader only ever sees a complete file. Failures are reported and otherwise ignored, since every such file only saves
+ * work that can be done again.
+ */
+final class DOSFiles {
+
+    static final String TEMP_PREFIX = ".tmp-";
+
+    private DOSFiles() {
+    }
+
+    @FunctionalInterface
+    interface Contents {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * @param file     The file to replace, whose directory is created if need be
+     * @param contents Writes the new contents of the file
+     * @return Whether the file was written
+     */
+    static boolean writeAtomically(Path file, Contents contents) {
+        Path temp = null;
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, TEMP_PREFIX, null);
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                contents.write(out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // The file was not replaced, a leftover temporary file is harmless
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param file A properties file
+     * @return Its properties, or none if it does not exist or cannot be read
+     */
+    static Properties loadProperties(Path file) {
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return properties;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return new Properties();
+        }
+        return properties;
+    }
+
+    /**
+     * @param file       The properties file to replace
+     * @param properties Its new contents
+     */
+    static void storeProperties(Path file, Properties properties) {
+        writeAtomically(file, out -> properties.store(out, null));
+    }
+}
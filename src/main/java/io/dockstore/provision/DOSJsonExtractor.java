@@ -0,0 +1,204 @@
+package io.dockstore.provision;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Extracts selected fields of the <code>data_object</code> from a DOS JSON response as it is read, without building
+ * the whole document. Fields that are not wanted, however large, are skipped character by character, and reading
+ * stops as soon as every wanted field has been found.
+ */
+class DOSJsonExtractor {
+
+    static final String DATA_OBJECT = "data_object";
+
+    private final Set<String> fields;
+
+    /**
+     * @param fields The names of the <code>data_object</code> fields to extract
+     */
+    DOSJsonExtractor(Set<String> fields) {
+        this.fields = ImmutableSet.copyOf(fields);
+    }
+
+    /**
+     * @param stream The UTF-8 encoded JSON response
+     * @return A JSONObject of the form <code>{"data_object": {...}}</code> holding only the wanted fields that were present
+     * @throws JSONException if the response is not valid JSON, or has no <code>data_object</code>
+     */
+    JSONObject extract(InputStream stream) {
+        return extract(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    JSONObject extract(Reader reader) {
+        JSONTokener x = new JSONTokener(reader);
+        expect(x, '{');
+        if (x.nextClean() != '}') {
+            x.back();
+            do {
+                String key = nextKey(x);
+                if (DATA_OBJECT.equals(key)) {
+                    return new JSONObject().put(DATA_OBJECT, extractFields(x));
+                }
+                skipValue(x);
+            } while (nextMember(x));
+        }
+        throw x.syntaxError("Response has no " + DATA_OBJECT);
+    }
+
+    private JSONObject extractFields(JSONTokener x) {
+        JSONObject dataObject = new JSONObject();
+        Set<String> remaining = new HashSet<>(fields);
+        expect(x, '{');
+        if (x.nextClean() == '}') {
+            return dataObject;
+        }
+        x.back();
+        do {
+            String key = nextKey(x);
+            if (remaining.remove(key)) {
+                dataObject.put(key, x.nextValue());
+                if (remaining.isEmpty()) {
+                    // Everything wanted has been read, the rest of the response is ignored
+                    return dataObject;
+                }
+            } else {
+                skipValue(x);
+            }
+        } while (nextMember(x));
+        return dataObject;
+    }
+
+    private static String nextKey(JSONTokener x) {
+        char c = x.nextClean();
+        if (c != '"' && c != '\'') {
+            throw x.syntaxError("Expected a quoted key");
+        }
+        String key = x.nextString(c);
+        expect(x, ':');
+        return key;
+    }
+
+    private static boolean nextMember(JSONTokener x) {
+        switch (x.nextClean()) {
+        case ',':
+            return true;
+        case '}':
+            return false;
+        default:
+            throw x.syntaxError("Expected a ',' or '}'");
+        }
+    }
+
+    private static void expect(JSONTokener x, char expected) {
+        if (x.nextClean() != expected) {
+            throw x.syntaxError("Expected a '" + expected + "'");
+        }
+    }
+
+    /**
+     * Skips over the next value without materializing it, so memory use does not depend on its size
+     */
+    private static void skipValue(JSONTokener x) {
+        int depth = 0;
+        do {
+            char c = x.nextClean();
+            switch (c) {
+            case 0:
+                throw x.syntaxError("Unterminated value");
+            case '"':
+            case '\'':
+                skipString(x, c);
+                break;
+            case '{':
+            case '[':
+                depth++;
+                break;
+            case '}':
+            case ']':
+                if (--depth < 0) {
+                    throw x.syntaxError("Unexpected '" + c + "'");
+                }
+                break;
+            default:
+                if (depth == 0) {
+                    // A bare literal such as a number, true, false or null ends at the next delimiter
+                    while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+                        c = x.next();
+                    }
+                    x.back();
+                }
+                break;
+            }
+        } while (depth > 0);
+    }
+
+    private static void skipString(JSONTokener x, char quote) {
+        for (;;) {
+            char c = x.next();
+            if (c == 0 || c == '\n' || c == '\r') {
+                throw x.syntaxError("Unterminated string");
+            } else if (c == '\\') {
+                x.next();
+            } else if (c == quote) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fails reads once more than a maximum number of bytes have been read, bounding the size of response accepted
+     */
+    static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("Response exceeds the maximum size of " + limit + " bytes");
+            }
+        }
+    }
+}
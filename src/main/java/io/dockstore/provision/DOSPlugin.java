@@ -2,19 +2,30 @@ package io.dockstore.provision;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.configuration2.MapConfiguration;
 import org.apache.commons.configuration2.convert.DefaultListDelimiterHandler;
 import org.apache.commons.lang3.StringUtils;
@@ -60,9 +71,27 @@ public class DOSPlugin extends Plugin {
 
         static final Set<String> SCHEME = new HashSet<>(Arrays.asList("dos"));
         static final String SCHEME_PREFERENCE = "scheme-preference";
+        static final String RESOLVER_THREADS = "resolver-threads";
+        static final int DEFAULT_RESOLVER_THREADS = 8;
+        static final String URL_RANKING = "url-ranking";
+        static final String URL_RANKING_LATENCY = "latency";
+        static final String URL_RANKING_BUDGET = "url-ranking-budget-ms";
+        static final String URL_RANKING_TTL = "url-ranking-ttl";
+        static final String CONTENT_STORE_DIR = "content-store-dir";
+        static final String CONTENT_STORE_VERIFY = "content-store-verify";
+
+        private static final String ENDPOINT_LATENCY_FILE = "endpoint-latency.properties";
 
         DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
         List<String> preferredSchemes = new ArrayList<>();
+        // Compiled from preferredSchemes when first needed, and again whenever the preferences change
+        private List<String> rankedSchemes = Collections.emptyList();
+        private DOSSchemeRanking schemeRanking = new DOSSchemeRanking(rankedSchemes);
+        Optional<DOSEndpointRanker> endpointRanker = Optional.empty();
+        Optional<DOSContentStore> contentStore = Optional.empty();
+        int resolverThreads = DEFAULT_RESOLVER_THREADS;
+        boolean virtualThreads = true;
+        private ExecutorService resolverPool;
 
         @Override
         public void setConfiguration(Map<String, String> map) {
@@ -73,6 +102,28 @@ public class DOSPlugin extends Plugin {
             this.preferredSchemes = config.getList(String.class, SCHEME_PREFERENCE, Collections.emptyList());
             // Remove any empty strings from the list
             this.preferredSchemes.removeIf(e -> e.equals(""));
+
+            // Measuring endpoints would reach out to them, which offline lookups never do
+            if (URL_RANKING_LATENCY.equals(config.getString(URL_RANKING, "")) && !config.getBoolean(DOSPluginUtil.OFFLINE, false)) {
+                String cacheDir = config.getString(DOSPluginUtil.CACHE_DIR, "");
+                this.endpointRanker = Optional.of(new DOSEndpointRanker(
+                        config.getLong(URL_RANKING_BUDGET, DOSEndpointRanker.DEFAULT_BUDGET),
+                        config.getLong(URL_RANKING_TTL, DOSEndpointRanker.DEFAULT_TTL),
+                        cacheDir.isEmpty() ? Optional.empty() : Optional.of(Paths.get(cacheDir, ENDPOINT_LATENCY_FILE)),
+                        config.getBoolean(DOSPluginUtil.VIRTUAL_THREADS, true)));
+            } else {
+                this.endpointRanker = Optional.empty();
+            }
+
+            String contentStoreDir = config.getString(CONTENT_STORE_DIR, "");
+            this.contentStore = contentStoreDir.isEmpty() ? Optional.empty()
+                    : Optional.of(new DOSContentStore(Paths.get(contentStoreDir), config.getBoolean(CONTENT_STORE_VERIFY, true)));
+
+            this.resolverThreads = Math.max(config.getInt(RESOLVER_THREADS, DEFAULT_RESOLVER_THREADS), 1);
+            this.virtualThreads = config.getBoolean(DOSPluginUtil.VIRTUAL_THREADS, true);
+            shutdownResolverPool();
+
+            dosPluginUtil.setConfiguration(config);
         }
 
         public Set<String> schemesHandled() {
@@ -80,47 +131,228 @@ public class DOSPlugin extends Plugin {
         }
 
         public List<String> prepareDownload(String targetPath) {
-            List<String> urlList = new ArrayList<>();
+            return DOSPluginUtil.await(prepareDownloadAsync(targetPath, MoreExecutors.directExecutor()), new ArrayList<>());
+        }
 
-            // Linked Hash Maps ensure insertion-ordered key-value pairs. URLs resolved by the plugin are
-            // inserted by scheme (key) and a list of that scheme's URL(s) (value)
-            Map<String, List<String>> urlMap = new LinkedHashMap<>();
+        /**
+         * Resolves a DOS URI without blocking the caller. The lookup runs on the pool of <code>resolver-threads</code>
+         * workers, unless it is answered from the cache.
+         *
+         * @param targetPath The DOS URI to resolve
+         * @return The URLs of the data object, in the same order as {@link #prepareDownload(String)}. The future fails
+         * with a {@link java.util.concurrent.TimeoutException} if the lookup does not finish within
+         * <code>resolution-deadline-ms</code>, and cancelling it abandons the lookup.
+         */
+        public CompletableFuture<List<String>> prepareDownloadAsync(String targetPath) {
+            return prepareDownloadAsync(targetPath, getResolverPool());
+        }
 
+        /**
+         * Resolves a DOS URI without blocking the caller, like {@link #prepareDownloadAsync(String)}
+         *
+         * @param targetPath The DOS URI to resolve
+         * @param executor   Runs the lookup, if it is not answered from the cache or already in flight
+         * @return The URLs of the data object, most preferred first
+         */
+        public CompletableFuture<List<String>> prepareDownloadAsync(String targetPath, Executor executor) {
+            return lookup(targetPath, executor, dataObject -> new ArrayList<>(dataObject.getUrls()), new ArrayList<>());
+        }
+
+        /**
+         * Resolves a DOS URI like {@link #prepareDownload(String)}, keeping the size and checksums of the data object
+         *
+         * @param targetPath The DOS URI to resolve
+         * @return The data object, or <code>Optional.empty()</code> if it could not be resolved
+         */
+        public Optional<DOSDataObject> resolve(String targetPath) {
+            return DOSPluginUtil.await(lookup(targetPath, MoreExecutors.directExecutor(), Optional::of, Optional.empty()),
+                    Optional.empty());
+        }
+
+        /**
+         * Resolves a DOS URI without blocking the caller, like {@link #prepareDownloadAsync(String)}
+         *
+         * @param targetPath The DOS URI to resolve
+         * @return The data object, or <code>Optional.empty()</code> if it could not be resolved
+         */
+        public CompletableFuture<Optional<DOSDataObject>> resolveAsync(String targetPath) {
+            return lookup(targetPath, getResolverPool(), Optional::of, Optional.empty());
+        }
+
+        private <T> CompletableFuture<T> lookup(String targetPath, Executor executor, Function<DOSDataObject, T> found, T notFound) {
             Optional<ImmutableTriple<String, String, String>> dosUri = dosPluginUtil.splitURI(targetPath);
+            if (!dosUri.isPresent() || !schemesHandled().contains(dosUri.get().getLeft())) {
+                return CompletableFuture.completedFuture(notFound);
+            }
 
-            if (dosUri.isPresent() && schemesHandled().contains(dosUri.get().getLeft())) {
-                Optional<JSONObject> response = dosPluginUtil.getResponse(dosUri.get());
-                if(response.isPresent()) {
-                    JSONArray retrievedUrls = response.get().getJSONObject("data_object").getJSONArray("urls");
-
-                    // Place all URLs into map for fast lookup time. URLs with duplicate schemes are merged into the existing list
-                    for (int i = 0; i < retrievedUrls.length(); i++) {
-                        try {
-                            URI uri = new URI(retrievedUrls.getJSONObject(i).getString("url"));
-                            String scheme = uri.getScheme();
-
-                            // Merge the new URI to the list associated with the current scheme
-                            urlMap.merge(scheme, Collections.singletonList(uri.toString()), (list1, list2) ->
-                                    Stream.of(list1, list2)
-                                            .flatMap(Collection::stream)
-                                            .collect(Collectors.toList()));
-                        } catch (URISyntaxException e) {
-                            continue;
-                        }
-                    }
-                    // Append all URLs into urlList in order of preference (if any) and remove added schemes from map to avoid duplication
-                    for (String scheme : this.preferredSchemes) {
-                        if (urlMap.containsKey(scheme)) {
-                            urlList.addAll(urlMap.get(scheme));
-                            urlMap.remove(scheme);
+            CompletableFuture<Optional<JSONObject>> response = dosPluginUtil.getResponseAsync(dosUri.get(), executor);
+            CompletableFuture<T> result = response.thenApply(json -> json.map(this::toDataObject).map(found).orElse(notFound));
+            // Cancelling the result cancels the lookup it is waiting on
+            result.whenComplete((value, e) -> {
+                if (result.isCancelled()) {
+                    response.cancel(false);
+                }
+            });
+            return result;
+        }
+
+        private DOSDataObject toDataObject(JSONObject response) {
+            DOSDataObject dataObject = DOSDataObject.of(response.getJSONObject("data_object"), orderUrls(response));
+            Optional<Path> copy = contentStore.flatMap(store -> store.find(dataObject));
+            if (!copy.isPresent()) {
+                return dataObject;
+            }
+            // A copy already on disk beats any download
+            List<String> urls = new ArrayList<>(dataObject.getUrls().size() + 1);
+            urls.add(copy.get().toUri().toString());
+            urls.addAll(dataObject.getUrls());
+            dosPluginUtil.getMetrics().recordUrls("file", 1);
+            return dataObject.withUrls(urls);
+        }
+
+        private List<String> orderUrls(JSONObject response) {
+            JSONArray retrievedUrls = response.getJSONObject("data_object").getJSONArray("urls");
+
+            List<URI> uris = new ArrayList<>(retrievedUrls.length());
+            for (int i = 0; i < retrievedUrls.length(); i++) {
+                try {
+                    uris.add(new URI(retrievedUrls.getJSONObject(i).getString("url")));
+                } catch (URISyntaxException e) {
+                    continue;
+                }
+            }
+            // Order the URLs by scheme preference in one pass over the compiled rank table, then by latency within a rank
+            DOSSchemeRanking ranking = schemeRanking();
+            List<URI> ordered = endpointRanker.isPresent() ? endpointRanker.get().order(ranking.tiers(uris)) : ranking.order(uris);
+            List<String> urlList = new ArrayList<>(uris.size());
+            for (URI uri : ordered) {
+                urlList.add(uri.toString());
+                dosPluginUtil.getMetrics().recordUrls(uri.getScheme(), 1);
+            }
+            return urlList;
+        }
+
+        private synchronized DOSSchemeRanking schemeRanking() {
+            if (!rankedSchemes.equals(preferredSchemes)) {
+                rankedSchemes = new ArrayList<>(preferredSchemes);
+                schemeRanking = new DOSSchemeRanking(rankedSchemes);
+            }
+            return schemeRanking;
+        }
+
+        /**
+         * Resolves many DOS URIs in parallel on a pool of <code>resolver-threads</code> workers. URIs are grouped by DOS
+         * host so that each worker resolves a run of lookups against the same server, and objects on hosts in
+         * <code>bulk-lookup-hosts</code> are first fetched many to a request. URIs whose objects share a checksum are
+         * given the same URLs, those of the first of them, so that the bytes are only downloaded once. Only
+         * cryptographic checksums count, and objects of different sizes are never merged.
+         *
+         * @param targetPaths The DOS URIs to resolve
+         * @return Every distinct target path, in the order given, mapped to its URLs in the same order as
+         * {@link #prepareDownload(String)}. A URI that could not be resolved is mapped to an empty list.
+         */
+        public Map<String, List<String>> prepareDownloads(Collection<String> targetPaths) {
+            Map<String, DOSDataObject> dataObjects = resolveAll(targetPaths);
+            Map<String, List<String>> results = new LinkedHashMap<>();
+            for (String targetPath : targetPaths) {
+                DOSDataObject dataObject = dataObjects.get(targetPath);
+                results.putIfAbsent(targetPath, dataObject == null ? Collections.emptyList() : new ArrayList<>(dataObject.getUrls()));
+            }
+            return results;
+        }
+
+        /**
+         * Resolves many DOS URIs in parallel like {@link #prepareDownloads(Collection)}, keeping the size and checksums
+         * of the data objects. URIs whose objects share a checksum are mapped to the same data object.
+         *
+         * @param targetPaths The DOS URIs to resolve
+         * @return Every target path that could be resolved, in the order given, mapped to its data object
+         */
+        public Map<String, DOSDataObject> resolveAll(Collection<String> targetPaths) {
+            Map<String, List<String>> byHost = new LinkedHashMap<>();
+            List<ImmutableTriple<String, String, String>> dosUris = new ArrayList<>();
+            for (String targetPath : new LinkedHashSet<>(targetPaths)) {
+                Optional<ImmutableTriple<String, String, String>> dosUri = dosPluginUtil.splitURI(targetPath);
+                dosUri.filter(split -> schemesHandled().contains(split.getLeft())).ifPresent(dosUris::add);
+                String host = dosUri.map(ImmutableTriple::getMiddle).orElse("");
+                byHost.computeIfAbsent(host, k -> new ArrayList<>()).add(targetPath);
+            }
+
+            // Fetch whatever the hosts can look up in bulk first, so most of the lookups below are answered from the cache
+            dosPluginUtil.loadInBulk(dosUris, getResolverPool());
+
+            // Split each host's URIs into at most one run per worker, so a single busy host can still use the whole pool
+            List<Callable<Void>> tasks = new ArrayList<>();
+            Map<String, DOSDataObject> resolved = new ConcurrentHashMap<>();
+            for (List<String> hostPaths : byHost.values()) {
+                int runLength = (hostPaths.size() + resolverThreads - 1) / resolverThreads;
+                for (List<String> run : Lists.partition(hostPaths, runLength)) {
+                    tasks.add(() -> {
+                        for (String targetPath : run) {
+                            resolveOrEmpty(targetPath).ifPresent(dataObject -> resolved.put(targetPath, dataObject));
                         }
+                        return null;
+                    });
+                }
+            }
+
+            try {
+                getResolverPool().invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // Report results in the caller's order, which grouping by host does not preserve, with the first object
+            // holding a checksum standing in for every later one
+            Map<String, DOSDataObject> results = new LinkedHashMap<>();
+            Map<String, DOSDataObject> byContent = new HashMap<>();
+            for (String targetPath : new LinkedHashSet<>(targetPaths)) {
+                DOSDataObject dataObject = resolved.get(targetPath);
+                if (dataObject == null) {
+                    continue;
+                }
+                Set<String> contentKeys = dataObject.contentKeys();
+                Optional<DOSDataObject> first = contentKeys.stream().map(byContent::get).filter(Objects::nonNull)
+                        .filter(dataObject::hasSameContent).findFirst();
+                if (first.isPresent()) {
+                    dosPluginUtil.getMetrics().recordDuplicate();
+                    results.put(targetPath, first.get());
+                } else {
+                    for (String contentKey : contentKeys) {
+                        byContent.putIfAbsent(contentKey, dataObject);
                     }
-                    for (List<String> remainder : urlMap.values()) {
-                        urlList.addAll(remainder);
-                    }
+                    results.put(targetPath, dataObject);
                 }
             }
-            return urlList;
+            return results;
+        }
+
+        private Optional<DOSDataObject> resolveOrEmpty(String targetPath) {
+            try {
+                Optional<DOSDataObject> dataObject = resolve(targetPath);
+                if (!dataObject.isPresent() || dataObject.get().getUrls().isEmpty()) {
+                    System.err.println("Error: could not resolve " + targetPath);
+                    return Optional.empty();
+                }
+                return dataObject;
+            } catch (RuntimeException e) {
+                System.err.println("Error: could not resolve " + targetPath + ": " + e.getMessage());
+                return Optional.empty();
+            }
+        }
+
+        private synchronized ExecutorService getResolverPool() {
+            if (resolverPool == null) {
+                resolverPool = DOSExecutors.newFixedPool(resolverThreads, "dos-resolver", virtualThreads);
+            }
+            return resolverPool;
+        }
+
+        private synchronized void shutdownResolverPool() {
+            if (resolverPool != null) {
+                resolverPool.shutdown();
+                resolverPool = null;
+            }
         }
     }
 }
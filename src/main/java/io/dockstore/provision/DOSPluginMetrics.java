@@ -0,0 +1,419 @@
+package io.dockstore.provision;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.json.JSONObject;
+
+/**
+ * Counters and latency histograms describing how DOS lookups went, so that slow launches can be attributed to
+ * resolution or to the download that follows it.
+ *
+ * Latencies are kept per DOS host and split into the time to connect, the time from connecting to the first byte of
+ * the response, and the time to read and parse the response body. The metrics can be published over JMX and
+ * periodically written to a JSON file, which is written once more when the JVM exits. Each instance is published
+ * under a name of its own, so the metrics of every DOSPluginUtil in a JVM can be told apart.
+ */
+class DOSPluginMetrics implements DOSPluginMetricsMXBean {
+
+    static final String OBJECT_NAME = "io.dockstore.provision:type=DOSPluginMetrics";
+    static final String NAME_KEY = "name";
+    static final long DEFAULT_DUMP_INTERVAL = TimeUnit.MINUTES.toSeconds(1);
+
+    /**
+     * How a lookup that went to a DOS server, or failed before it could, ended
+     */
+    enum Outcome {
+        OK, NOT_MODIFIED, NOT_OK, IO_ERROR, JSON_ERROR, BAD_URI, CIRCUIT_OPEN, OFFLINE, DAEMON
+    }
+
+    enum Phase {
+        CONNECT("connect"), TIME_TO_FIRST_BYTE("time-to-first-byte"), PARSE("parse");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+    private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99"};
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+    private final Map<String, Map<Phase, Histogram>> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> urlsByScheme = new ConcurrentHashMap<>();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder httpsFallbacks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesDecoded = new LongAdder();
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder bulkObjects = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    private final String objectName = OBJECT_NAME + "," + NAME_KEY + "=" + INSTANCES.incrementAndGet();
+
+    private ScheduledExecutorService dumper;
+    private Thread finalDump;
+
+    DOSPluginMetrics() {
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    void recordOutcome(Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    void recordLatency(String host, Phase phase, long nanos) {
+        latencies.computeIfAbsent(host, k -> {
+            Map<Phase, Histogram> histograms = new EnumMap<>(Phase.class);
+            for (Phase p : Phase.values()) {
+                histograms.put(p, new Histogram());
+            }
+            return histograms;
+        }).get(phase).record(nanos);
+    }
+
+    /**
+     * @param httpsFallback Whether the connection was only made over https after http failed
+     */
+    void recordConnection(boolean httpsFallback) {
+        connections.increment();
+        if (httpsFallback) {
+            httpsFallbacks.increment();
+        }
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordFailover() {
+        failovers.increment();
+    }
+
+    /**
+     * @param received The number of bytes of a response body that arrived, compressed if the server compressed it
+     * @param decoded  The number of bytes they decompressed to
+     */
+    void recordBytes(long received, long decoded) {
+        bytesReceived.add(received);
+        bytesDecoded.add(decoded);
+    }
+
+    /**
+     * @param objects The number of objects a bulk request found and cached
+     */
+    void recordBulkLookup(int objects) {
+        bulkRequests.increment();
+        bulkObjects.add(objects);
+    }
+
+    void recordDuplicate() {
+        duplicates.increment();
+    }
+
+    void recordUrls(String scheme, int count) {
+        urlsByScheme.computeIfAbsent(String.valueOf(scheme), k -> new LongAdder()).add(count);
+    }
+
+    long getCount(Outcome outcome) {
+        return outcomes.get(outcome).sum();
+    }
+
+    Optional<Histogram> getLatency(String host, Phase phase) {
+        return Optional.ofNullable(latencies.get(host)).map(histograms -> histograms.get(phase));
+    }
+
+    @Override
+    public Map<String, Long> getRequestsByOutcome() {
+        Map<String, Long> counts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> counts.put(outcome.name(), count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMillis() {
+        Map<String, Double> millis = new TreeMap<>();
+        latencies.forEach((host, histograms) -> histograms.forEach((phase, histogram) ->
+                histogram.toJSON().toMap().forEach((statistic, value) ->
+                        millis.put(host + " " + phase.label + " " + statistic, ((Number)value).doubleValue()))));
+        return millis;
+    }
+
+    @Override
+    public long getHttpsFallbacks() {
+        return httpsFallbacks.sum();
+    }
+
+    @Override
+    public double getHttpsFallbackRate() {
+        long total = connections.sum();
+        return total == 0 ? 0 : (double)httpsFallbacks.sum() / total;
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getFailovers() {
+        return failovers.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesDecoded() {
+        return bytesDecoded.sum();
+    }
+
+    @Override
+    public long getBulkRequests() {
+        return bulkRequests.sum();
+    }
+
+    @Override
+    public long getBulkObjects() {
+        return bulkObjects.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public Map<String, Long> getUrlsByScheme() {
+        Map<String, Long> counts = new TreeMap<>();
+        urlsByScheme.forEach((scheme, count) -> counts.put(scheme, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public String getSnapshot() {
+        return toJSON().toString(2);
+    }
+
+    @Override
+    public void reset() {
+        outcomes.values().forEach(LongAdder::reset);
+        latencies.clear();
+        urlsByScheme.clear();
+        connections.reset();
+        httpsFallbacks.reset();
+        retries.reset();
+        failovers.reset();
+        bytesReceived.reset();
+        bytesDecoded.reset();
+        bulkRequests.reset();
+        bulkObjects.reset();
+        duplicates.reset();
+    }
+
+    JSONObject toJSON() {
+        JSONObject latency = new JSONObject();
+        latencies.forEach((host, histograms) -> {
+            JSONObject phases = new JSONObject();
+            histograms.forEach((phase, histogram) -> phases.put(phase.label, histogram.toJSON()));
+            latency.put(host, phases);
+        });
+        return new JSONObject()
+                .put("requests", new JSONObject(getRequestsByOutcome()))
+                .put("latency", latency)
+                .put("connections", connections.sum())
+                .put("https-fallbacks", getHttpsFallbacks())
+                .put("https-fallback-rate", getHttpsFallbackRate())
+                .put("retries", getRetries())
+                .put("failovers", getFailovers())
+                .put("bytes-received", getBytesReceived())
+                .put("bytes-decoded", getBytesDecoded())
+                .put("bulk-requests", getBulkRequests())
+                .put("bulk-objects", getBulkObjects())
+                .put("duplicates", getDuplicates())
+                .put("urls-by-scheme", new JSONObject(getUrlsByScheme()));
+    }
+
+    /**
+     * @return The name the metrics are published under, {@value #OBJECT_NAME} with a <code>name</code> numbering the
+     * instances created in this JVM
+     */
+    String getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Publishes the metrics over JMX, unless they already are
+     */
+    synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops publishing the metrics over JMX, if they are
+     */
+    synchronized void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the metrics to a file every interval and when the JVM exits
+     *
+     * @param file            The JSON file to write
+     * @param intervalSeconds Seconds between writes, 0 to only write when the JVM exits
+     */
+    synchronized void startDumping(Path file, long intervalSeconds) {
+        stopDumping();
+        if (intervalSeconds > 0) {
+            dumper = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("dos-metrics-%d").setDaemon(true).build());
+            dumper.scheduleAtFixedRate(() -> dump(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+        // Launches are usually shorter than the interval, so the totals are always written on the way out
+        finalDump = new Thread(() -> dump(file), "dos-metrics-final");
+        Runtime.getRuntime().addShutdownHook(finalDump);
+    }
+
+    synchronized void stopDumping() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+        if (finalDump != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(finalDump);
+            } catch (IllegalStateException e) {
+                // The JVM is already exiting and the hook is running
+            }
+            finalDump = null;
+        }
+    }
+
+    void dump(Path file) {
+        String snapshot = getSnapshot();
+        DOSFiles.writeAtomically(file, out -> {
+            out.write(snapshot);
+            out.write('\n');
+        });
+    }
+
+    /**
+     * A latency histogram with power-of-two microsecond buckets, so recording is a few atomic adds and percentiles
+     * are accurate to within a factor of two
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(value)));
+            count.increment();
+            totalNanos.add(value);
+            maxNanos.accumulate(value);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : toMillis(totalNanos.sum()) / n;
+        }
+
+        double getMaxMillis() {
+            return toMillis(maxNanos.get());
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 1
+         * @return The upper bound of the bucket holding the percentile, at most the largest latency recorded
+         */
+        double getPercentileMillis(double percentile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max((long)Math.ceil(percentile * n), 1);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBoundMicros(i) / 1000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject()
+                    .put("count", getCount())
+                    .put("mean", getMeanMillis())
+                    .put("max", getMaxMillis());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                json.put(PERCENTILE_LABELS[i], getPercentileMillis(PERCENTILES[i]));
+            }
+            return json;
+        }
+
+        private static int bucket(long micros) {
+            // Bucket i holds latencies below 2^i microseconds and at or above the previous bucket's bound
+            return Math.min(BUCKETS - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        }
+
+        private static double upperBoundMicros(int bucket) {
+            return Math.pow(2, bucket);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
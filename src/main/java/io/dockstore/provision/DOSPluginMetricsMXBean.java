@@ -0,0 +1,79 @@
+package io.dockstore.provision;
+
+import java.util.Map;
+
+/**
+ * The plugin's resolution metrics as published over JMX, under {@value DOSPluginMetrics#OBJECT_NAME} with a
+ * <code>name</code> for each instance
+ */
+public interface DOSPluginMetricsMXBean {
+
+    /**
+     * @return The number of lookups that ended in each outcome: OK, NOT_MODIFIED, NOT_OK, IO_ERROR, JSON_ERROR,
+     * BAD_URI and CIRCUIT_OPEN
+     */
+    Map<String, Long> getRequestsByOutcome();
+
+    /**
+     * @return Latency percentiles in milliseconds, keyed by "host phase statistic", where the phase is connect,
+     * time-to-first-byte or parse
+     */
+    Map<String, Double> getLatencyMillis();
+
+    /**
+     * @return The number of successful connections that were only made over https after http failed
+     */
+    long getHttpsFallbacks();
+
+    /**
+     * @return The fraction of successful connections that were only made over https after http failed
+     */
+    double getHttpsFallbackRate();
+
+    /**
+     * @return The number of times a lookup was repeated after a transient failure
+     */
+    long getRetries();
+
+    /**
+     * @return The number of times a lookup moved on to another replica of a DOS server after one failed
+     */
+    long getFailovers();
+
+    /**
+     * @return The number of response body bytes that arrived from DOS servers, compressed where the server compressed them
+     */
+    long getBytesReceived();
+
+    /**
+     * @return The number of response body bytes read after decompression
+     */
+    long getBytesDecoded();
+
+    /**
+     * @return The number of bulk requests that were answered, each looking up many data objects at once
+     */
+    long getBulkRequests();
+
+    /**
+     * @return The number of data objects found by bulk requests, which were not then looked up one at a time
+     */
+    long getBulkObjects();
+
+    /**
+     * @return The number of DOS URIs in a batch that were given the URLs of an earlier one with the same checksum
+     */
+    long getDuplicates();
+
+    /**
+     * @return The number of URLs returned to Dockstore for each URL scheme
+     */
+    Map<String, Long> getUrlsByScheme();
+
+    /**
+     * @return All metrics as a JSON document, in the same form as the dump file
+     */
+    String getSnapshot();
+
+    void reset();
+}
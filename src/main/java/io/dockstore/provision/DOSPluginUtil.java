@@ -1,32 +1,301 @@
 package io.dockstore.provision;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import static java.net.HttpURLConnection.HTTP_GONE;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 
 class DOSPluginUtil {
 
     private static final String API = "/ga4gh/dos/v1/dataobjects/";
-    private static final String DG_HOST = "dataguids.org";
+
+    static final String CACHE_MAX_ENTRIES = "cache-max-entries";
+    static final String CACHE_TTL = "cache-ttl";
+    static final String CACHE_NEGATIVE_TTL = "cache-negative-ttl";
+    static final String CACHE_STALE_WHILE_REVALIDATE = "cache-stale-while-revalidate";
+    static final String CACHE_DIR = "cache-dir";
+    static final String HTTP_COMPRESSION = "http-compression";
+    static final String PROTOCOL_AFFINITY_TTL = "protocol-affinity-ttl";
+    static final String FORCE_HTTPS_HOSTS = "force-https-hosts";
+    static final String MAX_RESPONSE_BYTES = "max-response-bytes";
+    static final long DEFAULT_MAX_RESPONSE_BYTES = 8L * 1024 * 1024;
+    static final String CONNECT_TIMEOUT = "connect-timeout-ms";
+    static final String READ_TIMEOUT = "read-timeout-ms";
+    static final String RESOLUTION_DEADLINE = "resolution-deadline-ms";
+    static final String HEDGE_DELAY = "hedge-delay-ms";
+    static final long DEFAULT_CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    static final long DEFAULT_READ_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    static final long DEFAULT_RESOLUTION_DEADLINE = TimeUnit.SECONDS.toMillis(60);
+    static final String METRICS_JMX = "metrics-jmx";
+    static final String METRICS_FILE = "metrics-file";
+    static final String METRICS_DUMP_INTERVAL = "metrics-dump-interval";
+    static final String MAX_RETRIES = "max-retries";
+    static final String RETRY_BASE_DELAY = "retry-base-delay-ms";
+    static final String RETRY_MAX_DELAY = "retry-max-delay-ms";
+    static final String CIRCUIT_BREAKER_FAILURES = "circuit-breaker-failures";
+    static final String CIRCUIT_BREAKER_OPEN_TIME = "circuit-breaker-open-ms";
+    static final String BULK_LOOKUP_HOSTS = "bulk-lookup-hosts";
+    static final String BULK_LOOKUP_MAX_IDS = "bulk-lookup-max-ids";
+    static final String RESOLVERS = "resolvers";
+    static final String SNAPSHOT_FILE = "snapshot-file";
+    static final String OFFLINE = "offline";
+    static final String DAEMON_PORT = "daemon-port";
+    static final String VIRTUAL_THREADS = "virtual-threads";
+
+    // The data object fields read from a response, the rest are skipped without being parsed
+    static final String URLS = "urls";
+    static final Set<String> DATA_OBJECT_FIELDS = ImmutableSet.of(URLS, DOSValidators.UPDATED, DOSDataObject.SIZE, DOSDataObject.CHECKSUMS);
+
+    private static final String PROTOCOL_AFFINITY_FILE = "protocol-affinity.properties";
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private static final int REVALIDATION_THREADS = 2;
+
+    private static final ScheduledExecutorService DEADLINE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("dos-deadline-%d").setDaemon(true).build());
+
+    private DOSResponseCache responseCache = new DOSResponseCache();
+    private Optional<DOSDiskCache> diskCache = Optional.empty();
+    private Optional<DOSSnapshot> snapshot = Optional.empty();
+    private boolean offline;
+    private Optional<DOSDaemonClient> daemon = Optional.empty();
+    private boolean virtualThreads = true;
+    private DOSProtocolAffinity protocolAffinity = new DOSProtocolAffinity();
+    private final DOSJsonExtractor extractor = new DOSJsonExtractor(DATA_OBJECT_FIELDS);
+    private long maxResponseBytes = DEFAULT_MAX_RESPONSE_BYTES;
+    private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT;
+    private long readTimeoutMillis = DEFAULT_READ_TIMEOUT;
+    private long resolutionDeadlineMillis = DEFAULT_RESOLUTION_DEADLINE;
+    private long hedgeDelayMillis;
+    private boolean compression = true;
+    private DOSRetryPolicy retryPolicy = new DOSRetryPolicy();
+    private DOSCircuitBreaker circuitBreaker = new DOSCircuitBreaker();
+    private DOSResolvers resolvers = new DOSResolvers();
+    private Set<String> bulkLookupHosts = Collections.emptySet();
+    private int bulkLookupMaxIds = DOSBulkLookup.DEFAULT_MAX_IDS;
+    // Hosts in bulk-lookup-hosts that turned out to have no bulk endpoint
+    private final Set<String> bulkUnsupportedHosts = ConcurrentHashMap.newKeySet();
+    private final DOSPluginMetrics metrics = new DOSPluginMetrics();
+    private final Map<ImmutableTriple<String, String, String>, Lookup> inFlightLookups = new ConcurrentHashMap<>();
 
     // Package-private constructor
     DOSPluginUtil() {
     }
 
+    // The pools shared by every instance, each created when an instance first uses that kind of thread
+    private static final class VirtualThreadPools {
+        static final ExecutorService HEDGE = DOSExecutors.newCachedPool("dos-hedge", true);
+        static final ExecutorService REVALIDATION = DOSExecutors.newFixedPool(REVALIDATION_THREADS, "dos-revalidate", true);
+    }
+
+    private static final class PlatformThreadPools {
+        static final ExecutorService HEDGE = DOSExecutors.newCachedPool("dos-hedge", false);
+        static final ExecutorService REVALIDATION = DOSExecutors.newFixedPool(REVALIDATION_THREADS, "dos-revalidate", false);
+    }
+
+    /**
+     * Applies the plugin's configuration section
+     *
+     * @param config The configuration passed to the plugin by Dockstore
+     */
+    void setConfiguration(Configuration config) {
+        long ttl = config.getLong(CACHE_TTL, DOSResponseCache.DEFAULT_TTL);
+        this.responseCache = new DOSResponseCache(
+                config.getLong(CACHE_MAX_ENTRIES, DOSResponseCache.DEFAULT_MAX_ENTRIES),
+                ttl,
+                config.getLong(CACHE_NEGATIVE_TTL, DOSResponseCache.DEFAULT_NEGATIVE_TTL),
+                config.getLong(CACHE_STALE_WHILE_REVALIDATE, 0L));
+
+        String cacheDir = config.getString(CACHE_DIR, "");
+        this.diskCache = cacheDir.isEmpty() ? Optional.empty() : Optional.of(new DOSDiskCache(Paths.get(cacheDir), ttl));
+        setSnapshot(config.getString(SNAPSHOT_FILE, ""));
+        this.offline = config.getBoolean(OFFLINE, false);
+
+        List<String> httpsOnlyHosts = config.getList(String.class, FORCE_HTTPS_HOSTS, Collections.emptyList());
+        httpsOnlyHosts.removeIf(e -> e.equals(""));
+        this.protocolAffinity = new DOSProtocolAffinity(
+                config.getLong(PROTOCOL_AFFINITY_TTL, DOSProtocolAffinity.DEFAULT_TTL),
+                httpsOnlyHosts,
+                diskCache.map(cache -> cache.getDirectory().resolve(PROTOCOL_AFFINITY_FILE)));
+
+        this.maxResponseBytes = config.getLong(MAX_RESPONSE_BYTES, DEFAULT_MAX_RESPONSE_BYTES);
+        this.connectTimeoutMillis = config.getLong(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+        this.readTimeoutMillis = config.getLong(READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        this.resolutionDeadlineMillis = config.getLong(RESOLUTION_DEADLINE, DEFAULT_RESOLUTION_DEADLINE);
+        this.hedgeDelayMillis = config.getLong(HEDGE_DELAY, 0L);
+        int daemonPort = config.getInt(DAEMON_PORT, 0);
+        this.daemon = daemonPort > 0
+                ? Optional.of(new DOSDaemonClient(daemonPort, resolutionDeadlineMillis, DOSDaemonClient.DEFAULT_RETRY_INTERVAL))
+                : Optional.empty();
+        this.virtualThreads = config.getBoolean(VIRTUAL_THREADS, true);
+        this.compression = config.getBoolean(HTTP_COMPRESSION, true);
+        this.retryPolicy = new DOSRetryPolicy(
+                config.getInt(MAX_RETRIES, DOSRetryPolicy.DEFAULT_MAX_RETRIES),
+                config.getLong(RETRY_BASE_DELAY, DOSRetryPolicy.DEFAULT_BASE_DELAY),
+                config.getLong(RETRY_MAX_DELAY, DOSRetryPolicy.DEFAULT_MAX_DELAY));
+        this.circuitBreaker = new DOSCircuitBreaker(
+                config.getInt(CIRCUIT_BREAKER_FAILURES, DOSCircuitBreaker.DEFAULT_FAILURE_THRESHOLD),
+                config.getLong(CIRCUIT_BREAKER_OPEN_TIME, DOSCircuitBreaker.DEFAULT_OPEN_TIME));
+        List<String> resolverMappings = config.getList(String.class, RESOLVERS, Collections.emptyList());
+        resolverMappings.removeIf(e -> e.trim().isEmpty());
+        this.resolvers = new DOSResolvers(resolverMappings);
+        List<String> bulkHosts = config.getList(String.class, BULK_LOOKUP_HOSTS, Collections.emptyList());
+        bulkHosts.removeIf(e -> e.equals(""));
+        this.bulkLookupHosts = ImmutableSet.copyOf(bulkHosts);
+        this.bulkLookupMaxIds = Math.max(config.getInt(BULK_LOOKUP_MAX_IDS, DOSBulkLookup.DEFAULT_MAX_IDS), 1);
+
+        if (config.getBoolean(METRICS_JMX, true)) {
+            metrics.register();
+        } else {
+            metrics.unregister();
+        }
+        String metricsFile = config.getString(METRICS_FILE, "");
+        if (metricsFile.isEmpty()) {
+            metrics.stopDumping();
+        } else {
+            metrics.startDumping(Paths.get(metricsFile), config.getLong(METRICS_DUMP_INTERVAL, DOSPluginMetrics.DEFAULT_DUMP_INTERVAL));
+        }
+    }
+
+    private void setSnapshot(String snapshotFile) {
+        snapshot.ifPresent(DOSPluginUtil::close);
+        snapshot = Optional.empty();
+        if (!snapshotFile.isEmpty()) {
+            try {
+                snapshot = Optional.of(DOSSnapshot.open(Paths.get(snapshotFile)));
+            } catch (IOException e) {
+                System.err.println("Error: could not open the snapshot, resolving without it: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    DOSResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    Optional<DOSDiskCache> getDiskCache() {
+        return diskCache;
+    }
+
+    void setResponseCache(DOSResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    void setDiskCache(DOSDiskCache diskCache) {
+        this.diskCache = Optional.ofNullable(diskCache);
+    }
+
+    /**
+     * @return Whether <code>virtual-threads</code> asks for lookups to run on virtual threads
+     */
+    boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    DOSPluginMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops publishing this util's metrics over JMX, for a tool that is done with it. Metrics written to
+     * <code>metrics-file</code> are still written once more when the JVM exits.
+     */
+    void shutdown() {
+        metrics.unregister();
+    }
+
+    DOSCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return Whether a server answered that the object does not exist, as opposed to it not having been resolved
+     */
+    boolean isKnownMissing(ImmutableTriple<String, String, String> immutableTriple) {
+        DOSResponseCache.Entry cached = responseCache.peek(immutableTriple);
+        return cached != null && cached.isNegative();
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return Whether a lookup of it is waiting for or running on an executor, and has not been abandoned
+     */
+    boolean isInFlight(ImmutableTriple<String, String, String> immutableTriple) {
+        return inFlightLookups.containsKey(immutableTriple);
+    }
+
+    Optional<DOSSnapshot> getSnapshot() {
+        return snapshot;
+    }
+
+    DOSResolvers getResolvers() {
+        return resolvers;
+    }
+
+    Optional<DOSDaemonClient> getDaemon() {
+        return daemon;
+    }
+
     /**
      *
      *
@@ -34,6 +303,115 @@ class DOSPluginUtil {
      * @return the scheme, host, and path of the targetPath, or <code>Optional.empty()</code>
      */
     Optional<ImmutableTriple<String, String, String>> splitURI(String dosURI) {
+        ImmutableTriple<String, String, String> split = splitPlainURI(dosURI);
+        if (split != null) {
+            return Optional.of(split);
+        }
+        Optional<ImmutableTriple<String, String, String>> parsed = parseURI(dosURI);
+        if (!parsed.isPresent()) {
+            metrics.recordOutcome(DOSPluginMetrics.Outcome.BAD_URI);
+        }
+        return parsed;
+    }
+
+    /**
+     * Splits the common forms of DOS URI by scanning the string once, without building a {@link URI}. Only URIs made
+     * of characters that {@link URI} neither rejects nor decodes are handled, so the result is the same as
+     * {@link #parseURI(String)}; anything else, including every malformed URI, is left to it.
+     *
+     * @param dosURI The string targetPath
+     * @return the scheme, host, and path of the targetPath, or <code>null</code> if it must be parsed in full
+     */
+    static ImmutableTriple<String, String, String> splitPlainURI(String dosURI) {
+        final int length = dosURI.length();
+
+        // scheme "://"
+        int i = 0;
+        if (length == 0 || !isAlpha(dosURI.charAt(0))) {
+            return null;
+        }
+        while (++i < length && dosURI.charAt(i) != ':') {
+            if (!isSchemeChar(dosURI.charAt(i))) {
+                return null;
+            }
+        }
+        if (!dosURI.startsWith("://", i)) {
+            return null;
+        }
+        final String scheme = dosURI.substring(0, i);
+
+        // host [":" port], which must be followed by a path
+        final int authorityStart = i + 3;
+        i = authorityStart;
+        while (i < length && isHostChar(dosURI.charAt(i))) {
+            i++;
+        }
+        if (i == authorityStart) {
+            return null;
+        }
+        if (i < length && dosURI.charAt(i) == ':') {
+            final int portStart = ++i;
+            while (i < length && isDigit(dosURI.charAt(i))) {
+                i++;
+            }
+            if (i == portStart) {
+                return null;
+            }
+        }
+        if (i == length || dosURI.charAt(i) != '/') {
+            return null;
+        }
+        final int authorityEnd = i;
+
+        // path ["?" query] ["#" fragment]
+        boolean fragment = false;
+        for (; i < length; i++) {
+            char c = dosURI.charAt(i);
+            if (c == '#') {
+                if (fragment) {
+                    return null;
+                }
+                fragment = true;
+            } else if (c != '?' && !isPathChar(c)) {
+                return null;
+            }
+        }
+
+        // Nothing was escaped, so the path, query and fragment joined together are the rest of the string
+        if (dosURI.startsWith(DOSResolvers.DG_PREFIX, authorityStart)) {
+            return new ImmutableTriple<>(scheme, DOSResolvers.DG_HOST, dosURI.substring(authorityStart));
+        }
+        return new ImmutableTriple<>(scheme, dosURI.substring(authorityStart, authorityEnd), dosURI.substring(authorityEnd + 1));
+    }
+
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSchemeChar(char c) {
+        return isAlpha(c) || isDigit(c) || c == '+' || c == '-' || c == '.';
+    }
+
+    private static boolean isHostChar(char c) {
+        return isAlpha(c) || isDigit(c) || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static boolean isPathChar(char c) {
+        // Unreserved and reserved characters that java.net.URI allows unescaped in a path, query and fragment
+        return isAlpha(c) || isDigit(c) || "-_.!~*'()/:@&=+$,;".indexOf(c) >= 0;
+    }
+
+    /**
+     * Splits any DOS URI with {@link URI}, which decodes escaped characters and reports malformed URIs
+     *
+     * @param dosURI The string targetPath
+     * @return the scheme, host, and path of the targetPath, or <code>Optional.empty()</code>
+     */
+    static Optional<ImmutableTriple<String, String, String>> parseURI(String dosURI) {
         try {
             URI uri = new URI(dosURI);
 
@@ -54,8 +432,8 @@ class DOSPluginUtil {
             // or the new format
             // dos://dg.4503/630d31c3-381e-488d-b639-ce5d047a0142
             // See if the Host portion starts with 'dg.<number>', 'dos' otherwise
-            if (uri.getAuthority().startsWith("dg.")) {
-                return Optional.of(new ImmutableTriple<>(uri.getScheme(), DG_HOST, uri.getAuthority() + fullPath));
+            if (uri.getAuthority().startsWith(DOSResolvers.DG_PREFIX)) {
+                return Optional.of(new ImmutableTriple<>(uri.getScheme(), DOSResolvers.DG_HOST, uri.getAuthority() + fullPath));
             } else if (!uri.getPath().equals("")) {
                 return Optional.of(new ImmutableTriple<>(uri.getScheme(), uri.getAuthority(), fullPath.substring(1)));
             }
@@ -66,47 +444,741 @@ class DOSPluginUtil {
     }
 
     /**
-     * Gets the JSON response from targetPath using HTTP GET request
+     * Gets the JSON response from targetPath, answering from the in-memory or on-disk cache, the snapshot or the resolver
+     * daemon when possible.
+     * Concurrent calls for the same targetPath share a single lookup. The lookup runs on the calling thread.
      *
      * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
      * @return The JSONObject containing the content of the JSON response, or <code>Optional.empty()</code>
      */
     Optional<JSONObject> getResponse(ImmutableTriple<String, String, String> immutableTriple) {
-        HttpURLConnection conn = createConnection(immutableTriple);
+        return await(getResponseAsync(immutableTriple, MoreExecutors.directExecutor()), Optional.empty());
+    }
+
+    /**
+     * Gets the JSON responses from many targetPaths on a few workers, each making its share of the lookups one after
+     * another with {@link #getResponse(ImmutableTriple)}. A lookup's <code>resolution-deadline-ms</code> then only
+     * starts once a worker gets to it, where submitting every lookup at once would leave those still queued behind the
+     * first ones to time out before they are made.
+     *
+     * @param immutableTriples The targetPaths as ImmutableTriples of <scheme, host, path>
+     * @param executor         Runs the workers
+     * @param workers          The number of workers, at most the number of tasks the executor runs at once
+     * @return The response from each targetPath, in the order given, failing if its lookup threw
+     */
+    List<CompletableFuture<Optional<JSONObject>>> getResponses(List<ImmutableTriple<String, String, String>> immutableTriples,
+            Executor executor, int workers) {
+        List<CompletableFuture<Optional<JSONObject>>> responses = new ArrayList<>();
+        immutableTriples.forEach(immutableTriple -> responses.add(new CompletableFuture<>()));
+        int runs = Math.max(workers, 1);
+        int runLength = Math.max((immutableTriples.size() + runs - 1) / runs, 1);
+        for (int start = 0; start < immutableTriples.size(); start += runLength) {
+            int from = start;
+            int to = Math.min(start + runLength, immutableTriples.size());
+            try {
+                executor.execute(() -> {
+                    for (int i = from; i < to; i++) {
+                        try {
+                            responses.get(i).complete(getResponse(immutableTriples.get(i)));
+                        } catch (RuntimeException e) {
+                            responses.get(i).completeExceptionally(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                responses.subList(from, to).forEach(response -> response.completeExceptionally(e));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Gets the JSON response from targetPath without blocking, answering from the in-memory cache immediately when
+     * possible. Concurrent calls for the same targetPath share a single lookup. A cached response that has expired
+     * but is within <code>cache-stale-while-revalidate</code> is returned at once and revalidated in the background.
+     *
+     * The returned future fails with a {@link TimeoutException} if it has not completed within
+     * <code>resolution-deadline-ms</code>, including time spent waiting for the executor. Cancelling it, or its timing
+     * out, abandons the lookup once no other caller is waiting on it; an abandoned lookup makes no further requests.
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param executor        Runs the lookup if it is not answered from the in-memory cache or already in flight
+     * @return The JSONObject containing the content of the JSON response, or <code>Optional.empty()</code>
+     */
+    CompletableFuture<Optional<JSONObject>> getResponseAsync(ImmutableTriple<String, String, String> immutableTriple,
+            Executor executor) {
+        DOSResponseCache.Entry cached = responseCache.get(immutableTriple);
+        if (cached != null) {
+            if (!responseCache.isFresh(cached)) {
+                revalidate(immutableTriple);
+            }
+            return CompletableFuture.completedFuture(cached.getResponse());
+        }
+
+        // Concurrent lookups of the same object wait for the first one instead of each asking the server
+        Lookup lookup = new Lookup();
+        Lookup inFlight = inFlightLookups.putIfAbsent(immutableTriple, lookup);
+        if (inFlight != null) {
+            return inFlight.waiter(resolutionDeadlineMillis);
+        }
+        // The caller starting the lookup waits on it from the start, so others giving up on it cannot abandon it
+        CompletableFuture<Optional<JSONObject>> waiter = lookup.waiter(resolutionDeadlineMillis);
+        lookup.result.whenComplete((response, e) -> inFlightLookups.remove(immutableTriple, lookup));
         try {
-            if (conn == null) {
-                return Optional.empty();
+            executor.execute(() -> lookup.run(() -> loadResponse(immutableTriple)));
+        } catch (RejectedExecutionException e) {
+            lookup.result.completeExceptionally(e);
+        }
+        return waiter;
+    }
+
+    /**
+     * Refreshes a stale cached response in the background, unless a lookup of it is already in flight
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     */
+    private void revalidate(ImmutableTriple<String, String, String> immutableTriple) {
+        Lookup lookup = new Lookup();
+        if (inFlightLookups.putIfAbsent(immutableTriple, lookup) != null) {
+            return;
+        }
+        lookup.result.whenComplete((response, e) -> inFlightLookups.remove(immutableTriple, lookup));
+        try {
+            (virtualThreads ? VirtualThreadPools.REVALIDATION : PlatformThreadPools.REVALIDATION).execute(() -> lookup.run(() -> loadResponse(immutableTriple)));
+        } catch (RejectedExecutionException e) {
+            lookup.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Waits for a lookup, for the callers that block
+     *
+     * @param future    The lookup
+     * @param otherwise The result if the lookup timed out or was cancelled
+     * @return The result of the lookup
+     */
+    static <T> T await(CompletableFuture<T> future, T otherwise) {
+        try {
+            return future.join();
+        } catch (CancellationException e) {
+            return otherwise;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                System.err.println("Error: " + e.getCause().getMessage());
+                return otherwise;
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
             }
+            throw e;
+        }
+    }
 
-            final Optional<InputStream> jsonResponse = downloadJSON(conn);
-            final String content = jsonResponse.map(this::readStream).orElse(null);
+    private Optional<JSONObject> loadResponse(ImmutableTriple<String, String, String> immutableTriple) {
+        // A lookup that finished just before this one started may have already cached the object
+        DOSResponseCache.Entry cached = responseCache.peek(immutableTriple);
+        if (cached != null) {
+            return cached.getResponse();
+        }
+
+        Optional<DOSDiskCache.Entry> stored = diskCache.flatMap(cache -> cache.read(immutableTriple));
+        if (stored.isPresent() && !stored.get().isExpired()) {
+            responseCache.put(immutableTriple, stored.get().getResponse(), stored.get().getValidators());
+            return Optional.of(stored.get().getResponse());
+        }
 
-            if (content != null) {
-                return Optional.of(new JSONObject(content));
+        Optional<JSONObject> preloaded = snapshot.flatMap(preloadedResponses -> preloadedResponses.get(immutableTriple));
+        if (preloaded.isPresent()) {
+            responseCache.put(immutableTriple, preloaded.get(), DOSValidators.of(preloaded.get()));
+            return preloaded;
+        }
+
+        // Ask whether an expired copy, in memory or on disk, is still current rather than fetching the object again
+        DOSResponseCache.Entry expired = responseCache.peekRevalidatable(immutableTriple);
+        ImmutablePair<JSONObject, DOSValidators> revalidatable = expired != null
+                ? new ImmutablePair<>(expired.getResponse().get(), expired.getValidators())
+                : stored.map(entry -> new ImmutablePair<>(entry.getResponse(), entry.getValidators())).orElse(null);
+
+        if (offline) {
+            // No server is asked, but an expired copy is better than nothing
+            System.err.println("Error: " + immutableTriple.getMiddle() + "/" + immutableTriple.getRight()
+                    + " is not in the snapshot or cache, and lookups are offline");
+            metrics.recordOutcome(DOSPluginMetrics.Outcome.OFFLINE);
+            return Optional.ofNullable(revalidatable).map(ImmutablePair::getLeft);
+        }
+
+        Optional<DOSDaemonClient> available = daemon.filter(DOSDaemonClient::isAvailable);
+        if (available.isPresent()) {
+            try {
+                Optional<JSONObject> resolved = available.get().lookup(immutableTriple);
+                cacheDaemonResponse(immutableTriple, resolved);
+                return resolved;
+            } catch (IOException e) {
+                System.err.println("Error: resolving directly instead of through the resolver daemon: " + e.getMessage());
             }
+        }
+
+        Optional<ImmutablePair<JSONObject, DOSValidators>> response = fetchResponse(immutableTriple, revalidatable);
+        response.ifPresent(fetched -> {
+            responseCache.put(immutableTriple, fetched.getLeft(), fetched.getRight());
+            diskCache.ifPresent(cache -> cache.put(immutableTriple, fetched.getLeft(), fetched.getRight()));
+        });
+        return response.map(ImmutablePair::getLeft);
+    }
+
+    /**
+     * Gets the JSON response from targetPath using HTTP GET request
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The JSONObject containing the content of the JSON response, or <code>Optional.empty()</code>
+     */
+    Optional<JSONObject> fetchResponse(ImmutableTriple<String, String, String> immutableTriple) {
+        return fetchResponse(immutableTriple, null).map(ImmutablePair::getLeft);
+    }
+
+    /**
+     * Gets the JSON response from targetPath, revalidating a copy that was cached with validators
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param cached          A cached response and its validators, or <code>null</code> to fetch the response outright
+     * @return The response and its validators, which is the cached response if the server says it has not changed,
+     * or <code>Optional.empty()</code>
+     */
+    private Optional<ImmutablePair<JSONObject, DOSValidators>> fetchResponse(ImmutableTriple<String, String, String> immutableTriple,
+            ImmutablePair<JSONObject, DOSValidators> cached) {
+        final long deadline = deadline();
+        HttpURLConnection conn = cached == null ? createConnection(immutableTriple) : createConnection(immutableTriple, cached.getRight());
+        if (conn == null) {
+            return Optional.empty();
+        }
+        if (cached != null && notModified(conn)) {
+            metrics.recordOutcome(DOSPluginMetrics.Outcome.NOT_MODIFIED);
+            return Optional.of(cached);
+        }
+
+        // The read timeout only bounds each read, so the body is cut off if it is still arriving at the deadline
+        ScheduledFuture<?> watchdog = deadline == Long.MAX_VALUE ? null
+                : DEADLINE_EXECUTOR.schedule(() -> disconnect(conn), Math.max(remainingMillis(deadline), 0), TimeUnit.MILLISECONDS);
 
+        final Optional<InputStream> jsonResponse = downloadJSON(conn);
+        final long start = System.nanoTime();
+        try {
+            final Optional<JSONObject> response = jsonResponse.flatMap(this::readDataObject);
+            metrics.recordLatency(immutableTriple.getMiddle(), DOSPluginMetrics.Phase.PARSE, System.nanoTime() - start);
+            if (!response.isPresent()) {
+                // The body was not read to the end, so the connection cannot be reused
+                metrics.recordOutcome(DOSPluginMetrics.Outcome.IO_ERROR);
+                disconnect(conn);
+            } else {
+                // The body was read to the end and closed, which has returned the connection to the keep-alive pool
+                metrics.recordOutcome(DOSPluginMetrics.Outcome.OK);
+            }
+            return response.map(json -> new ImmutablePair<>(json, DOSValidators.of(conn, json)));
         } catch (JSONException e) {
             System.err.println("Error: " + e.getMessage());
+            metrics.recordOutcome(DOSPluginMetrics.Outcome.JSON_ERROR);
+            responseCache.putNegative(immutableTriple);
+            disconnect(conn);
+            return Optional.empty();
         } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    private boolean notModified(HttpURLConnection conn) {
+        try {
+            if (conn.getResponseCode() != HTTP_NOT_MODIFIED) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        // A 304 has no body, so closing its stream returns the connection to the keep-alive pool
+        try {
+            conn.getInputStream().close();
+            return true;
+        } catch (IOException e) {
             disconnect(conn);
+            return true;
         }
-        return Optional.empty();
     }
 
+    /**
+     * Looks up many objects at once on the hosts in <code>bulk-lookup-hosts</code> and caches every object found, so
+     * that the lookups of them that follow are answered from the cache. Objects that are already cached, that a bulk
+     * lookup did not find, or that are on other hosts are left to be looked up one at a time.
+     *
+     * @param immutableTriples The targetPaths as ImmutableTriples of <scheme, host, path>
+     * @param executor         Runs the bulk requests, one for each host and run of <code>bulk-lookup-max-ids</code> objects
+     */
+    void loadInBulk(Collection<ImmutableTriple<String, String, String>> immutableTriples, Executor executor) {
+        if (offline) {
+            return;
+        }
+        Map<String, List<ImmutableTriple<String, String, String>>> byHost = new LinkedHashMap<>();
+        for (ImmutableTriple<String, String, String> immutableTriple : loadFromDaemon(immutableTriples)) {
+            if (!DOSBulkLookup.isBulkId(immutableTriple.getRight()) || isCached(immutableTriple)) {
+                continue;
+            }
+            // The best replica that takes bulk requests
+            resolvers.order(resolvers.replicasFor(immutableTriple), circuitBreaker).stream()
+                    .filter(host -> bulkLookupHosts.contains(host) && !bulkUnsupportedHosts.contains(host))
+                    .findFirst()
+                    .ifPresent(host -> byHost.computeIfAbsent(host, k -> new ArrayList<>()).add(immutableTriple));
+        }
+
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (Map.Entry<String, List<ImmutableTriple<String, String, String>>> hostTriples : byHost.entrySet()) {
+            // A single object costs one request either way, and a single lookup can revalidate it
+            if (hostTriples.getValue().size() < 2) {
+                continue;
+            }
+            for (List<ImmutableTriple<String, String, String>> run : Lists.partition(hostTriples.getValue(), bulkLookupMaxIds)) {
+                try {
+                    requests.add(CompletableFuture.runAsync(() -> fetchInBulk(hostTriples.getKey(), run), executor));
+                } catch (RejectedExecutionException e) {
+                    System.err.println("Error: " + e.getMessage());
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException | CancellationException e) {
+            // The objects that were not cached are looked up one at a time
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks the resolver daemon, if there is one, for every object not already cached, in one request
+     *
+     * @param immutableTriples The targetPaths as ImmutableTriples of <scheme, host, path>
+     * @return The distinct objects left to look up directly: those the daemon failed to resolve, or all of them if it
+     * could not be asked
+     */
+    private Collection<ImmutableTriple<String, String, String>> loadFromDaemon(
+            Collection<ImmutableTriple<String, String, String>> immutableTriples) {
+        Set<ImmutableTriple<String, String, String>> distinct = new LinkedHashSet<>(immutableTriples);
+        Optional<DOSDaemonClient> available = daemon.filter(DOSDaemonClient::isAvailable);
+        if (!available.isPresent()) {
+            return distinct;
+        }
+        List<ImmutableTriple<String, String, String>> uncached = distinct.stream()
+                .filter(immutableTriple -> !isCached(immutableTriple)).collect(Collectors.toList());
+        if (uncached.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Optional<JSONObject>> responses = available.get().lookupAll(uncached);
+            List<ImmutableTriple<String, String, String>> failed = new ArrayList<>();
+            for (int i = 0; i < uncached.size(); i++) {
+                if (responses.get(i) == null) {
+                    failed.add(uncached.get(i));
+                } else {
+                    cacheDaemonResponse(uncached.get(i), responses.get(i));
+                }
+            }
+            return failed;
+        } catch (IOException e) {
+            System.err.println("Error: resolving directly instead of through the resolver daemon: " + e.getMessage());
+            return distinct;
+        }
+    }
+
+    private void cacheDaemonResponse(ImmutableTriple<String, String, String> immutableTriple, Optional<JSONObject> response) {
+        metrics.recordOutcome(DOSPluginMetrics.Outcome.DAEMON);
+        if (response.isPresent()) {
+            responseCache.put(immutableTriple, response.get(), DOSValidators.of(response.get()));
+        } else {
+            // The daemon found that no replica has the object, which it does not say of lookups that merely failed
+            responseCache.putNegative(immutableTriple);
+        }
+    }
+
+    private boolean isCached(ImmutableTriple<String, String, String> immutableTriple) {
+        return responseCache.peek(immutableTriple) != null
+                || diskCache.flatMap(cache -> cache.read(immutableTriple)).filter(entry -> !entry.isExpired()).isPresent();
+    }
+
+    /**
+     * Makes one bulk request for objects on the same host, caching every object in the response. A host that answers
+     * that it has no bulk endpoint is not sent bulk requests again.
+     *
+     * @param host             The host, or a replica of it, to send the request to
+     * @param immutableTriples The targetPaths, all resolved by that host
+     */
+    private void fetchInBulk(String host, List<ImmutableTriple<String, String, String>> immutableTriples) {
+        final long deadline = deadline();
+        if (!circuitBreaker.allowRequest(host)) {
+            return;
+        }
+        Map<String, ImmutableTriple<String, String, String>> byId = new LinkedHashMap<>();
+        immutableTriples.forEach(immutableTriple -> byId.put(immutableTriple.getRight(), immutableTriple));
+
+        List<String> protocols = protocolAffinity.protocolsFor(host);
+        for (String protocol : protocols) {
+            HttpURLConnection conn = null;
+            int responseCode;
+            try {
+                long remaining = remainingMillis(deadline);
+                if (remaining <= 0) {
+                    return;
+                }
+                conn = openBulkURL(protocol, host);
+                if (conn == null) {
+                    continue;
+                }
+                conn.setConnectTimeout(timeout(connectTimeoutMillis, remaining));
+                conn.setReadTimeout(timeout(readTimeoutMillis, remaining));
+                if (compression) {
+                    conn.setRequestProperty(DOSContentEncoding.ACCEPT_ENCODING, DOSContentEncoding.SUPPORTED);
+                }
+                final long start = System.nanoTime();
+                DOSBulkLookup.send(conn, byId.keySet());
+                responseCode = conn.getResponseCode();
+                metrics.recordLatency(host, DOSPluginMetrics.Phase.TIME_TO_FIRST_BYTE, System.nanoTime() - start);
+            } catch (IOException e) {
+                // Try the other protocol, as a single lookup would
+                System.err.println("Error: " + e.getMessage());
+                disconnect(conn);
+                continue;
+            }
+
+            if (responseCode == HTTP_OK) {
+                connected(host, protocols, protocol);
+                circuitBreaker.recordSuccess(host);
+                readBulkResponse(conn, host, byId);
+                return;
+            }
+            drain(conn);
+            if (DOSBulkLookup.isUnsupported(responseCode)) {
+                System.err.println("Error: " + host + " does not support bulk lookups, looking objects up one at a time");
+                bulkUnsupportedHosts.add(host);
+            } else if (DOSRetryPolicy.isTransient(responseCode)) {
+                circuitBreaker.recordFailure(host);
+            }
+            return;
+        }
+    }
+
+    private void readBulkResponse(HttpURLConnection conn, String host, Map<String, ImmutableTriple<String, String, String>> byId) {
+        final long start = System.nanoTime();
+        Map<String, JSONObject> found;
+        try (InputStream in = new DOSJsonExtractor.LimitedInputStream(
+                DOSContentEncoding.decode(conn.getInputStream(), conn.getContentEncoding(), metrics), maxResponseBytes)) {
+            found = DOSBulkLookup.read(in);
+            IOUtils.skip(in, Long.MAX_VALUE);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            disconnect(conn);
+            return;
+        } catch (JSONException e) {
+            System.err.println("Error: " + host + " sent a bulk response that could not be read: " + e.getMessage());
+            disconnect(conn);
+            bulkUnsupportedHosts.add(host);
+            return;
+        }
+        metrics.recordLatency(host, DOSPluginMetrics.Phase.PARSE, System.nanoTime() - start);
+
+        int cached = 0;
+        for (Map.Entry<String, JSONObject> object : found.entrySet()) {
+            ImmutableTriple<String, String, String> immutableTriple = byId.get(object.getKey());
+            if (immutableTriple != null) {
+                DOSValidators validators = DOSValidators.of(object.getValue());
+                responseCache.put(immutableTriple, object.getValue(), validators);
+                diskCache.ifPresent(cache -> cache.put(immutableTriple, object.getValue(), validators));
+                cached++;
+            }
+        }
+        metrics.recordBulkLookup(cached);
+    }
+
+    /**
+     * Opens a connection to the DOS server, trying the protocol the host is known to answer on first and
+     * falling back to the other one. With hedging enabled, the fallback is started once the first attempt has been
+     * outstanding for <code>hedge-delay-ms</code> and the first valid response wins.
+     *
+     * Transient failures are retried with backoff while the deadline allows, and hosts that keep failing are not
+     * contacted at all until their circuit breaker lets a probe through. Hosts with replicas in <code>resolvers</code>
+     * are not retried, the lookup moves on to the next replica instead.
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return A connection with a 200 response, or <code>null</code>
+     */
     HttpURLConnection createConnection(ImmutableTriple<String, String, String> immutableTriple) {
+        return createConnection(immutableTriple, DOSValidators.NONE);
+    }
+
+    /**
+     * Opens a connection to the DOS server like {@link #createConnection(ImmutableTriple)}, making the request
+     * conditional on the object having changed since it was cached
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param validators      The validators of the cached object
+     * @return A connection with a 200 response, or a 304 if the cached object is still current, or <code>null</code>
+     */
+    HttpURLConnection createConnection(ImmutableTriple<String, String, String> immutableTriple, DOSValidators validators) {
+        final long deadline = deadline();
+        List<String> replicas = resolvers.order(resolvers.replicasFor(immutableTriple), circuitBreaker);
+        Attempt answered = null;
+        Attempt attempt = null;
+        for (int i = 0; i < replicas.size(); i++) {
+            String host = replicas.get(i);
+            boolean failover = i < replicas.size() - 1;
+            if (!circuitBreaker.allowRequest(host)) {
+                if (failover || answered != null || attempt != null) {
+                    continue;
+                }
+                System.err.println("Error: " + host + " is failing, not contacting it until it has had time to recover");
+                metrics.recordOutcome(DOSPluginMetrics.Outcome.CIRCUIT_OPEN);
+                return null;
+            }
+
+            // The object is still cached under the host it was asked of, whichever replica answers
+            ImmutableTriple<String, String, String> request = host.equals(immutableTriple.getMiddle()) ? immutableTriple
+                    : new ImmutableTriple<>(immutableTriple.getLeft(), host, immutableTriple.getRight());
+            final long start = System.nanoTime();
+            resolvers.started(host);
+            attempt = null;
+            try {
+                attempt = connectWithRetries(request, validators, deadline, failover);
+            } finally {
+                resolvers.finished(host, System.nanoTime() - start,
+                        attempt != null && attempt.responseCode > 0 && attempt.responseCode < HTTP_INTERNAL_ERROR);
+            }
+            if (attempt != null && attempt.succeeded()) {
+                return attempt.conn;
+            }
+            answered = answered == null && attempt != null && attempt.responseCode > 0 ? attempt : answered;
+            if (failover && remainingMillis(deadline) > 0) {
+                metrics.recordFailover();
+            } else {
+                break;
+            }
+        }
+        return failed(immutableTriple, answered != null ? answered : attempt);
+    }
+
+    /**
+     * Connects to one host, retrying transient failures with backoff while the deadline allows
+     *
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param validators      The validators of the cached object
+     * @param deadline        When the lookup has to be done by
+     * @param failover        Whether another replica can be asked instead, in which case a transient failure is not
+     *                        retried here
+     * @return The last attempt, which may not have succeeded, or <code>null</code>
+     */
+    private Attempt connectWithRetries(ImmutableTriple<String, String, String> immutableTriple, DOSValidators validators,
+            long deadline, boolean failover) {
+        String host = immutableTriple.getMiddle();
+        for (int retry = 0;; retry++) {
+            List<String> protocols = protocolAffinity.protocolsFor(host);
+            Attempt attempt = hedgeDelayMillis > 0 && protocols.size() > 1
+                    ? connectHedged(immutableTriple, protocols, validators, deadline)
+                    : connect(immutableTriple, protocols, validators, deadline);
+            if (attempt != null && attempt.succeeded()) {
+                circuitBreaker.recordSuccess(host);
+                return attempt;
+            }
+            if (!DOSRetryPolicy.isTransient(attempt == null ? -1 : attempt.responseCode)) {
+                // The host answered, it just does not have the object
+                circuitBreaker.recordSuccess(host);
+                return attempt;
+            }
+
+            circuitBreaker.recordFailure(host);
+            if (failover) {
+                return attempt;
+            }
+            Optional<Long> delay = retryPolicy.delayMillis(retry, attempt == null ? null : attempt.retryAfter);
+            if (!delay.isPresent() || delay.get() >= remainingMillis(deadline) || !sleep(delay.get())
+                    || !circuitBreaker.allowRequest(host)) {
+                return attempt;
+            }
+            metrics.recordRetry();
+        }
+    }
+
+    private Attempt connect(ImmutableTriple<String, String, String> immutableTriple, List<String> protocols,
+            DOSValidators validators, long deadline) {
+        String host = immutableTriple.getMiddle();
+        Optional<String> knownProtocol = protocolAffinity.get(host);
+        Attempt attempt = null;
+        Attempt answered = null;
+        for (String protocol : protocols) {
+            if (attempt != null) {
+                drain(attempt.conn);
+            }
+            attempt = new Attempt(protocol, validators);
+            attempt(attempt, immutableTriple, deadline);
+
+            if (attempt.succeeded()) {
+                connected(host, protocols, protocol);
+                return attempt;
+            }
+            answered = answered == null && attempt.responseCode > 0 ? attempt : answered;
+            // A host answering on its known protocol is authoritative, there is no need to try the other one
+            if (isNotFound(attempt.responseCode) && knownProtocol.equals(Optional.of(protocol))) {
+                break;
+            }
+        }
+        if (attempt != null) {
+            drain(attempt.conn);
+        }
+        // A response from the server says more about the lookup than a protocol it does not answer on
+        return answered != null ? answered : attempt;
+    }
+
+    private Attempt connectHedged(ImmutableTriple<String, String, String> immutableTriple, List<String> protocols,
+            DOSValidators validators, long deadline) {
+        CompletionService<Attempt> completionService = new ExecutorCompletionService<>(
+                virtualThreads ? VirtualThreadPools.HEDGE : PlatformThreadPools.HEDGE);
+        List<Attempt> started = new ArrayList<>();
+        Attempt last = null;
+        Attempt answered = null;
         try {
-            HttpURLConnection validConn;
-            validConn = openURL("http", immutableTriple);       // Separate method for accurate unit testing
+            startAttempt(completionService, started, protocols.get(0), validators, immutableTriple, deadline);
+            for (int finished = 0; finished < started.size();) {
+                boolean canHedge = started.size() < protocols.size();
+                long remaining = remainingMillis(deadline);
+                Future<Attempt> done = completionService.poll(canHedge ? Math.min(hedgeDelayMillis, remaining) : remaining,
+                        TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (!canHedge || remainingMillis(deadline) <= 0) {
+                        break;
+                    }
+                    // Nothing has answered within the hedge delay, so race the next protocol against the outstanding attempts
+                    startAttempt(completionService, started, protocols.get(started.size()), validators, immutableTriple, deadline);
+                    continue;
+                }
 
-            if (validConn == null || validConn.getResponseCode() != HTTP_OK) {
-                validConn = openURL("https", immutableTriple);
-                if (validConn == null || validConn.getResponseCode() != HTTP_OK) {
-                    return null;
+                finished++;
+                last = done.get();
+                if (last.succeeded()) {
+                    connected(immutableTriple.getMiddle(), protocols, last.protocol);
+                    return last;
+                }
+                answered = answered == null && last.responseCode > 0 ? last : answered;
+                if (canHedge) {
+                    // The attempt failed outright, so fall back immediately instead of waiting out the hedge delay
+                    startAttempt(completionService, started, protocols.get(started.size()), validators, immutableTriple, deadline);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error: " + e.getMessage());
+        } finally {
+            // Release the attempts that lost the race. Those still outstanding close their connections when they finish.
+            for (Attempt attempt : started) {
+                if (attempt != last || !last.succeeded()) {
+                    attempt.abandon(this);
                 }
             }
-            return validConn;
+        }
+        return answered != null ? answered : last;
+    }
+
+    private void startAttempt(CompletionService<Attempt> completionService, List<Attempt> started, String protocol,
+            DOSValidators validators, ImmutableTriple<String, String, String> immutableTriple, long deadline) {
+        Attempt attempt = new Attempt(protocol, validators);
+        started.add(attempt);
+        completionService.submit(() -> attempt(attempt, immutableTriple, deadline), attempt);
+    }
+
+    /**
+     * Makes one request to the DOS server, bounded by the connect and read timeouts and the lookup's deadline
+     *
+     * @param attempt         The attempt, which records the connection and its response code, -1 if the request failed
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param deadline        The {@link System#nanoTime()} by which the lookup must finish
+     */
+    void attempt(Attempt attempt, ImmutableTriple<String, String, String> immutableTriple, long deadline) {
+        HttpURLConnection conn = null;
+        try {
+            long remaining = remainingMillis(deadline);
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Resolution deadline exceeded for " + immutableTriple.getMiddle());
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Lookup of " + immutableTriple.getMiddle() + " was abandoned");
+            }
+            conn = openURL(attempt.protocol, immutableTriple);       // Separate method for accurate unit testing
+            if (conn != null && attempt.open(conn)) {
+                conn.setConnectTimeout(timeout(connectTimeoutMillis, remaining));
+                conn.setReadTimeout(timeout(readTimeoutMillis, remaining));
+                if (compression) {
+                    conn.setRequestProperty(DOSContentEncoding.ACCEPT_ENCODING, DOSContentEncoding.SUPPORTED);
+                }
+                attempt.validators.apply(conn);
+                final long start = System.nanoTime();
+                conn.connect();
+                final long connected = System.nanoTime();
+                int responseCode = conn.getResponseCode();
+                String host = immutableTriple.getMiddle();
+                metrics.recordLatency(host, DOSPluginMetrics.Phase.CONNECT, connected - start);
+                metrics.recordLatency(host, DOSPluginMetrics.Phase.TIME_TO_FIRST_BYTE, System.nanoTime() - connected);
+                attempt.complete(conn, responseCode, responseCode == HTTP_OK ? null : conn.getHeaderField(RETRY_AFTER), this);
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            disconnect(conn);
+        }
+        attempt.complete(null, -1, null, this);
+    }
+
+    private void connected(String host, List<String> protocols, String protocol) {
+        protocolAffinity.put(host, protocol);
+        metrics.recordConnection(DOSProtocolAffinity.HTTPS.equals(protocol) && !protocols.get(0).equals(protocol));
+    }
+
+    private HttpURLConnection failed(ImmutableTriple<String, String, String> immutableTriple, Attempt attempt) {
+        metrics.recordOutcome(attempt != null && attempt.responseCode > 0 ? DOSPluginMetrics.Outcome.NOT_OK
+                : DOSPluginMetrics.Outcome.IO_ERROR);
+        // The object does not exist on this server, don't ask again until the negative entry expires
+        if (attempt != null && isNotFound(attempt.responseCode)) {
+            responseCache.putNegative(immutableTriple);
+        }
+        return null;
+    }
+
+    private static boolean isNotFound(int responseCode) {
+        return responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE;
+    }
 
-        } catch ( IOException e) {
+    private static boolean sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private long deadline() {
+        return resolutionDeadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resolutionDeadlineMillis) : Long.MAX_VALUE;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    private static int timeout(long configured, long remaining) {
+        // HttpURLConnection treats a timeout of 0 as infinite, so the remaining time bounds an unset timeout too
+        long timeout = configured > 0 ? Math.min(configured, remaining) : remaining;
+        return (int) Math.max(Math.min(timeout, Integer.MAX_VALUE), 1);
+    }
+
+    HttpURLConnection openBulkURL(String protocol, String host) {
+        try {
+            URL request = new URL(protocol + "://" + host + DOSBulkLookup.API);
+            return (HttpURLConnection) request.openConnection();
+        } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
             return null;
         }
@@ -122,27 +1194,68 @@ class DOSPluginUtil {
         }
     }
 
+    /**
+     * @param conn A connection with a 200 response
+     * @return The response body, decompressed as it is read if the server compressed it
+     */
     Optional<InputStream> downloadJSON(HttpURLConnection conn) {
         try {
-            return Optional.ofNullable(conn.getInputStream());
+            InputStream body = conn.getInputStream();
+            if (body == null) {
+                return Optional.empty();
+            }
+            return Optional.of(DOSContentEncoding.decode(body, conn.getContentEncoding(), metrics));
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
             return Optional.empty();
         }
     }
 
-    String readStream(InputStream stream) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(stream))){
-            String line;
-            StringBuilder content = new StringBuilder();
-            while ((line = in.readLine()) != null) {
-                content.append(line);
+    /**
+     * Extracts the wanted fields of the data object from a JSON response as it is streamed, then discards the rest
+     * of the response so the connection can be reused
+     *
+     * @param stream The response body, which is closed
+     * @return The JSONObject holding the extracted fields, or <code>Optional.empty()</code> if the response could not be
+     * read or is larger than <code>max-response-bytes</code> once decompressed
+     * @throws JSONException if the response is not a valid DOS data object
+     */
+    Optional<JSONObject> readDataObject(InputStream stream) {
+        try (InputStream in = new DOSJsonExtractor.LimitedInputStream(stream, maxResponseBytes)) {
+            JSONObject response = extractor.extract(in);
+            if (!response.getJSONObject(DOSJsonExtractor.DATA_OBJECT).has(URLS)) {
+                throw new JSONException("Response has no " + URLS);
             }
-            return content.toString();
-
+            IOUtils.skip(in, Long.MAX_VALUE);
+            return Optional.of(response);
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
-            return null;
+            return Optional.empty();
+        } catch (JSONException e) {
+            // The tokenizer reports read errors as JSON errors, those are not a problem with the response itself
+            if (e.getCause() instanceof IOException) {
+                System.err.println("Error: " + e.getCause().getMessage());
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and discards the error body of a failed request so that its connection can be reused
+     *
+     * @param conn The connection of a request that did not succeed, may be null
+     */
+    void drain(HttpURLConnection conn) {
+        if (conn == null) {
+            return;
+        }
+        try (InputStream errorStream = conn.getErrorStream()) {
+            if (errorStream != null) {
+                IOUtils.skip(errorStream, Long.MAX_VALUE);
+            }
+        } catch (IOException e) {
+            disconnect(conn);
         }
     }
 
@@ -151,4 +1264,126 @@ class DOSPluginUtil {
             conn.disconnect();
         }
     }
+
+    /**
+     * A lookup in flight, shared by every caller waiting for the same object. Each caller gets its own future, so one
+     * caller cancelling or timing out does not affect the others; the lookup is only abandoned, by interrupting the
+     * thread running it, once every caller has given up on it.
+     */
+    static final class Lookup {
+        private final CompletableFuture<Optional<JSONObject>> result = new CompletableFuture<>();
+        private int waiters;
+        private Thread runner;
+
+        private void run(Supplier<Optional<JSONObject>> load) {
+            synchronized (this) {
+                if (result.isDone()) {
+                    // Abandoned while it waited for the executor
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                result.complete(load.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // Don't let the interrupt of an abandoned lookup leak into the executor's next task
+                    if (result.isCancelled()) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        private synchronized CompletableFuture<Optional<JSONObject>> waiter(long deadlineMillis) {
+            CompletableFuture<Optional<JSONObject>> waiter = new CompletableFuture<>();
+            waiters++;
+            result.whenComplete((response, e) -> {
+                if (e == null) {
+                    waiter.complete(response);
+                } else {
+                    waiter.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                }
+            });
+            if (!waiter.isDone()) {
+                waiter.whenComplete((response, e) -> {
+                    if (!result.isDone()) {
+                        abandon();
+                    }
+                });
+                if (deadlineMillis > 0) {
+                    ScheduledFuture<?> timeout = DEADLINE_EXECUTOR.schedule(() -> waiter.completeExceptionally(
+                            new TimeoutException("Resolution deadline exceeded")), deadlineMillis, TimeUnit.MILLISECONDS);
+                    result.whenComplete((response, e) -> timeout.cancel(false));
+                }
+            }
+            return waiter;
+        }
+
+        private synchronized void abandon() {
+            if (--waiters == 0 && result.cancel(false) && runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    /**
+     * One request in a lookup. An attempt abandoned after losing a hedged race has its connection released,
+     * immediately if it has finished or otherwise as soon as it does.
+     */
+    static final class Attempt {
+        private final String protocol;
+        private final DOSValidators validators;
+        private HttpURLConnection conn;
+        private int responseCode = -1;
+        private String retryAfter;
+        private boolean finished;
+        private boolean abandoned;
+
+        Attempt(String protocol, DOSValidators validators) {
+            this.protocol = protocol;
+            this.validators = validators;
+        }
+
+        /**
+         * @return Whether the server sent the object, or said the cached copy the request was conditional on is current
+         */
+        private boolean succeeded() {
+            return responseCode == HTTP_OK || responseCode == HTTP_NOT_MODIFIED && !validators.isEmpty();
+        }
+
+        private synchronized boolean open(HttpURLConnection connection) {
+            this.conn = connection;
+            return !abandoned;
+        }
+
+        private synchronized void complete(HttpURLConnection connection, int code, String retryAfterHeader, DOSPluginUtil util) {
+            this.conn = connection;
+            this.responseCode = code;
+            this.retryAfter = retryAfterHeader;
+            this.finished = true;
+            if (abandoned) {
+                util.disconnect(connection);
+            }
+        }
+
+        private void abandon(DOSPluginUtil util) {
+            HttpURLConnection connection;
+            boolean wasFinished;
+            synchronized (this) {
+                connection = conn;
+                wasFinished = finished;
+                abandoned = true;
+            }
+            if (wasFinished) {
+                util.drain(connection);
+            } else {
+                // Closing the connection cuts short a request still waiting on the server
+                util.disconnect(connection);
+            }
+        }
+    }
 }
@@ -0,0 +1,300 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.commons.configuration2.INIConfiguration;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.apache.commons.configuration2.SubnodeConfiguration;
+import org.apache.commons.configuration2.convert.DefaultListDelimiterHandler;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Resolves every DOS URI in a CWL or WDL parameter file before provisioning starts, so that the lookups the launcher
+ * makes one input at a time are answered from the cache instead of waiting on DOS servers.
+ *
+ * The parameter file is walked for every string that is a DOS URI, wherever it appears: a WDL input, an element of an
+ * array, the <code>path</code> or <code>location</code> of a CWL <code>File</code>, or one of its
+ * <code>secondaryFiles</code>. The URIs are then resolved concurrently through
+ * {@link DOSPlugin.DOSPreProvision#prepareDownloads(java.util.Collection)}.
+ *
+ * Run from the command line, with the plugin's section of the Dockstore config, resolutions only outlive the prefetch
+ * when <code>cache-dir</code> is configured:
+ *
+ * <pre>
+ * java -jar lib/dockstore-file-dos-plugin-*.jar [--config ~/.dockstore/config] params.json...
+ * </pre>
+ */
+public final class DOSPrefetch {
+
+    static final String CONFIG_SECTION = "dockstore-file-dos-plugin";
+    static final String CONFIG_OPTION = "--config";
+    static final int EXIT_UNRESOLVED = 1;
+    static final int EXIT_USAGE = 2;
+
+    static final Path DEFAULT_CONFIG = Paths.get(System.getProperty("user.home"), ".dockstore", "config");
+
+    private static final String DOS_PREFIX = "dos://";
+
+    private final Function<Set<String>, Map<String, List<String>>> resolver;
+
+    /**
+     * @param preProvision The configured plugin whose cache the URIs are resolved into
+     */
+    public DOSPrefetch(DOSPlugin.DOSPreProvision preProvision) {
+        this(preProvision::prepareDownloads);
+    }
+
+    private DOSPrefetch(Function<Set<String>, Map<String, List<String>>> resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param parameterFiles CWL or WDL parameter files in JSON
+     * @return Every DOS URI in the files, in the order they appear, mapped to its URLs, or to an empty list if it could
+     * not be resolved
+     * @throws IOException if a file cannot be read or is not JSON
+     */
+    public Map<String, List<String>> prefetch(Path... parameterFiles) throws IOException {
+        JSONArray parameters = new JSONArray();
+        for (Path parameterFile : parameterFiles) {
+            try (InputStream in = Files.newInputStream(parameterFile)) {
+                parameters.put(new JSONTokener(in).nextValue());
+            } catch (JSONException e) {
+                throw new IOException(parameterFile + " is not a JSON parameter file: " + e.getMessage(), e);
+            }
+        }
+        return resolve(findDosUris(parameters));
+    }
+
+    /**
+     * @param parameters Parsed CWL or WDL parameters
+     * @return Every DOS URI in the parameters mapped to its URLs, or to an empty list if it could not be resolved
+     */
+    public Map<String, List<String>> prefetch(JSONObject parameters) {
+        return resolve(findDosUris(parameters));
+    }
+
+    private Map<String, List<String>> resolve(Set<String> dosUris) {
+        if (dosUris.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        return resolver.apply(dosUris);
+    }
+
+    /**
+     * Resolves DOS URIs straight through a {@link DOSPluginUtil}, for the command line, where the launcher that
+     * provides the interfaces of {@link DOSPlugin.DOSPreProvision} is not on the classpath
+     *
+     * @param dosPluginUtil A configured DOSPluginUtil
+     * @param executor      Runs the lookups
+     * @param workers       The number of lookups made at once
+     * @param dosUris       The DOS URIs to resolve
+     * @return Every DOS URI mapped to its URLs in the order the server listed them, or to an empty list if it could not
+     * be resolved
+     */
+    static Map<String, List<String>> resolve(DOSPluginUtil dosPluginUtil, Executor executor, int workers, Set<String> dosUris) {
+        Map<String, Optional<ImmutableTriple<String, String, String>>> splits = new LinkedHashMap<>();
+        dosUris.forEach(dosUri -> splits.put(dosUri, dosPluginUtil.splitURI(dosUri)));
+        List<String> valid = splits.keySet().stream().filter(dosUri -> splits.get(dosUri).isPresent())
+                .collect(Collectors.toList());
+        List<ImmutableTriple<String, String, String>> immutableTriples = valid.stream().map(dosUri -> splits.get(dosUri).get())
+                .collect(Collectors.toList());
+        dosPluginUtil.loadInBulk(immutableTriples, executor);
+        List<CompletableFuture<Optional<JSONObject>>> lookups = dosPluginUtil.getResponses(immutableTriples, executor, workers);
+
+        Map<String, List<String>> resolved = new LinkedHashMap<>();
+        dosUris.forEach(dosUri -> resolved.put(dosUri, Collections.emptyList()));
+        for (int i = 0; i < valid.size(); i++) {
+            try {
+                resolved.put(valid.get(i), urls(DOSPluginUtil.await(lookups.get(i), Optional.empty())));
+            } catch (RuntimeException e) {
+                System.err.println("Error: could not resolve " + valid.get(i) + ": " + e.getMessage());
+            }
+        }
+        return resolved;
+    }
+
+    private static List<String> urls(Optional<JSONObject> response) {
+        List<String> urls = new ArrayList<>();
+        response.ifPresent(json -> {
+            JSONArray retrievedUrls = json.getJSONObject("data_object").getJSONArray("urls");
+            for (int i = 0; i < retrievedUrls.length(); i++) {
+                urls.add(retrievedUrls.getJSONObject(i).getString("url"));
+            }
+        });
+        return urls;
+    }
+
+    /**
+     * @param json A parsed JSON value
+     * @return The distinct strings within the value, at any depth, that are DOS URIs, in the order they appear
+     */
+    static Set<String> findDosUris(Object json) {
+        Set<String> dosUris = new LinkedHashSet<>();
+        collect(json, dosUris);
+        return dosUris;
+    }
+
+    private static void collect(Object json, Set<String> dosUris) {
+        if (json instanceof JSONObject) {
+            JSONObject object = (JSONObject)json;
+            for (String key : object.keySet()) {
+                collect(object.get(key), dosUris);
+            }
+        } else if (json instanceof JSONArray) {
+            for (Object element : (JSONArray)json) {
+                collect(element, dosUris);
+            }
+        } else if (json instanceof String) {
+            String value = ((String)json).trim();
+            if (value.startsWith(DOS_PREFIX)) {
+                dosUris.add(value);
+            }
+        }
+    }
+
+    /**
+     * @param config A Dockstore config file
+     * @return The plugin's section of the file, as the launcher would pass it to
+     * {@link DOSPlugin.DOSPreProvision#setConfiguration(Map)}
+     * @throws IOException if the file cannot be read or parsed
+     */
+    static Map<String, String> readConfig(Path config) throws IOException {
+        INIConfiguration ini = new INIConfiguration();
+        try (Reader in = Files.newBufferedReader(config, StandardCharsets.UTF_8)) {
+            ini.read(in);
+        } catch (ConfigurationException e) {
+            throw new IOException(config + " is not a valid config file: " + e.getMessage(), e);
+        }
+        SubnodeConfiguration section = ini.getSection(CONFIG_SECTION);
+        Map<String, String> map = new LinkedHashMap<>();
+        for (Iterator<String> keys = section.getKeys(); keys.hasNext();) {
+            String key = keys.next();
+            map.put(key, section.getString(key));
+        }
+        return map;
+    }
+
+    /**
+     * @param config      A Dockstore config file
+     * @param configGiven Whether the file was named on the command line, rather than being the default that may not
+     *                    exist
+     * @return The plugin's section of the file, read as the plugin reads it
+     * @throws IOException if the file cannot be read or parsed
+     */
+    static MapConfiguration loadConfiguration(Path config, boolean configGiven) throws IOException {
+        Map<String, String> section = configGiven || Files.exists(config) ? readConfig(config) : new LinkedHashMap<>();
+        MapConfiguration configuration = new MapConfiguration(section);
+        configuration.setListDelimiterHandler(new DefaultListDelimiterHandler(','));
+        return configuration;
+    }
+
+    /**
+     * @param configuration The plugin's configuration
+     * @return The number of lookups the plugin makes at once, <code>resolver-threads</code>
+     */
+    static int resolverThreads(MapConfiguration configuration) {
+        return Math.max(configuration.getInt(DOSPlugin.DOSPreProvision.RESOLVER_THREADS,
+                DOSPlugin.DOSPreProvision.DEFAULT_RESOLVER_THREADS), 1);
+    }
+
+    /**
+     * @param configuration The plugin's configuration
+     * @param name          The prefix of the pool's thread names
+     * @return A pool of <code>resolver-threads</code> threads, as the plugin would resolve on
+     */
+    static ExecutorService newResolverPool(MapConfiguration configuration, String name) {
+        return DOSExecutors.newFixedPool(resolverThreads(configuration), name,
+                configuration.getBoolean(DOSPluginUtil.VIRTUAL_THREADS, true));
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * @param args [--config file] followed by one or more parameter files
+     * @param out  Receives one line per DOS URI
+     * @return 0 if every DOS URI was resolved, {@value #EXIT_UNRESOLVED} if any was not, {@value #EXIT_USAGE} if the
+     * arguments or files could not be used
+     */
+    static int run(String[] args, PrintStream out) {
+        Path config = DEFAULT_CONFIG;
+        boolean configGiven = false;
+        List<Path> parameterFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (CONFIG_OPTION.equals(args[i]) && i + 1 < args.length) {
+                config = Paths.get(args[++i]);
+                configGiven = true;
+            } else if (args[i].startsWith("-")) {
+                parameterFiles.clear();
+                break;
+            } else {
+                parameterFiles.add(Paths.get(args[i]));
+            }
+        }
+        if (parameterFiles.isEmpty()) {
+            System.err.println("Usage: DOSPrefetch [" + CONFIG_OPTION + " <dockstore config>] <parameter file>...");
+            return EXIT_USAGE;
+        }
+
+        MapConfiguration configuration;
+        try {
+            configuration = loadConfiguration(config, configGiven);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+        dosPluginUtil.setConfiguration(configuration);
+        if (configuration.getString(DOSPluginUtil.CACHE_DIR, "").isEmpty()) {
+            System.err.println("Warning: cache-dir is not set, resolutions will not be kept for provisioning");
+        }
+
+        ExecutorService pool = newResolverPool(configuration, "dos-prefetch");
+        DOSPrefetch prefetch = new DOSPrefetch(dosUris -> resolve(dosPluginUtil, pool, resolverThreads(configuration), dosUris));
+        Map<String, List<String>> resolved;
+        try {
+            resolved = prefetch.prefetch(parameterFiles.toArray(new Path[0]));
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        } finally {
+            pool.shutdown();
+            dosPluginUtil.shutdown();
+        }
+        int unresolved = 0;
+        for (Map.Entry<String, List<String>> entry : resolved.entrySet()) {
+            List<String> urls = entry.getValue();
+            out.println(entry.getKey() + "\t" + (urls.isEmpty() ? "unresolved" : urls.size() + " URLs"));
+            unresolved += urls.isEmpty() ? 1 : 0;
+        }
+        return unresolved == 0 ? 0 : EXIT_UNRESOLVED;
+    }
+}
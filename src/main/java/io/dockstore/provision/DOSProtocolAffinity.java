@@ -0,0 +1,144 @@
+package io.dockstore.provision;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Remembers which protocol, http or https, each DOS host answered on, so later lookups go straight to it instead of
+ * probing http first. Learned protocols expire after a time-to-live, and hosts may be configured to only use https.
+ *
+ * The table may be backed by a properties file so that short-lived launcher JVMs share what earlier ones learned.
+ * Updates are merged with the file's current contents and atomically renamed into place.
+ */
+class DOSProtocolAffinity {
+
+    static final String HTTP = "http";
+    static final String HTTPS = "https";
+    static final long DEFAULT_TTL = TimeUnit.HOURS.toSeconds(1);
+
+    private static final List<String> DEFAULT_ORDER = Collections.unmodifiableList(Arrays.asList(HTTP, HTTPS));
+
+    private final Map<String, Entry> protocols = new ConcurrentHashMap<>();
+    private final Set<String> httpsOnlyHosts;
+    private final long ttlMillis;
+    private final Optional<Path> file;
+    private final Clock clock;
+
+    DOSProtocolAffinity() {
+        this(DEFAULT_TTL, Collections.emptySet(), Optional.empty());
+    }
+
+    /**
+     * @param ttlSeconds     How long a learned protocol is used before the host is probed again, in seconds
+     * @param httpsOnlyHosts Hosts that are only contacted over https
+     * @param file           The file the table is persisted to, if any
+     */
+    DOSProtocolAffinity(long ttlSeconds, Collection<String> httpsOnlyHosts, Optional<Path> file) {
+        this(ttlSeconds, httpsOnlyHosts, file, Clock.systemUTC());
+    }
+
+    // Package-private constructor with a configurable clock for unit testing
+    DOSProtocolAffinity(long ttlSeconds, Collection<String> httpsOnlyHosts, Optional<Path> file, Clock clock) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(ttlSeconds, 0));
+        this.httpsOnlyHosts = ImmutableSet.copyOf(httpsOnlyHosts);
+        this.file = file;
+        this.clock = clock;
+        file.ifPresent(path -> protocols.putAll(load(path)));
+    }
+
+    /**
+     * @param host The DOS host
+     * @return The protocol the host is known to answer on, or <code>Optional.empty()</code> if it must be probed
+     */
+    Optional<String> get(String host) {
+        if (httpsOnlyHosts.contains(host)) {
+            return Optional.of(HTTPS);
+        }
+        Entry entry = protocols.get(host);
+        if (entry == null || entry.expiresAt <= clock.millis()) {
+            return Optional.empty();
+        }
+        return Optional.of(entry.protocol);
+    }
+
+    /**
+     * @param host The DOS host
+     * @return The protocols to try against the host, in order
+     */
+    List<String> protocolsFor(String host) {
+        if (httpsOnlyHosts.contains(host)) {
+            return Collections.singletonList(HTTPS);
+        }
+        return get(host)
+                .map(protocol -> HTTPS.equals(protocol) ? Arrays.asList(HTTPS, HTTP) : DEFAULT_ORDER)
+                .orElse(DEFAULT_ORDER);
+    }
+
+    /**
+     * Records that a host answered on a protocol
+     *
+     * @param host     The DOS host
+     * @param protocol The protocol that succeeded
+     */
+    void put(String host, String protocol) {
+        if (ttlMillis == 0 || httpsOnlyHosts.contains(host)) {
+            return;
+        }
+        long now = clock.millis();
+        Entry previous = protocols.put(host, new Entry(protocol, now + ttlMillis));
+        // Only rewrite the file when the table actually changed, or an entry is halfway to expiring
+        if (previous == null || !previous.protocol.equals(protocol) || previous.expiresAt - now < ttlMillis / 2) {
+            file.ifPresent(this::save);
+        }
+    }
+
+    private Map<String, Entry> load(Path path) {
+        Map<String, Entry> loaded = new ConcurrentHashMap<>();
+        Properties properties = DOSFiles.loadProperties(path);
+        long now = clock.millis();
+        for (String host : properties.stringPropertyNames()) {
+            String[] value = properties.getProperty(host).split(",");
+            try {
+                Entry entry = new Entry(value[0], Long.parseLong(value[1]));
+                if ((HTTP.equals(entry.protocol) || HTTPS.equals(entry.protocol)) && entry.expiresAt > now) {
+                    loaded.put(host, entry);
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // Skip malformed entries, the host is simply probed again
+            }
+        }
+        return loaded;
+    }
+
+    private synchronized void save(Path path) {
+        // Merge with entries other launcher processes have written since this table was loaded
+        Map<String, Entry> merged = load(path);
+        protocols.forEach((host, entry) -> merged.merge(host, entry, (a, b) -> a.expiresAt >= b.expiresAt ? a : b));
+
+        Properties properties = new Properties();
+        merged.forEach((host, entry) -> properties.setProperty(host, entry.protocol + "," + entry.expiresAt));
+        DOSFiles.storeProperties(path, properties);
+    }
+
+    private static final class Entry {
+        private final String protocol;
+        private final long expiresAt;
+
+        private Entry(String protocol, long expiresAt) {
+            this.protocol = protocol;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.dockstore.provision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+
+/**
+ * Maps DOS URIs to the replicas of the DOS server that resolve them, and orders the replicas for each lookup.
+ *
+ * A mapping is written <code>prefix=host|host|...</code>, where the prefix is matched against a GUID's prefix, such as
+ * <code>dg.4503</code>, or the host of any other DOS URI, and the longest matching prefix wins. GUIDs starting with
+ * <code>dg.</code> are resolved by dataguids.org unless a mapping says otherwise.
+ *
+ * Replicas are ordered by their smoothed response time multiplied by the number of lookups already waiting on them, so
+ * that the nearest replica takes most lookups and concurrent lookups spread to the others as it gets busy. Replicas
+ * not yet measured are tried first, replicas whose circuit is open last, and a replica that fails has its response
+ * time pushed up by a penalty.
+ */
+class DOSResolvers {
+
+    static final String DG_PREFIX = "dg.";
+    static final String DG_HOST = "dataguids.org";
+    static final long FAILURE_PENALTY = TimeUnit.SECONDS.toMillis(1);
+
+    private static final String MAPPING_SEPARATOR = "=";
+    private static final String REPLICA_SEPARATOR = "\\|";
+    // The weight of a new response time against the ones before it
+    private static final double SMOOTHING = 0.3;
+
+    // Prefixes longest first, so the first match is the longest
+    private final Map<String, List<String>> mappings = new LinkedHashMap<>();
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+
+    DOSResolvers() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * @param entries Mappings of the form <code>prefix=host|host|...</code>, most preferred host first
+     */
+    DOSResolvers(List<String> entries) {
+        Map<String, List<String>> parsed = new LinkedHashMap<>();
+        parsed.put(DG_PREFIX, Collections.singletonList(DG_HOST));
+        for (String entry : entries) {
+            String[] mapping = entry.split(MAPPING_SEPARATOR, 2);
+            List<String> hosts = new ArrayList<>();
+            if (mapping.length == 2) {
+                Arrays.stream(mapping[1].split(REPLICA_SEPARATOR)).map(String::trim).filter(host -> !host.isEmpty())
+                        .forEach(hosts::add);
+            }
+            String prefix = mapping[0].trim().toLowerCase(Locale.ROOT);
+            if (prefix.isEmpty() || hosts.isEmpty()) {
+                System.err.println("Error: ignoring resolver mapping " + entry + ", expected prefix=host|host");
+                continue;
+            }
+            parsed.put(prefix, Collections.unmodifiableList(hosts));
+        }
+        parsed.entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<String, List<String>> e) -> e.getKey().length()).reversed())
+                .forEach(e -> mappings.put(e.getKey(), e.getValue()));
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The hosts that can resolve it in the configured order, which is only its own host unless it is mapped
+     */
+    List<String> replicasFor(ImmutableTriple<String, String, String> immutableTriple) {
+        String authority = authority(immutableTriple).toLowerCase(Locale.ROOT);
+        for (Map.Entry<String, List<String>> mapping : mappings.entrySet()) {
+            if (authority.startsWith(mapping.getKey())) {
+                return mapping.getValue();
+            }
+        }
+        return Collections.singletonList(immutableTriple.getMiddle());
+    }
+
+    private static String authority(ImmutableTriple<String, String, String> immutableTriple) {
+        String path = immutableTriple.getRight();
+        // A GUID keeps its prefix in the path, the host it was given is only the default resolver
+        if (DG_HOST.equals(immutableTriple.getMiddle()) && path.startsWith(DG_PREFIX)) {
+            int slash = path.indexOf('/');
+            return slash < 0 ? path : path.substring(0, slash);
+        }
+        return immutableTriple.getMiddle();
+    }
+
+    /**
+     * @param hosts          Replicas of a DOS server
+     * @param circuitBreaker Says which replicas are failing
+     * @return The replicas in the order they should be tried
+     */
+    List<String> order(List<String> hosts, DOSCircuitBreaker circuitBreaker) {
+        if (hosts.size() < 2) {
+            return hosts;
+        }
+        List<String> ordered = new ArrayList<>(hosts);
+        // A stable sort, so replicas that score the same keep the configured order
+        ordered.sort(Comparator.comparing((String host) -> circuitBreaker.isOpen(host)).thenComparingDouble(this::score));
+        return ordered;
+    }
+
+    private double score(String host) {
+        Replica replica = replicas.get(host);
+        if (replica == null) {
+            return 1;
+        }
+        return replica.getScore();
+    }
+
+    /**
+     * @param host A replica a lookup is about to be sent to
+     */
+    void started(String host) {
+        replicas.computeIfAbsent(host, k -> new Replica()).started();
+    }
+
+    /**
+     * @param host     The replica the lookup was sent to
+     * @param nanos    How long the replica took to answer, or to fail
+     * @param answered Whether the replica answered, even if only to say it does not have the object
+     */
+    void finished(String host, long nanos, boolean answered) {
+        double millis = nanos / 1e6;
+        replicas.computeIfAbsent(host, k -> new Replica()).finished(answered ? millis : Math.max(millis, FAILURE_PENALTY));
+    }
+
+    /**
+     * @param host A replica
+     * @return Its smoothed response time in milliseconds, or NaN if it has not been measured
+     */
+    double getMillis(String host) {
+        Replica replica = replicas.get(host);
+        return replica == null ? Double.NaN : replica.getMillis();
+    }
+
+    private static final class Replica {
+        private double millis = Double.NaN;
+        private int inFlight;
+
+        private synchronized void started() {
+            inFlight++;
+        }
+
+        private synchronized void finished(double sample) {
+            inFlight = Math.max(inFlight - 1, 0);
+            millis = Double.isNaN(millis) ? sample : millis * (1 - SMOOTHING) + sample * SMOOTHING;
+        }
+
+        private synchronized double getMillis() {
+            return millis;
+        }
+
+        private synchronized double getScore() {
+            return ((Double.isNaN(millis) ? 0 : millis) + 1) * (inFlight + 1);
+        }
+    }
+}
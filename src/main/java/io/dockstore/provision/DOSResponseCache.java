@@ -0,0 +1,213 @@
+package io.dockstore.provision;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+
+/**
+ * Bounded in-memory cache of resolved DOS data objects, keyed on the <scheme, host, path> triple
+ * produced by {@link DOSPluginUtil#splitURI(String)}. Entries are evicted least-recently-used once
+ * the maximum size is reached, and expire after their time-to-live.
+ *
+ * Failed lookups that will not succeed on retry (404s, unparseable responses) may be cached as
+ * negative entries with their own, usually shorter, time-to-live.
+ *
+ * A resolved data object may still be served for a while after it expires, while it is revalidated in the background.
+ * Past that, an expired object the server sent validators for is kept until it is evicted, so that the next lookup can
+ * ask the server whether it changed instead of fetching it again.
+ */
+class DOSResponseCache {
+
+    static final long DEFAULT_MAX_ENTRIES = 1000;
+    static final long DEFAULT_TTL = TimeUnit.MINUTES.toSeconds(10);
+    static final long DEFAULT_NEGATIVE_TTL = TimeUnit.MINUTES.toSeconds(1);
+
+    private final Cache<ImmutableTriple<String, String, String>, Entry> cache;
+    private final Ticker ticker;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long staleNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    DOSResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * @param maxEntries       The maximum number of entries held, 0 disables caching
+     * @param ttlSeconds       Time-to-live of a resolved data object, in seconds
+     * @param negativeTtlSeconds Time-to-live of a failed lookup, in seconds, 0 disables negative caching
+     */
+    DOSResponseCache(long maxEntries, long ttlSeconds, long negativeTtlSeconds) {
+        this(maxEntries, ttlSeconds, negativeTtlSeconds, 0);
+    }
+
+    /**
+     * @param maxEntries       The maximum number of entries held, 0 disables caching
+     * @param ttlSeconds       Time-to-live of a resolved data object, in seconds
+     * @param negativeTtlSeconds Time-to-live of a failed lookup, in seconds, 0 disables negative caching
+     * @param staleSeconds     How long, in seconds, an expired data object may still be served while it is revalidated
+     */
+    DOSResponseCache(long maxEntries, long ttlSeconds, long negativeTtlSeconds, long staleSeconds) {
+        this(maxEntries, ttlSeconds, negativeTtlSeconds, staleSeconds, Ticker.systemTicker());
+    }
+
+    // Package-private constructors with a configurable clock for unit testing
+    DOSResponseCache(long maxEntries, long ttlSeconds, long negativeTtlSeconds, Ticker ticker) {
+        this(maxEntries, ttlSeconds, negativeTtlSeconds, 0, ticker);
+    }
+
+    DOSResponseCache(long maxEntries, long ttlSeconds, long negativeTtlSeconds, long staleSeconds, Ticker ticker) {
+        this.ticker = ticker;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(ttlSeconds, 0));
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(Math.max(negativeTtlSeconds, 0));
+        this.staleNanos = TimeUnit.SECONDS.toNanos(Math.max(staleSeconds, 0));
+        // Entries are expired on read below rather than after a fixed time, as some are worth keeping past their expiry
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxEntries, 0))
+                .ticker(ticker)
+                .<ImmutableTriple<String, String, String>, Entry>removalListener(notification -> {
+                    if (notification.wasEvicted()) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Looks up a previously cached lookup
+     *
+     * @param key The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The cached entry, which may be stale, or <code>null</code> if there is no live entry for the key
+     */
+    Entry get(ImmutableTriple<String, String, String> key) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null && !isFresh(entry) && !isServableStale(entry)) {
+            // An expired object with validators is kept, so that it can be revalidated instead of fetched again
+            if (entry.isNegative() || entry.validators.isEmpty()) {
+                cache.invalidate(key);
+                evictions.increment();
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Looks up a previously cached lookup without counting a hit or miss
+     *
+     * @param key The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The cached entry, or <code>null</code> if there is no live entry for the key
+     */
+    Entry peek(ImmutableTriple<String, String, String> key) {
+        Entry entry = cache.getIfPresent(key);
+        return entry != null && isFresh(entry) ? entry : null;
+    }
+
+    /**
+     * Looks up a resolved data object to revalidate, however long ago it expired
+     *
+     * @param key The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The cached entry if it has validators, or <code>null</code>
+     */
+    Entry peekRevalidatable(ImmutableTriple<String, String, String> key) {
+        Entry entry = cache.getIfPresent(key);
+        return entry != null && !entry.isNegative() && !entry.validators.isEmpty() ? entry : null;
+    }
+
+    /**
+     * @param entry An entry returned by this cache
+     * @return Whether the entry has not yet expired, as opposed to being served stale
+     */
+    boolean isFresh(Entry entry) {
+        return entry.expiresAt - ticker.read() > 0;
+    }
+
+    private boolean isServableStale(Entry entry) {
+        return !entry.isNegative() && entry.expiresAt + staleNanos - ticker.read() > 0;
+    }
+
+    void put(ImmutableTriple<String, String, String> key, JSONObject response) {
+        put(key, response, DOSValidators.NONE);
+    }
+
+    /**
+     * Caches a resolved data object, or refreshes the time-to-live of one the server said has not changed
+     *
+     * @param key        The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @param response   The JSON response
+     * @param validators What the response can be revalidated with once it expires
+     */
+    void put(ImmutableTriple<String, String, String> key, JSONObject response, DOSValidators validators) {
+        if (ttlNanos > 0) {
+            cache.put(key, new Entry(response, validators, ticker.read() + ttlNanos));
+        }
+    }
+
+    void putNegative(ImmutableTriple<String, String, String> key) {
+        if (negativeTtlNanos > 0) {
+            cache.put(key, new Entry(null, DOSValidators.NONE, ticker.read() + negativeTtlNanos));
+        }
+    }
+
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * A cached lookup. Negative entries record a lookup that failed and should not be retried until they expire.
+     */
+    static final class Entry {
+        private final JSONObject response;
+        private final DOSValidators validators;
+        private final long expiresAt;
+
+        private Entry(JSONObject response, DOSValidators validators, long expiresAt) {
+            this.response = response;
+            this.validators = validators;
+            this.expiresAt = expiresAt;
+        }
+
+        Optional<JSONObject> getResponse() {
+            return Optional.ofNullable(response);
+        }
+
+        DOSValidators getValidators() {
+            return validators;
+        }
+
+        boolean isNegative() {
+            return response == null;
+        }
+    }
+}
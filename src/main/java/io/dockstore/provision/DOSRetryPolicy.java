@@ -0,0 +1,118 @@
+package io.dockstore.provision;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.net.HttpURLConnection.HTTP_BAD_GATEWAY;
+import static java.net.HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+
+/**
+ * Decides whether a failed DOS lookup is worth repeating and how long to wait before it is. Only failures that are
+ * likely to be brief are retried: requests that could not connect or got no response, and 429, 502, 503 and 504
+ * responses. Lookups are GET requests, so repeating them is safe.
+ *
+ * Waits grow exponentially from a base delay up to a maximum, and half of each wait is random so that launchers that
+ * failed together do not retry together. A <code>Retry-After</code> header takes precedence over the computed wait.
+ */
+class DOSRetryPolicy {
+
+    static final int DEFAULT_MAX_RETRIES = 3;
+    static final long DEFAULT_BASE_DELAY = 250;
+    static final long DEFAULT_MAX_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Clock clock;
+
+    DOSRetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param maxRetries      How many times a lookup is repeated after it first fails, 0 to never retry
+     * @param baseDelayMillis The wait before the first retry, in milliseconds, which doubles with each retry
+     * @param maxDelayMillis  The longest wait before a retry, in milliseconds, including one asked for by the server
+     */
+    DOSRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this(maxRetries, baseDelayMillis, maxDelayMillis, Clock.systemUTC());
+    }
+
+    // Package-private constructor with a configurable clock for unit testing
+    DOSRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, Clock clock) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.baseDelayMillis = Math.max(baseDelayMillis, 0);
+        this.maxDelayMillis = Math.max(maxDelayMillis, 0);
+        this.clock = clock;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param responseCode The response code of the failed request, -1 if it got no response
+     * @return Whether the failure is transient, so the request may succeed if it is repeated
+     */
+    static boolean isTransient(int responseCode) {
+        switch (responseCode) {
+        case -1:
+        case HTTP_TOO_MANY_REQUESTS:
+        case HTTP_BAD_GATEWAY:
+        case HTTP_UNAVAILABLE:
+        case HTTP_GATEWAY_TIMEOUT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param retry      The number of retries already made
+     * @param retryAfter The <code>Retry-After</code> header of the failed response, may be null
+     * @return How long to wait before the next retry in milliseconds, or <code>Optional.empty()</code> if the lookup
+     * should not be retried again
+     */
+    Optional<Long> delayMillis(int retry, String retryAfter) {
+        if (retry >= maxRetries) {
+            return Optional.empty();
+        }
+        Optional<Long> requested = parseRetryAfter(retryAfter);
+        if (requested.isPresent()) {
+            // Retrying sooner than the server asked would only be refused again
+            return requested.get() <= maxDelayMillis ? requested : Optional.empty();
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+        return Optional.of(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+    }
+
+    /**
+     * @param retryAfter A <code>Retry-After</code> header, either a number of seconds or an HTTP date
+     * @return The wait the header asks for in milliseconds, or <code>Optional.empty()</code> if it is missing or invalid
+     */
+    Optional<Long> parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        String value = retryAfter.trim();
+        try {
+            return Optional.of(TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(value), 0)));
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, so it should be a date
+        }
+        try {
+            long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Optional.of(Math.max(date - clock.millis(), 0));
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package io.dockstore.provision;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Orders the URLs of a data object by the configured <code>scheme-preference</code>, compiled once into a table of
+ * rules. A rule is either a scheme, such as <code>s3</code>, or a scheme and host pattern, such as
+ * <code>https://*.googleapis.com</code>, where <code>*</code> matches any part of the host.
+ *
+ * Each URL is ranked by the first rule it matches. URLs matching no rule follow the ranked ones, grouped by scheme in the
+ * order each scheme first appears. Within a rank, URLs keep their order in the response, and repeated URLs are dropped.
+ */
+class DOSSchemeRanking {
+
+    private final int ruleCount;
+    private final Map<String, List<Rule>> rulesByScheme = new HashMap<>();
+
+    /**
+     * @param preferences The <code>scheme-preference</code> entries, most preferred first
+     */
+    DOSSchemeRanking(List<String> preferences) {
+        this.ruleCount = preferences.size();
+        for (int rank = 0; rank < preferences.size(); rank++) {
+            Rule rule = Rule.compile(preferences.get(rank), rank);
+            rulesByScheme.computeIfAbsent(rule.scheme, scheme -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    /**
+     * @param urls The URLs in the order the DOS server listed them
+     * @return The distinct URLs, most preferred first
+     */
+    List<URI> order(List<URI> urls) {
+        List<List<URI>> tiers = tiers(urls);
+        List<URI> ordered = new ArrayList<>();
+        for (List<URI> tier : tiers) {
+            ordered.addAll(tier);
+        }
+        return ordered;
+    }
+
+    /**
+     * @param urls The URLs in the order the DOS server listed them
+     * @return The distinct URLs grouped by rank, most preferred group first, each in the order the server listed them
+     */
+    List<List<URI>> tiers(List<URI> urls) {
+        // Ranks beyond the rules are handed out to the schemes no rule matched, as each first appears
+        List<List<URI>> ranks = new ArrayList<>();
+        Map<String, Integer> unrankedSchemes = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (URI url : urls) {
+            if (!seen.add(url.toString())) {
+                continue;
+            }
+            int rank = rank(url);
+            if (rank < 0) {
+                rank = unrankedSchemes.computeIfAbsent(url.getScheme(), scheme -> ruleCount + unrankedSchemes.size());
+            }
+            while (ranks.size() <= rank) {
+                ranks.add(null);
+            }
+            if (ranks.get(rank) == null) {
+                ranks.set(rank, new ArrayList<>());
+            }
+            ranks.get(rank).add(url);
+        }
+
+        ranks.removeIf(Objects::isNull);
+        return ranks;
+    }
+
+    private int rank(URI url) {
+        List<Rule> rules = rulesByScheme.get(url.getScheme());
+        if (rules != null) {
+            for (Rule rule : rules) {
+                if (rule.matches(url)) {
+                    return rule.rank;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static final class Rule {
+        private final String scheme;
+        private final Pattern host;
+        private final int rank;
+
+        private Rule(String scheme, Pattern host, int rank) {
+            this.scheme = scheme;
+            this.host = host;
+            this.rank = rank;
+        }
+
+        static Rule compile(String preference, int rank) {
+            int separator = preference.indexOf("://");
+            if (separator < 0) {
+                return new Rule(preference, null, rank);
+            }
+            String[] literals = preference.substring(separator + 3).split("\\*", -1);
+            StringBuilder regex = new StringBuilder(Pattern.quote(literals[0]));
+            for (int i = 1; i < literals.length; i++) {
+                regex.append(".*").append(Pattern.quote(literals[i]));
+            }
+            return new Rule(preference.substring(0, separator), Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE), rank);
+        }
+
+        boolean matches(URI url) {
+            if (host == null) {
+                return true;
+            }
+            // Hosts that are not valid hostnames, such as bucket names with underscores, are only an authority
+            String urlHost = url.getHost() != null ? url.getHost() : url.getAuthority();
+            return urlHost != null && host.matcher(urlHost).matches();
+        }
+    }
+}
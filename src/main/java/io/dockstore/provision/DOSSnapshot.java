@@ -0,0 +1,234 @@
+package io.dockstore.provision;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A read-only file of pre-resolved DOS responses, looked up before any DOS server is asked.
+ *
+ * The file starts with a header of the magic bytes, the offset of the index and the number of entries. The records
+ * follow, each a length-prefixed UTF-8 key, the host and path of a DOS URI, and a length-prefixed response in JSON.
+ * The index comes last: a 64-bit hash of each key and the offset of its record, sorted by hash. Only the index is
+ * memory-mapped, and records are read from the file as they are looked up, so a snapshot of millions of objects
+ * takes up sixteen bytes of page cache per entry and none of the heap.
+ */
+final class DOSSnapshot implements Closeable {
+
+    static final String MAGIC = "DOSSNAP1";
+
+    private static final int HEADER_BYTES = MAGIC.length() + Long.BYTES + Integer.BYTES;
+    private static final int INDEX_ENTRY_BYTES = 2 * Long.BYTES;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer index;
+    private final int size;
+
+    private DOSSnapshot(Path path, FileChannel channel, ByteBuffer index, int size) {
+        this.path = path;
+        this.channel = channel;
+        this.index = index;
+        this.size = size;
+    }
+
+    /**
+     * @param path A snapshot written by {@link Writer}
+     * @return The snapshot, which has to be closed
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static DOSSnapshot open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            byte[] magic = new byte[MAGIC.length()];
+            header.get(magic);
+            long indexOffset = header.getLong();
+            int count = header.getInt();
+            long indexBytes = (long)count * INDEX_ENTRY_BYTES;
+            if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)) || count < 0 || indexOffset < HEADER_BYTES
+                    || indexOffset + indexBytes != channel.size() || indexBytes > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a DOS snapshot");
+            }
+            return new DOSSnapshot(path, channel, channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexBytes), count);
+        } catch (IOException e) {
+            channel.close();
+            throw e instanceof EOFException ? new IOException(path + " is not a DOS snapshot", e) : e;
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The number of entries in the snapshot
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The response the snapshot holds for it, or <code>Optional.empty()</code>
+     */
+    Optional<JSONObject> get(ImmutableTriple<String, String, String> immutableTriple) {
+        String key = key(immutableTriple);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = HASH.hashBytes(keyBytes).asLong();
+        try {
+            // Keys whose hashes collide sit next to each other
+            for (int i = lowerBound(hash); i < size && index.getLong(i * INDEX_ENTRY_BYTES) == hash; i++) {
+                long offset = index.getLong(i * INDEX_ENTRY_BYTES + Long.BYTES);
+                int keyLength = read(channel, offset, Integer.BYTES).getInt();
+                if (keyLength != keyBytes.length || !read(channel, offset + Integer.BYTES, keyLength).equals(ByteBuffer.wrap(keyBytes))) {
+                    continue;
+                }
+                long valueOffset = offset + Integer.BYTES + keyLength;
+                int valueLength = read(channel, valueOffset, Integer.BYTES).getInt();
+                ByteBuffer value = read(channel, valueOffset + Integer.BYTES, valueLength);
+                return Optional.of(new JSONObject(StandardCharsets.UTF_8.decode(value).toString()));
+            }
+        } catch (IOException | JSONException e) {
+            System.err.println("Error: could not read " + key + " from " + path + ": " + e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    private int lowerBound(long hash) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getLong(mid * INDEX_ENTRY_BYTES) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+     * @return The key of its entry, the host and path; unlike the disk cache's key it leaves out the scheme, which is
+     * always dos
+     */
+    static String key(ImmutableTriple<String, String, String> immutableTriple) {
+        return immutableTriple.getMiddle() + "/" + immutableTriple.getRight();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes a snapshot to a temporary file next to its destination, and moves it into place when closed, so that
+     * readers never see a partly written snapshot. If the same key is put twice, lookups find either response.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temp;
+        private final DataOutputStream out;
+        private final List<long[]> entries = new ArrayList<>();
+        private long offset = HEADER_BYTES;
+
+        /**
+         * The snapshot is written to a temporary file of its own in the target's directory, so several writers can
+         * replace the same target at once and the last to finish wins.
+         *
+         * @param target Where the snapshot is written, replacing any file already there
+         */
+        Writer(Path target) throws IOException {
+            this.target = target;
+            this.temp = Files.createTempFile(target.toAbsolutePath().getParent(), DOSFiles.TEMP_PREFIX, null);
+            try {
+                this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+                out.write(new byte[HEADER_BYTES]);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        }
+
+        /**
+         * @param immutableTriple The targetPath as an ImmutableTriple of <scheme, host, path>
+         * @param response        Its response, as a lookup returns it
+         */
+        void put(ImmutableTriple<String, String, String> immutableTriple, JSONObject response) throws IOException {
+            byte[] key = key(immutableTriple).getBytes(StandardCharsets.UTF_8);
+            byte[] value = response.toString().getBytes(StandardCharsets.UTF_8);
+            entries.add(new long[] {HASH.hashBytes(key).asLong(), offset});
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+            offset += 2 * Integer.BYTES + key.length + value.length;
+        }
+
+        /**
+         * @return The number of entries put so far
+         */
+        int size() {
+            return entries.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            entries.sort(Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+            try {
+                try {
+                    for (long[] entry : entries) {
+                        out.writeLong(entry[0]);
+                        out.writeLong(entry[1]);
+                    }
+                } finally {
+                    out.close();
+                }
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.put(MAGIC.getBytes(StandardCharsets.US_ASCII)).putLong(offset).putInt(entries.size()).flip();
+                    while (header.hasRemaining()) {
+                        channel.write(header, header.position());
+                    }
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
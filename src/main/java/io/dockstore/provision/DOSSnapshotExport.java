@@ -0,0 +1,155 @@
+package io.dockstore.provision;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+
+/**
+ * Resolves a list of DOS URIs and writes the responses to a snapshot, which the plugin answers from before asking
+ * any DOS server when <code>snapshot-file</code> points at it. Lookups go through the plugin's usual configuration,
+ * caches and bulk lookups.
+ *
+ * <pre>
+ * java -cp lib/dockstore-file-dos-plugin-*.jar io.dockstore.provision.DOSSnapshotExport [--config ~/.dockstore/config] uris.txt snapshot.dos
+ * </pre>
+ *
+ * The list has one DOS URI per line. Blank lines and lines starting with <code>#</code> are skipped.
+ */
+public final class DOSSnapshotExport {
+
+    private static final String COMMENT = "#";
+
+    private DOSSnapshotExport() {
+    }
+
+    /**
+     * @param list A file of DOS URIs, one per line
+     * @return The distinct DOS URIs in the file, in the order they appear
+     * @throws IOException if the file cannot be read
+     */
+    static Set<String> readUris(Path list) throws IOException {
+        Set<String> dosUris = new LinkedHashSet<>();
+        try (BufferedReader in = Files.newBufferedReader(list, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String dosUri = line.trim();
+                if (!dosUri.isEmpty() && !dosUri.startsWith(COMMENT)) {
+                    dosUris.add(dosUri);
+                }
+            }
+        }
+        return dosUris;
+    }
+
+    /**
+     * Resolves DOS URIs and writes every response found to a snapshot
+     *
+     * @param dosPluginUtil A configured DOSPluginUtil
+     * @param executor      Runs the lookups
+     * @param workers       The number of lookups made at once
+     * @param dosUris       The DOS URIs to resolve
+     * @param snapshot      Where the snapshot is written, replacing any file already there
+     * @return The DOS URIs that could not be resolved, which are left out of the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    static Set<String> export(DOSPluginUtil dosPluginUtil, Executor executor, int workers, Set<String> dosUris, Path snapshot)
+            throws IOException {
+        Map<String, Optional<ImmutableTriple<String, String, String>>> splits = new LinkedHashMap<>();
+        dosUris.forEach(dosUri -> splits.put(dosUri, dosPluginUtil.splitURI(dosUri)));
+        List<String> valid = splits.keySet().stream().filter(dosUri -> splits.get(dosUri).isPresent())
+                .collect(Collectors.toList());
+        List<ImmutableTriple<String, String, String>> immutableTriples = valid.stream().map(dosUri -> splits.get(dosUri).get())
+                .collect(Collectors.toList());
+        dosPluginUtil.loadInBulk(immutableTriples, executor);
+        List<CompletableFuture<Optional<JSONObject>>> lookups = dosPluginUtil.getResponses(immutableTriples, executor, workers);
+
+        Set<String> unresolved = new LinkedHashSet<>(dosUris);
+        try (DOSSnapshot.Writer writer = new DOSSnapshot.Writer(snapshot)) {
+            for (int i = 0; i < valid.size(); i++) {
+                Optional<JSONObject> response;
+                try {
+                    response = DOSPluginUtil.await(lookups.get(i), Optional.empty());
+                } catch (RuntimeException e) {
+                    System.err.println("Error: could not resolve " + valid.get(i) + ": " + e.getMessage());
+                    continue;
+                }
+                if (response.isPresent()) {
+                    writer.put(immutableTriples.get(i), response.get());
+                    unresolved.remove(valid.get(i));
+                }
+            }
+        }
+        return unresolved;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * @param args [--config file] followed by the list of DOS URIs and the snapshot to write
+     * @param out  Receives one line per DOS URI that could not be resolved, and a summary
+     * @return 0 if every DOS URI was resolved, {@value DOSPrefetch#EXIT_UNRESOLVED} if any was not,
+     * {@value DOSPrefetch#EXIT_USAGE} if the arguments or files could not be used
+     */
+    static int run(String[] args, PrintStream out) {
+        Path config = DOSPrefetch.DEFAULT_CONFIG;
+        boolean configGiven = false;
+        int first = 0;
+        if (args.length > 1 && DOSPrefetch.CONFIG_OPTION.equals(args[0])) {
+            config = Paths.get(args[1]);
+            configGiven = true;
+            first = 2;
+        }
+        if (args.length - first != 2 || args[first].startsWith("-") || args[first + 1].startsWith("-")) {
+            System.err.println("Usage: DOSSnapshotExport [" + DOSPrefetch.CONFIG_OPTION + " <dockstore config>] <uri list> <snapshot>");
+            return DOSPrefetch.EXIT_USAGE;
+        }
+
+        MapConfiguration configuration;
+        Set<String> dosUris;
+        try {
+            configuration = DOSPrefetch.loadConfiguration(config, configGiven);
+            dosUris = readUris(Paths.get(args[first]));
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return DOSPrefetch.EXIT_USAGE;
+        }
+        DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+        dosPluginUtil.setConfiguration(configuration);
+
+        ExecutorService pool = DOSPrefetch.newResolverPool(configuration, "dos-snapshot-export");
+        Set<String> unresolved;
+        try {
+            unresolved = export(dosPluginUtil, pool, DOSPrefetch.resolverThreads(configuration), dosUris,
+                    Paths.get(args[first + 1]));
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return DOSPrefetch.EXIT_USAGE;
+        } finally {
+            pool.shutdown();
+            dosPluginUtil.shutdown();
+        }
+        unresolved.forEach(dosUri -> out.println(dosUri + "\tunresolved"));
+        out.println((dosUris.size() - unresolved.size()) + " of " + dosUris.size() + " URIs written to " + args[first + 1]);
+        return unresolved.isEmpty() ? 0 : DOSPrefetch.EXIT_UNRESOLVED;
+    }
+}
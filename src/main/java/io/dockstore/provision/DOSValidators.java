@@ -0,0 +1,132 @@
+package io.dockstore.provision;
+
+import java.net.HttpURLConnection;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Objects;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What a cached data object can be revalidated with: the <code>ETag</code> and <code>Last-Modified</code> the DOS
+ * server sent with it. Servers that send no <code>Last-Modified</code> are asked whether the object changed since the
+ * time in its <code>updated</code> field.
+ */
+final class DOSValidators {
+
+    static final DOSValidators NONE = new DOSValidators(null, null);
+
+    static final String ETAG = "ETag";
+    static final String LAST_MODIFIED = "Last-Modified";
+    static final String IF_NONE_MATCH = "If-None-Match";
+    static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String UPDATED = "updated";
+
+    private static final String ETAG_KEY = "etag";
+    private static final String LAST_MODIFIED_KEY = "last-modified";
+
+    private final String etag;
+    private final String lastModified;
+
+    DOSValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param conn     A connection with a 200 response
+     * @param response The data object read from it
+     * @return The validators of the response, {@link #NONE} if it has none
+     */
+    static DOSValidators of(HttpURLConnection conn, JSONObject response) {
+        String lastModified = conn.getHeaderField(LAST_MODIFIED);
+        if (lastModified == null) {
+            lastModified = updated(response);
+        }
+        String etag = conn.getHeaderField(ETAG);
+        return etag == null && lastModified == null ? NONE : new DOSValidators(etag, lastModified);
+    }
+
+    /**
+     * @param response A data object that arrived without headers of its own, such as one of a bulk lookup
+     * @return The validators of its <code>updated</code> time, {@link #NONE} if it has none
+     */
+    static DOSValidators of(JSONObject response) {
+        String lastModified = updated(response);
+        return lastModified == null ? NONE : new DOSValidators(null, lastModified);
+    }
+
+    private static String updated(JSONObject response) {
+        String updated = response.getJSONObject(DOSJsonExtractor.DATA_OBJECT).optString(UPDATED, null);
+        return updated == null ? null : toHttpDate(updated);
+    }
+
+    private static String toHttpDate(String updated) {
+        try {
+            // Some servers leave the offset off, their times are taken to be UTC
+            TemporalAccessor time = DateTimeFormatter.ISO_DATE_TIME.parseBest(updated, OffsetDateTime::from, LocalDateTime::from);
+            OffsetDateTime utc = time instanceof OffsetDateTime ? ((OffsetDateTime)time).withOffsetSameInstant(ZoneOffset.UTC)
+                    : ((LocalDateTime)time).atOffset(ZoneOffset.UTC);
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(utc);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    boolean isEmpty() {
+        return etag == null && lastModified == null;
+    }
+
+    /**
+     * Makes the request conditional, so an unchanged object is answered with a 304 and no body
+     *
+     * @param conn A connection that has not been connected yet
+     */
+    void apply(HttpURLConnection conn) {
+        if (etag != null) {
+            conn.setRequestProperty(IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            conn.setRequestProperty(IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    JSONObject toJSON() {
+        return new JSONObject().putOpt(ETAG_KEY, etag).putOpt(LAST_MODIFIED_KEY, lastModified);
+    }
+
+    /**
+     * @param json Validators written by {@link #toJSON()}
+     * @return The validators, {@link #NONE} if the JSON is not valid
+     */
+    static DOSValidators fromJSON(String json) {
+        try {
+            JSONObject validators = new JSONObject(json);
+            return new DOSValidators(validators.optString(ETAG_KEY, null), validators.optString(LAST_MODIFIED_KEY, null));
+        } catch (JSONException e) {
+            return NONE;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DOSValidators)) {
+            return false;
+        }
+        DOSValidators other = (DOSValidators)o;
+        return Objects.equals(etag, other.etag) && Objects.equals(lastModified, other.lastModified);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(etag, lastModified);
+    }
+}
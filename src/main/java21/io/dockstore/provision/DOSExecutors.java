@@ -0,0 +1,55 @@
+package io.dockstore.provision;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Creates the threads DOS lookups run on. This is the Java 21 version, which runs lookups on virtual threads: a
+ * lookup waiting on a DOS server parks its virtual thread instead of holding a platform thread, so thousands of
+ * lookups can be in flight at once on a handful of carrier threads.
+ */
+final class DOSExecutors {
+
+    /**
+     * Whether this JVM runs lookups on virtual threads when they are enabled
+     */
+    static final boolean VIRTUAL_THREADS = true;
+
+    private DOSExecutors() {
+    }
+
+    /**
+     * @param threads The number of lookups run at once
+     * @param name    The prefix of the threads' names
+     * @param virtual Whether to use virtual threads, if this JVM supports them
+     * @return A pool running at most <code>threads</code> tasks at once
+     */
+    static ExecutorService newFixedPool(int threads, String name, boolean virtual) {
+        if (virtual) {
+            // Every task gets a virtual thread of its own, and only the number running at once is bounded
+            return new DOSBoundedExecutor(Executors.newThreadPerTaskExecutor(virtualThreadFactory(name)), threads);
+        }
+        return Executors.newFixedThreadPool(threads, platformThreadFactory(name));
+    }
+
+    /**
+     * @param name    The prefix of the threads' names
+     * @param virtual Whether to use virtual threads, if this JVM supports them
+     * @return An executor running every task at once, each on a new virtual thread or on an idle platform thread
+     */
+    static ExecutorService newCachedPool(String name, boolean virtual) {
+        return virtual ? Executors.newThreadPerTaskExecutor(virtualThreadFactory(name))
+                : Executors.newCachedThreadPool(platformThreadFactory(name));
+    }
+
+    private static ThreadFactory virtualThreadFactory(String name) {
+        return Thread.ofVirtual().name(name + "-", 0).factory();
+    }
+
+    private static ThreadFactory platformThreadFactory(String name) {
+        return new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build();
+    }
+}
@@ -0,0 +1,69 @@
+package io.dockstore.provision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSBoundedExecutorUnitTest {
+
+    @Test
+    public void testBoundsConcurrency() throws Exception {
+        ExecutorService executor = new DOSBoundedExecutor(DOSExecutors.newCachedPool("dos-test", false), 4);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch release = new CountDownLatch(1);
+            List<Future<?>> tasks = new ArrayList<>();
+            // Submitting more tasks than may run at once does not wait for any of them
+            for (int i = 0; i < 16; i++) {
+                tasks.add(executor.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    release.await();
+                    running.decrementAndGet();
+                    return null;
+                }));
+            }
+            Thread.sleep(200);
+            Assert.assertEquals(4, running.get());
+            release.countDown();
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(4, maxRunning.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        ExecutorService executor = new DOSBoundedExecutor(DOSExecutors.newCachedPool("dos-test", false), 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.incrementAndGet();
+        });
+        started.await(30, TimeUnit.SECONDS);
+        // Waits for the first task's permit, until the executor is shut down
+        executor.execute(ran::incrementAndGet);
+        executor.shutdownNow();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertEquals(1, ran.get());
+    }
+}
@@ -0,0 +1,70 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DOSBulkLookupUnitTest {
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRead() {
+        JSONArray records = new JSONArray()
+                .put(StubDOSServer.record("dg.4503/a", 2))
+                .put(new JSONObject().put("did", "dg.4503/no-urls"))
+                .put(new JSONObject().put("urls", new JSONArray().put("s3://bucket/no-did")))
+                .put("not a record");
+
+        Map<String, JSONObject> responses = DOSBulkLookup.read(stream(records.toString()));
+
+        Assert.assertEquals(1, responses.size());
+        JSONObject dataObject = responses.get("dg.4503/a").getJSONObject("data_object");
+        JSONObject expected = StubDOSServer.dataObject("dg.4503/a", 2).getJSONObject("data_object");
+        Assert.assertEquals(expected.getString("updated"), dataObject.getString("updated"));
+        Assert.assertEquals(2, dataObject.getJSONArray("urls").length());
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(expected.getJSONArray("urls").getJSONObject(i).getString("url"),
+                    dataObject.getJSONArray("urls").getJSONObject(i).getString("url"));
+        }
+        DOSDataObject object = DOSDataObject.of(dataObject, Collections.emptyList());
+        Assert.assertEquals(Optional.of(Long.parseLong(expected.getString("size"))), object.getSize());
+        Assert.assertEquals(DOSDataObject.of(expected, Collections.emptyList()).getChecksums(), object.getChecksums());
+        // Cached alike to a single lookup's response, so it can be revalidated the same way
+        Assert.assertFalse(DOSValidators.of(responses.get("dg.4503/a")).isEmpty());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testReadNotAList() {
+        DOSBulkLookup.read(stream("{\"error\": \"not found\"}"));
+    }
+
+    @Test
+    public void testIsBulkId() {
+        Assert.assertTrue(DOSBulkLookup.isBulkId("dg.4503/630d31c3-381e-488d-b639-ce5d047a0142"));
+        Assert.assertFalse(DOSBulkLookup.isBulkId("630d31c3-381e-488d-b639-ce5d047a0142?version=2018-05-26T134315.070662Z"));
+        Assert.assertFalse(DOSBulkLookup.isBulkId("630d31c3#fragment"));
+        Assert.assertFalse(DOSBulkLookup.isBulkId(""));
+    }
+
+    @Test
+    public void testIsUnsupported() {
+        Assert.assertTrue(DOSBulkLookup.isUnsupported(404));
+        Assert.assertTrue(DOSBulkLookup.isUnsupported(405));
+        Assert.assertTrue(DOSBulkLookup.isUnsupported(501));
+        Assert.assertFalse(DOSBulkLookup.isUnsupported(500));
+        Assert.assertFalse(DOSBulkLookup.isUnsupported(503));
+        Assert.assertFalse(DOSBulkLookup.isUnsupported(403));
+    }
+}
@@ -0,0 +1,97 @@
+package io.dockstore.provision;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSCircuitBreakerUnitTest {
+
+    private final TestClock clock = new TestClock();
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        DOSCircuitBreaker breaker = new DOSCircuitBreaker(3, 1000, clock);
+        breaker.recordFailure("dataguids.org");
+        breaker.recordFailure("dataguids.org");
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+        breaker.recordFailure("dataguids.org");
+        Assert.assertTrue(breaker.isOpen("dataguids.org"));
+        Assert.assertFalse(breaker.allowRequest("dataguids.org"));
+        // Other hosts are not affected
+        Assert.assertTrue(breaker.allowRequest("dos-dss.ucsc-cgp-dev.org"));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        DOSCircuitBreaker breaker = new DOSCircuitBreaker(3, 1000, clock);
+        breaker.recordFailure("dataguids.org");
+        breaker.recordFailure("dataguids.org");
+        breaker.recordSuccess("dataguids.org");
+        breaker.recordFailure("dataguids.org");
+        breaker.recordFailure("dataguids.org");
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+    }
+
+    @Test
+    public void testSingleProbeAfterOpenTime() {
+        DOSCircuitBreaker breaker = new DOSCircuitBreaker(1, 1000, clock);
+        breaker.recordFailure("dataguids.org");
+        clock.advance(999);
+        Assert.assertFalse(breaker.allowRequest("dataguids.org"));
+
+        clock.advance(1);
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+        // Only the one probe is let through until it reports back
+        Assert.assertFalse(breaker.allowRequest("dataguids.org"));
+
+        // A failed probe keeps the circuit open for another period
+        breaker.recordFailure("dataguids.org");
+        clock.advance(999);
+        Assert.assertFalse(breaker.allowRequest("dataguids.org"));
+        clock.advance(1);
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+
+        // A successful probe closes it
+        breaker.recordSuccess("dataguids.org");
+        Assert.assertFalse(breaker.isOpen("dataguids.org"));
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+    }
+
+    @Test
+    public void testDisabled() {
+        DOSCircuitBreaker breaker = new DOSCircuitBreaker(0, 1000, clock);
+        for (int i = 0; i < 100; i++) {
+            breaker.recordFailure("dataguids.org");
+        }
+        Assert.assertTrue(breaker.allowRequest("dataguids.org"));
+    }
+
+    private static final class TestClock extends Clock {
+        private long millis;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
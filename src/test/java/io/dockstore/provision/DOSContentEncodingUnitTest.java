@@ -0,0 +1,94 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSContentEncodingUnitTest {
+
+    private static final byte[] BODY = StubDOSServer.dataObject("630d31c3-381e-488d-b639-ce5d047a0142", 100)
+            .toString().getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testGzip() throws IOException {
+        byte[] compressed = compress(out -> new GZIPOutputStream(out));
+        assertDecodes(compressed, "gzip");
+        assertDecodes(compressed, "x-gzip");
+        assertDecodes(compressed, " GZIP ");
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        assertDecodes(compress(out -> new DeflaterOutputStream(out)), "deflate");
+    }
+
+    @Test
+    public void testRawDeflate() throws IOException {
+        // Some servers send deflate data without the zlib wrapper
+        assertDecodes(compress(out -> new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true))), "deflate");
+    }
+
+    @Test
+    public void testIdentity() throws IOException {
+        assertDecodes(BODY, null);
+        assertDecodes(BODY, "");
+        assertDecodes(BODY, "identity");
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedEncoding() throws IOException {
+        DOSContentEncoding.decode(new ByteArrayInputStream(BODY), "br", new DOSPluginMetrics());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptGzip() throws IOException {
+        DOSContentEncoding.decode(new ByteArrayInputStream(BODY), "gzip", new DOSPluginMetrics());
+    }
+
+    @Test
+    public void testBytesRecordedOnce() throws IOException {
+        byte[] compressed = compress(out -> new GZIPOutputStream(out));
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        InputStream in = DOSContentEncoding.decode(new ByteArrayInputStream(compressed), "gzip", metrics);
+        IOUtils.skip(in, Long.MAX_VALUE);
+        Assert.assertEquals(0, metrics.getBytesDecoded());
+        in.close();
+        in.close();
+
+        Assert.assertEquals(compressed.length, metrics.getBytesReceived());
+        Assert.assertEquals(BODY.length, metrics.getBytesDecoded());
+    }
+
+    private static void assertDecodes(byte[] body, String encoding) throws IOException {
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        try (InputStream in = DOSContentEncoding.decode(new ByteArrayInputStream(body), encoding, metrics)) {
+            Assert.assertArrayEquals(BODY, IOUtils.toByteArray(in));
+        }
+        Assert.assertEquals(body.length, metrics.getBytesReceived());
+        Assert.assertEquals(BODY.length, metrics.getBytesDecoded());
+    }
+
+    private static byte[] compress(Compressor compressor) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = compressor.wrap(compressed)) {
+            out.write(BODY);
+        }
+        Assert.assertTrue(compressed.size() < BODY.length);
+        return compressed.toByteArray();
+    }
+
+    private interface Compressor {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+}
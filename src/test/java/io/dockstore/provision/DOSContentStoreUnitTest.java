@@ -0,0 +1,112 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DOSContentStoreUnitTest {
+
+    private static final String HELLO_MD5 = "5d41402abc4b2a76b9719d911017c592";
+    private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path store;
+
+    @Before
+    public void setup() throws IOException {
+        store = folder.newFolder("store").toPath();
+    }
+
+    private Path put(String type, String checksum, String content) throws IOException {
+        Path file = store.resolve(type).resolve(checksum);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static DOSDataObject object(Long size, String... typesAndChecksums) {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (int i = 0; i < typesAndChecksums.length; i += 2) {
+            checksums.put(typesAndChecksums[i], typesAndChecksums[i + 1]);
+        }
+        return new DOSDataObject(Collections.emptyList(), size, checksums);
+    }
+
+    @Test
+    public void testFind() throws IOException {
+        Path md5Copy = put("md5", HELLO_MD5, "hello");
+        Path sha256Copy = put("sha256", HELLO_SHA256, "hello");
+        DOSContentStore contentStore = new DOSContentStore(store, true);
+
+        // The strongest checksum is looked up first
+        Assert.assertEquals(Optional.of(sha256Copy), contentStore.find(object(5L, "md5", HELLO_MD5, "sha256", HELLO_SHA256)));
+        Assert.assertEquals(Optional.of(md5Copy), contentStore.find(object(null, "md5", HELLO_MD5.toUpperCase())));
+        Assert.assertFalse(contentStore.find(object(5L, "sha1", "aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d")).isPresent());
+        Assert.assertFalse(contentStore.find(object(5L)).isPresent());
+    }
+
+    @Test
+    public void testFindWrongSize() throws IOException {
+        put("md5", HELLO_MD5, "hello");
+        Assert.assertFalse(new DOSContentStore(store, true).find(object(6L, "md5", HELLO_MD5)).isPresent());
+    }
+
+    @Test
+    public void testFindCorrupt() throws IOException {
+        Path copy = put("md5", HELLO_MD5, "hallo");
+        DOSContentStore contentStore = new DOSContentStore(store, true);
+        Assert.assertFalse(contentStore.find(object(5L, "md5", HELLO_MD5)).isPresent());
+        // Without verification only the size is checked
+        Assert.assertEquals(Optional.of(copy), new DOSContentStore(store, false).find(object(5L, "md5", HELLO_MD5)));
+    }
+
+    @Test
+    public void testFindVerifiedOnce() throws IOException {
+        Path copy = put("md5", HELLO_MD5, "hello");
+        DOSContentStore contentStore = new DOSContentStore(store, true);
+        FileTime modified = Files.getLastModifiedTime(copy);
+        Assert.assertTrue(contentStore.find(object(5L, "md5", HELLO_MD5)).isPresent());
+
+        // A change that keeps the size and modification time is not noticed, one that does not is
+        Files.write(copy, "hallo".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(copy, modified);
+        Assert.assertTrue(contentStore.find(object(5L, "md5", HELLO_MD5)).isPresent());
+        Files.setLastModifiedTime(copy, FileTime.fromMillis(modified.toMillis() + 1000));
+        Assert.assertFalse(contentStore.find(object(5L, "md5", HELLO_MD5)).isPresent());
+    }
+
+    @Test
+    public void testFindUnverifiableType() throws IOException {
+        Path copy = put("etag", "abc123", "hello");
+        Assert.assertFalse(new DOSContentStore(store, true).find(object(5L, "etag", "abc123")).isPresent());
+        Assert.assertEquals(Optional.of(copy), new DOSContentStore(store, false).find(object(5L, "etag", "abc123")));
+    }
+
+    @Test
+    public void testFindStaysInStore() throws IOException {
+        Files.write(folder.getRoot().toPath().resolve("outside"), "hello".getBytes(StandardCharsets.UTF_8));
+        DOSContentStore contentStore = new DOSContentStore(store, false);
+        Assert.assertFalse(contentStore.find(object(5L, "md5", "../../outside")).isPresent());
+        Assert.assertFalse(contentStore.find(object(5L, "..", "outside")).isPresent());
+    }
+
+    @Test
+    public void testDigest() throws IOException {
+        Path file = put("md5", HELLO_MD5, "hello");
+        Assert.assertEquals(HELLO_MD5, DOSContentStore.digest(file, "MD5"));
+        Assert.assertEquals(HELLO_SHA256, DOSContentStore.digest(file, "SHA-256"));
+    }
+}
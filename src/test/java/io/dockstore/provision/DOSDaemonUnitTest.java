@@ -0,0 +1,231 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DOSDaemonUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService pool = DOSExecutors.newFixedPool(4, "dos-daemon-test", false);
+
+    @After
+    public void teardown() {
+        pool.shutdown();
+    }
+
+    private DOSDaemon startDaemon(String... keyValues) throws IOException {
+        DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+        MapConfiguration configuration = new MapConfiguration(new HashMap<>());
+        configuration.setProperty("metrics-jmx", "false");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            configuration.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        dosPluginUtil.setConfiguration(configuration);
+        return new DOSDaemon(dosPluginUtil, pool, 4, 0).start();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ImmutableTriple<String, String, String> split(StubDOSServer server, String id) {
+        return new DOSPluginUtil().splitURI(server.uri(id)).get();
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().start(); DOSDaemon daemon = startDaemon()) {
+            DOSDaemonClient client = new DOSDaemonClient(daemon.getPort(), 10000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+
+            Optional<JSONObject> response = client.lookup(split(server, "a"));
+            Assert.assertEquals(3, response.get().getJSONObject("data_object").getJSONArray("urls").length());
+            Assert.assertFalse(client.lookup(split(server, StubDOSServer.MISSING_PREFIX + "b")).isPresent());
+            Assert.assertEquals(2, server.getRequestCount());
+
+            // A second client, as a later launcher would be, is answered from the daemon's cache
+            DOSDaemonClient laterClient = new DOSDaemonClient(daemon.getPort(), 10000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+            Assert.assertTrue(response.get().similar(laterClient.lookup(split(server, "a")).get()));
+            Assert.assertEquals(2, server.getRequestCount());
+            Assert.assertTrue(laterClient.isAvailable());
+        }
+    }
+
+    @Test
+    public void testLookupAll() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().bulk(true).start();
+                DOSDaemon daemon = startDaemon("bulk-lookup-hosts", "localhost:" + server.getPort())) {
+            DOSDaemonClient client = new DOSDaemonClient(daemon.getPort(), 10000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+
+            List<Optional<JSONObject>> responses = client.lookupAll(Arrays.asList(split(server, "a"),
+                    split(server, StubDOSServer.MISSING_PREFIX + "b"), split(server, "c")));
+            Assert.assertEquals(3, responses.size());
+            Assert.assertTrue(responses.get(0).isPresent());
+            Assert.assertFalse(responses.get(1).isPresent());
+            Assert.assertTrue(responses.get(2).isPresent());
+            // The daemon looked the objects up in bulk, and only the one it did not find on its own
+            Assert.assertEquals(1, server.getBulkRequestCount());
+            Assert.assertEquals(1, server.getRequestCount());
+
+            Assert.assertEquals(Collections.emptyList(), client.lookupAll(Collections.emptyList()));
+        }
+    }
+
+    @Test
+    public void testLookupAllMoreThanThreads() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().latency(100, 0).start();
+                DOSDaemon daemon = startDaemon("resolution-deadline-ms", "1000", "max-retries", "0")) {
+            DOSDaemonClient client = new DOSDaemonClient(daemon.getPort(), 30000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+
+            // Lookups still waiting for one of the four threads would pass the deadline if they were queued all at once
+            List<ImmutableTriple<String, String, String>> splits = new ArrayList<>();
+            for (int i = 0; i < 80; i++) {
+                splits.add(split(server, "object-" + i));
+            }
+            List<Optional<JSONObject>> responses = client.lookupAll(splits);
+            Assert.assertEquals(80, responses.size());
+            for (Optional<JSONObject> response : responses) {
+                Assert.assertNotNull(response);
+                Assert.assertTrue(response.isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void testLookupFailed() throws IOException {
+        // An offline daemon cannot resolve anything it has not cached, but it does not know the objects do not exist
+        try (StubDOSServer server = new StubDOSServer().start(); DOSDaemon daemon = startDaemon("offline", "true")) {
+            DOSDaemonClient client = new DOSDaemonClient(daemon.getPort(), 10000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+            try {
+                client.lookup(split(server, "a"));
+                Assert.fail();
+            } catch (IOException e) {
+                // Expected
+            }
+            Assert.assertEquals(502, request(daemon, "GET", DOSDaemonClient.LOOKUP_API + "?scheme=dos&host=localhost&path=a", null));
+
+            List<Optional<JSONObject>> responses = client.lookupAll(Arrays.asList(split(server, "a"), split(server, "b")));
+            Assert.assertEquals(Arrays.asList(null, null), responses);
+            // Failing to resolve is not the daemon being unreachable
+            Assert.assertTrue(client.isAvailable());
+            Assert.assertEquals(0, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testLookupAllMissingAndFailed() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().start(); DOSDaemon daemon = startDaemon("max-retries", "0")) {
+            DOSDaemonClient client = new DOSDaemonClient(daemon.getPort(), 10000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+            // The daemon learns the stub answers on http, so it does not also try https for the missing object
+            Assert.assertTrue(client.lookup(split(server, "a")).isPresent());
+            // Nothing listens on the port of the last object's host
+            ImmutableTriple<String, String, String> unreachable = new ImmutableTriple<>("dos", "localhost:" + freePort(), "c");
+
+            List<Optional<JSONObject>> responses = client.lookupAll(Arrays.asList(split(server, "a"),
+                    split(server, StubDOSServer.MISSING_PREFIX + "b"), unreachable));
+            Assert.assertTrue(responses.get(0).isPresent());
+            Assert.assertEquals(Optional.empty(), responses.get(1));
+            Assert.assertNull(responses.get(2));
+        }
+    }
+
+    @Test
+    public void testBadRequests() throws IOException {
+        try (DOSDaemon daemon = startDaemon()) {
+            Assert.assertEquals(400, request(daemon, "GET", DOSDaemonClient.LOOKUP_API + "?host=localhost", null));
+            Assert.assertEquals(405, request(daemon, "POST", DOSDaemonClient.LOOKUP_API, "[]"));
+            Assert.assertEquals(405, request(daemon, "GET", DOSDaemonClient.BULK_API, null));
+            Assert.assertEquals(400, request(daemon, "POST", DOSDaemonClient.BULK_API, "{\"not\": \"a list\"}"));
+            Assert.assertEquals(400, request(daemon, "POST", DOSDaemonClient.BULK_API, "[{\"host\": \"localhost\"}]"));
+            Assert.assertEquals(400, request(daemon, "POST", DOSDaemonClient.BULK_API, "not json"));
+        }
+    }
+
+    private static int request(DOSDaemon daemon, String method, String file, String body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)new URL("http", "127.0.0.1", daemon.getPort(), file).openConnection();
+        conn.setRequestMethod(method);
+        if (body != null) {
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try {
+            return conn.getResponseCode();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    @Test
+    public void testNotRunning() throws IOException {
+        DOSDaemonClient client = new DOSDaemonClient(freePort(), 10000, DOSDaemonClient.DEFAULT_RETRY_INTERVAL);
+        Assert.assertTrue(client.isAvailable());
+        try {
+            client.lookup(new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/a"));
+            Assert.fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        // Not asked again for a while
+        Assert.assertFalse(client.isAvailable());
+
+        DOSDaemonClient retryingClient = new DOSDaemonClient(client.getPort(), 10000, 0);
+        try {
+            retryingClient.lookupAll(Collections.singletonList(new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/a")));
+            Assert.fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertTrue(retryingClient.isAvailable());
+    }
+
+    @Test
+    public void testParseQuery() throws IOException {
+        Assert.assertEquals(Collections.emptyMap(), DOSDaemon.parseQuery(null));
+        Assert.assertEquals("dg.4503/a b&c", DOSDaemon.parseQuery("host=dataguids.org&path=dg.4503%2Fa+b%26c&flag").get("path"));
+        Assert.assertFalse(DOSDaemon.parseQuery("host=dataguids.org&path=dg.4503%2Fa+b%26c&flag").containsKey("flag"));
+    }
+
+    @Test
+    public void testRunUsage() throws IOException {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSDaemon.run(new String[] {"--verbose"}, out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSDaemon.run(new String[] {"--config"}, out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSDaemon.run(new String[] {
+            "--config", folder.getRoot().toPath().resolve("missing").toString()}, out));
+
+        // The daemon needs a port to listen on
+        File config = folder.newFile("config");
+        Files.write(config.toPath(), "[dockstore-file-dos-plugin]\ncache-max-entries = 10\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSDaemon.run(new String[] {"--config", config.getPath()}, out));
+    }
+}
@@ -0,0 +1,85 @@
+package io.dockstore.provision;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DOSDataObjectUnitTest {
+
+    @Test
+    public void testOf() {
+        JSONObject dataObject = new JSONObject("{\"size\": \"17179869184\", \"checksums\": ["
+                + "{\"checksum\": \"8a6e1e5d4a3fb3c1b0a52d9e1c4f3ab7\", \"type\": \"md5\"}, "
+                + "{\"checksum\": \"ABCDEF\", \"type\": \"SHA-256\"}, "
+                + "{\"checksum\": \"ignored\", \"type\": \"MD5\"}, "
+                + "{\"checksum\": \"\", \"type\": \"sha1\"}, "
+                + "{\"type\": \"crc32c\"}, "
+                + "{\"checksum\": \"9a3b0e4f\", \"type\": \"crc32c\"}, "
+                + "\"not a checksum\"]}");
+
+        DOSDataObject object = DOSDataObject.of(dataObject, Collections.singletonList("s3://bucket/key"));
+
+        Assert.assertEquals(Collections.singletonList("s3://bucket/key"), object.getUrls());
+        Assert.assertEquals(Optional.of(17179869184L), object.getSize());
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("md5", "8a6e1e5d4a3fb3c1b0a52d9e1c4f3ab7");
+        expected.put("sha256", "ABCDEF");
+        expected.put("crc32c", "9a3b0e4f");
+        Assert.assertEquals(expected, object.getChecksums());
+        // A crc32c is too short to tell objects apart
+        Assert.assertEquals(new HashSet<>(Arrays.asList("md5:8a6e1e5d4a3fb3c1b0a52d9e1c4f3ab7", "sha256:abcdef")),
+                object.contentKeys());
+    }
+
+    @Test
+    public void testHasSameContent() {
+        DOSDataObject object = DOSDataObject.of(new JSONObject("{\"size\": 5, \"checksums\": ["
+                + "{\"checksum\": \"aaaa\", \"type\": \"md5\"}, {\"checksum\": \"cccc\", \"type\": \"crc32c\"}]}"),
+                Collections.emptyList());
+        Assert.assertTrue(object.hasSameContent(DOSDataObject.of(new JSONObject(
+                "{\"size\": 5, \"checksums\": [{\"checksum\": \"AAAA\", \"type\": \"md5\"}]}"), Collections.emptyList())));
+        // A size missing from either is not held against them
+        Assert.assertTrue(object.hasSameContent(DOSDataObject.of(new JSONObject(
+                "{\"checksums\": [{\"checksum\": \"aaaa\", \"type\": \"md5\"}]}"), Collections.emptyList())));
+        Assert.assertFalse(object.hasSameContent(DOSDataObject.of(new JSONObject(
+                "{\"size\": 6, \"checksums\": [{\"checksum\": \"aaaa\", \"type\": \"md5\"}]}"), Collections.emptyList())));
+        Assert.assertFalse(object.hasSameContent(DOSDataObject.of(new JSONObject(
+                "{\"size\": 5, \"checksums\": [{\"checksum\": \"cccc\", \"type\": \"crc32c\"}]}"), Collections.emptyList())));
+    }
+
+    @Test
+    public void testOfWithoutMetadata() {
+        DOSDataObject object = DOSDataObject.of(new JSONObject(), Collections.emptyList());
+        Assert.assertFalse(object.getSize().isPresent());
+        Assert.assertTrue(object.getChecksums().isEmpty());
+        Assert.assertTrue(object.contentKeys().isEmpty());
+
+        // indexd sends the size as a number
+        Assert.assertEquals(Optional.of(42L), DOSDataObject.of(new JSONObject().put("size", 42), Collections.emptyList()).getSize());
+        Assert.assertFalse(DOSDataObject.of(new JSONObject().put("size", "large"), Collections.emptyList()).getSize().isPresent());
+    }
+
+    @Test
+    public void testWithUrls() {
+        DOSDataObject object = DOSDataObject.of(new JSONObject("{\"size\": 5, \"checksums\": [{\"checksum\": \"a\", \"type\": \"md5\"}]}"),
+                Collections.singletonList("s3://bucket/key"));
+        DOSDataObject local = object.withUrls(Arrays.asList("file:///store/md5/a", "s3://bucket/key"));
+        Assert.assertEquals(Arrays.asList("file:///store/md5/a", "s3://bucket/key"), local.getUrls());
+        Assert.assertEquals(object.getSize(), local.getSize());
+        Assert.assertEquals(object.getChecksums(), local.getChecksums());
+    }
+
+    @Test
+    public void testToJSON() {
+        Map<String, String> checksums = Collections.singletonMap("md5", "8a6e1e5d4a3fb3c1b0a52d9e1c4f3ab7");
+        JSONObject dataObject = new JSONObject().put(DOSDataObject.CHECKSUMS, DOSDataObject.toJSON(checksums));
+        Assert.assertEquals(checksums, DOSDataObject.of(dataObject, Collections.emptyList()).getChecksums());
+    }
+}
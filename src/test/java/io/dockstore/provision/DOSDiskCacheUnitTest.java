@@ -0,0 +1,119 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class DOSDiskCacheUnitTest {
+
+    private static final ImmutableTriple<String, String, String> KEY =
+            new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+    private static final String RESPONSE = "{\"data_object\": {\"urls\": [{\"url\": \"s3://bucket/key\"}]}}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGetAndPut() throws IOException {
+        DOSDiskCache cache = new DOSDiskCache(folder.getRoot().toPath(), 60);
+        Assert.assertFalse(cache.get(KEY).isPresent());
+
+        cache.put(KEY, new JSONObject(RESPONSE));
+        Assert.assertTrue(Files.exists(cache.entryPath(KEY)));
+        Assert.assertEquals("s3://bucket/key", cache.get(KEY).get()
+                .getJSONObject("data_object").getJSONArray("urls").getJSONObject(0).getString("url"));
+
+        // A second cache on the same directory, as in a later launch, sees the entry
+        Assert.assertTrue(new DOSDiskCache(folder.getRoot().toPath(), 60).get(KEY).isPresent());
+    }
+
+    @Test
+    public void testExpiry() {
+        Clock start = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+        Path directory = folder.getRoot().toPath();
+
+        new DOSDiskCache(directory, 60, start).put(KEY, new JSONObject(RESPONSE));
+        Assert.assertTrue(new DOSDiskCache(directory, 60, Clock.offset(start, Duration.ofSeconds(59))).get(KEY).isPresent());
+
+        DOSDiskCache later = new DOSDiskCache(directory, 60, Clock.offset(start, Duration.ofSeconds(60)));
+        Assert.assertFalse(later.get(KEY).isPresent());
+        Assert.assertFalse(Files.exists(later.entryPath(KEY)));
+    }
+
+    @Test
+    public void testExpiredEntryWithValidatorsIsKept() {
+        Clock start = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+        Path directory = folder.getRoot().toPath();
+        DOSValidators validators = new DOSValidators("\"v1\"", "Sat, 26 May 2018 13:43:15 GMT");
+
+        new DOSDiskCache(directory, 60, start).put(KEY, new JSONObject(RESPONSE), validators);
+        DOSDiskCache.Entry fresh = new DOSDiskCache(directory, 60, start).read(KEY).get();
+        Assert.assertFalse(fresh.isExpired());
+        Assert.assertEquals(validators, fresh.getValidators());
+
+        DOSDiskCache later = new DOSDiskCache(directory, 60, Clock.offset(start, Duration.ofSeconds(60)));
+        Assert.assertFalse(later.get(KEY).isPresent());
+        DOSDiskCache.Entry expired = later.read(KEY).get();
+        Assert.assertTrue(expired.isExpired());
+        Assert.assertEquals(validators, expired.getValidators());
+        Assert.assertTrue(Files.exists(later.entryPath(KEY)));
+    }
+
+    @Test
+    public void testCorruptEntry() throws IOException {
+        DOSDiskCache cache = new DOSDiskCache(folder.getRoot().toPath(), 60);
+        Path entry = cache.entryPath(KEY);
+        Files.createDirectories(entry.getParent());
+        Files.write(entry, "garbage".getBytes());
+
+        Assert.assertFalse(cache.get(KEY).isPresent());
+    }
+
+    @Test
+    public void testConcurrentReadersAndWriters() throws Exception {
+        // Separate instances stand in for separate launcher processes sharing the directory
+        Path directory = folder.getRoot().toPath();
+        new DOSDiskCache(directory, 60).put(KEY, new JSONObject(RESPONSE));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                DOSDiskCache cache = new DOSDiskCache(directory, 60);
+                boolean writer = i % 2 == 0;
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < 200; j++) {
+                        if (writer) {
+                            cache.put(KEY, new JSONObject(RESPONSE));
+                        } else if (!cache.get(KEY).isPresent()) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
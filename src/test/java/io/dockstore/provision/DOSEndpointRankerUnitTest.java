@@ -0,0 +1,151 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+
+public class DOSEndpointRankerUnitTest {
+
+    private static final URI S3_US = URI.create("s3://bucket-us-east-1/topmed/NWD000001.cram");
+    private static final URI S3_EU = URI.create("s3://bucket-eu-west-1/topmed/NWD000001.cram");
+    private static final URI S3_AP = URI.create("s3://bucket-ap-south-1/topmed/NWD000001.cram");
+    private static final URI GS = URI.create("gs://bucket/topmed/NWD000001.cram");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEndpoint() {
+        Assert.assertEquals(InetSocketAddress.createUnresolved("bucket-us-east-1.s3.amazonaws.com", 443),
+                DOSEndpointRanker.endpoint(S3_US).get());
+        // Every gs bucket is served from the same anycast front end, which says nothing about where the bucket is
+        Assert.assertFalse(DOSEndpointRanker.endpoint(GS).isPresent());
+        Assert.assertEquals(InetSocketAddress.createUnresolved("example.org", 443),
+                DOSEndpointRanker.endpoint(URI.create("https://example.org/a")).get());
+        Assert.assertEquals(InetSocketAddress.createUnresolved("example.org", 8080),
+                DOSEndpointRanker.endpoint(URI.create("http://example.org:8080/a")).get());
+        Assert.assertFalse(DOSEndpointRanker.endpoint(URI.create("syn://syn12345")).isPresent());
+    }
+
+    @Test
+    public void testOrderWithinTier() throws IOException {
+        DOSEndpointRanker ranker = ranker(500, latencies(30, 10, 20), Optional.empty());
+
+        List<URI> ordered = ranker.order(Arrays.asList(Arrays.asList(S3_US, S3_EU, S3_AP), Collections.singletonList(GS)));
+        // Only the tier with a choice is reordered, and tiers keep their order
+        Assert.assertEquals(Arrays.asList(S3_EU, S3_AP, S3_US, GS), ordered);
+    }
+
+    @Test
+    public void testUnmeasurableUrlsKeepServerOrder() throws IOException {
+        DOSEndpointRanker ranker = ranker(500, latencies(30, 10, 20), Optional.empty());
+        URI otherGs = URI.create("gs://other-bucket/topmed/NWD000001.cram");
+
+        // gs URLs are not probed, and only the URLs that can be measured trade places
+        Assert.assertEquals(Arrays.asList(GS, otherGs), ranker.order(Collections.singletonList(Arrays.asList(GS, otherGs))));
+        Mockito.verify(ranker, Mockito.never()).connectMillis(Mockito.any());
+        Assert.assertEquals(Arrays.asList(GS, S3_EU, otherGs, S3_US),
+                ranker.order(Collections.singletonList(Arrays.asList(GS, S3_US, otherGs, S3_EU))));
+    }
+
+    @Test
+    public void testUnreachableEndpointRanksLast() throws IOException {
+        DOSEndpointRanker ranker = ranker(500, latencies(30, 10, 20), Optional.empty());
+        Mockito.doThrow(new IOException("Connection refused")).when(ranker).connectMillis(DOSEndpointRanker.endpoint(S3_EU).get());
+
+        Assert.assertEquals(Arrays.asList(S3_AP, S3_US, S3_EU), ranker.order(Collections.singletonList(Arrays.asList(S3_US, S3_EU, S3_AP))));
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        DOSEndpointRanker ranker = ranker(100, latencies(30, 10, 20), Optional.empty());
+        Mockito.doAnswer(invocation -> {
+            Thread.sleep(500);
+            return 1.0;
+        }).when(ranker).connectMillis(DOSEndpointRanker.endpoint(S3_US).get());
+
+        // The slow probe does not hold up ordering beyond the budget, and its endpoint is ranked last until it finishes
+        long start = System.nanoTime();
+        List<List<URI>> tiers = Collections.singletonList(Arrays.asList(S3_US, S3_EU, S3_AP));
+        Assert.assertEquals(Arrays.asList(S3_EU, S3_AP, S3_US), ranker.order(tiers));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 400);
+
+        for (int i = 0; i < 100 && Double.isInfinite(ranker.latencyMillis(S3_US)); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(Arrays.asList(S3_US, S3_EU, S3_AP), ranker.order(tiers));
+    }
+
+    @Test
+    public void testMeasurementsArePersisted() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("endpoint-latency.properties");
+        DOSEndpointRanker first = ranker(500, latencies(30, 10, 20), Optional.of(file));
+        first.order(Collections.singletonList(Arrays.asList(S3_US, S3_EU, S3_AP)));
+        first.flush();
+        Assert.assertTrue(Files.exists(file));
+
+        // A later launch orders by what the first one measured without probing
+        DOSEndpointRanker later = Mockito.spy(new DOSEndpointRanker(500, 600, Optional.of(file), true));
+        Assert.assertEquals(Arrays.asList(S3_EU, S3_AP, S3_US), later.order(Collections.singletonList(Arrays.asList(S3_US, S3_EU, S3_AP))));
+        Mockito.verify(later, Mockito.never()).connectMillis(Mockito.any());
+    }
+
+    @Test
+    public void testMeasurementsAreSavedTogether() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("endpoint-latency.properties");
+        DOSEndpointRanker ranker = ranker(500, latencies(30, 10, 20), Optional.of(file));
+        ranker.order(Collections.singletonList(Arrays.asList(S3_US, S3_EU, S3_AP)));
+
+        // The three probes are written out in one go a while after they finish
+        for (int i = 0; i < 100 && !Files.exists(file); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(3, DOSFiles.loadProperties(file).size());
+
+        // Nothing has been measured since, so there is nothing to write
+        Files.delete(file);
+        ranker.flush();
+        Assert.assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testConnectMillis() throws IOException {
+        DOSEndpointRanker ranker = new DOSEndpointRanker(500, 600, Optional.empty(), true);
+        try (ServerSocket server = new ServerSocket(0)) {
+            double millis = ranker.connectMillis(InetSocketAddress.createUnresolved("localhost", server.getLocalPort()));
+            Assert.assertTrue(millis >= 0 && millis < DOSEndpointRanker.PROBE_TIMEOUT);
+        }
+    }
+
+    private static Map<String, Double> latencies(double us, double eu, double ap) {
+        Map<String, Double> latencies = new HashMap<>();
+        latencies.put(DOSEndpointRanker.endpoint(S3_US).get().getHostString(), us);
+        latencies.put(DOSEndpointRanker.endpoint(S3_EU).get().getHostString(), eu);
+        latencies.put(DOSEndpointRanker.endpoint(S3_AP).get().getHostString(), ap);
+        return latencies;
+    }
+
+    private static DOSEndpointRanker ranker(long budget, Map<String, Double> latencies, Optional<Path> file) throws IOException {
+        DOSEndpointRanker ranker = Mockito.spy(new DOSEndpointRanker(budget, 600, file, true));
+        Mockito.doAnswer(invocation -> latencies.getOrDefault(((InetSocketAddress)invocation.getArgument(0)).getHostString(), 1.0))
+                .when(ranker).connectMillis(Mockito.any());
+        return ranker;
+    }
+}
@@ -0,0 +1,55 @@
+package io.dockstore.provision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSExecutorsUnitTest {
+
+    @Test
+    public void testFixedPoolBoundsConcurrency() throws Exception {
+        ExecutorService pool = DOSExecutors.newFixedPool(4, "dos-test", true);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch release = new CountDownLatch(1);
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                tasks.add(pool.submit(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    release.await();
+                    running.decrementAndGet();
+                    return null;
+                }));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(4, maxRunning.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThreadsDoNotKeepTheJvmAlive() throws Exception {
+        ExecutorService pool = DOSExecutors.newCachedPool("dos-test", false);
+        try {
+            Thread thread = pool.submit(Thread::currentThread).get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(thread.isDaemon());
+            Assert.assertTrue(thread.getName().startsWith("dos-test-"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class DOSFilesUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAtomically() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("a").resolve("file");
+        Assert.assertTrue(DOSFiles.writeAtomically(file, out -> out.write("first")));
+        Assert.assertTrue(DOSFiles.writeAtomically(file, out -> out.write("second")));
+        Assert.assertEquals("second", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        // A failed write leaves the file as it was, and no temporary file behind
+        Assert.assertFalse(DOSFiles.writeAtomically(file, out -> {
+            out.write("third");
+            throw new IOException("Disk full");
+        }));
+        Assert.assertEquals("second", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testProperties() {
+        Path file = folder.getRoot().toPath().resolve("file.properties");
+        Assert.assertTrue(DOSFiles.loadProperties(file).isEmpty());
+
+        Properties properties = new Properties();
+        properties.setProperty("storage.googleapis.com:443", "12.5,1000");
+        DOSFiles.storeProperties(file, properties);
+        Assert.assertEquals(properties, DOSFiles.loadProperties(file));
+    }
+}
@@ -0,0 +1,101 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSJsonExtractorUnitTest {
+
+    private static final DOSJsonExtractor URLS_EXTRACTOR = new DOSJsonExtractor(ImmutableSet.of("urls"));
+
+    @Test
+    public void testExtract() {
+        JSONObject actual = URLS_EXTRACTOR.extract(IOUtils.toInputStream(
+                "{\"data_object\": {" +
+                    "\"checksums\": [{\"checksum\": \"bf140ba9778dd091d533c59d888c4463\", \"type\": \"md5\"}]," +
+                    "\"name\": null," +
+                    "\"size\": 1503901," +
+                    "\"aliases\": [\"a\", \"b\\\"}]\", {\"nested\": [[], {}]}]," +
+                    "\"urls\": [{\"url\": \"gs://gs-url/path\"}, {\"url\": \"s3://s3-url/path\"}]," +
+                    "\"version\": \"89dfdc16\"" +
+                "}}"));
+
+        JSONObject expected = new JSONObject(
+                "{\"data_object\": {\"urls\": [{\"url\": \"gs://gs-url/path\"}, {\"url\": \"s3://s3-url/path\"}]}}");
+        Assert.assertTrue(expected.similar(actual));
+    }
+
+    @Test
+    public void testExtractSeveralFields() {
+        DOSJsonExtractor extractor = new DOSJsonExtractor(new HashSet<>(Arrays.asList("urls", "size", "checksums")));
+        JSONObject actual = extractor.extract(IOUtils.toInputStream(
+                "{\"data_object\": {\"size\": 1503901, \"description\": \"\", \"urls\": []}}"));
+
+        // Fields that are wanted but absent are left out
+        JSONObject expected = new JSONObject("{\"data_object\": {\"size\": 1503901, \"urls\": []}}");
+        Assert.assertTrue(expected.similar(actual));
+    }
+
+    @Test
+    public void testExtractSkipsOtherTopLevelMembers() {
+        JSONObject actual = URLS_EXTRACTOR.extract(IOUtils.toInputStream(
+                "{\"bundle\": {\"data_object_ids\": [\"x\", \"y\"]}, \"count\": 2, \"data_object\": {\"urls\": []}}"));
+        Assert.assertTrue(new JSONObject("{\"data_object\": {\"urls\": []}}").similar(actual));
+    }
+
+    @Test
+    public void testExtractStopsEarly() {
+        // Reading stops once the urls have been read, so the invalid remainder of the response is never reached
+        Reader reader = new StringReader("{\"data_object\": {\"urls\": [{\"url\": \"s3://bucket/key\"}], " +
+                StringUtils.repeat("garbage ", 10000));
+        Assert.assertEquals(1, URLS_EXTRACTOR.extract(reader).getJSONObject("data_object").getJSONArray("urls").length());
+    }
+
+    @Test
+    public void testExtractUtf8() throws IOException {
+        InputStream stream = IOUtils.toInputStream("{\"data_object\": {\"urls\": [{\"url\": \"s3://bücket/kéy\"}]}}", "UTF-8");
+        Assert.assertEquals("s3://bücket/kéy", URLS_EXTRACTOR.extract(stream)
+                .getJSONObject("data_object").getJSONArray("urls").getJSONObject(0).getString("url"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testExtractNoDataObject() {
+        URLS_EXTRACTOR.extract(IOUtils.toInputStream("{\"msg\": \"no record found\"}"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testExtractMalformed() {
+        URLS_EXTRACTOR.extract(IOUtils.toInputStream("<html><body>Not Found</body></html>"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testExtractUnterminated() {
+        URLS_EXTRACTOR.extract(IOUtils.toInputStream("{\"data_object\": {\"description\": \"abc"));
+    }
+
+    @Test
+    public void testLimitedInputStream() throws IOException {
+        InputStream within = new DOSJsonExtractor.LimitedInputStream(IOUtils.toInputStream("12345"), 5);
+        Assert.assertEquals("12345", IOUtils.toString(within, "UTF-8"));
+
+        InputStream beyond = new DOSJsonExtractor.LimitedInputStream(IOUtils.toInputStream("123456"), 5);
+        try {
+            IOUtils.toString(beyond, "UTF-8");
+            Assert.fail("Expected the read to fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("maximum size"));
+        }
+    }
+}
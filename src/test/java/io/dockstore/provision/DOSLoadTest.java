@@ -0,0 +1,224 @@
+package io.dockstore.provision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Pushes many <code>prepareDownload</code> calls through the plugin against a {@link StubDOSServer} and reports the
+ * throughput and latency percentiles. The tests only run a small smoke load unless <code>-DloadTests=true</code> is
+ * given:
+ *
+ * <pre>
+ * mvn test -Dtest=DOSLoadTest -DloadTests=true
+ * </pre>
+ *
+ * Larger loads can be run from the command line with system properties, for example:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=io.dockstore.provision.DOSLoadTest -Dexec.classpathScope=test \
+ *     -Dcalls=100000 -Dthreads=64 -Dlatency=20 -Djitter=30 -DerrorRate=0.01 -Dseed=1 -Dhttps=true
+ * </pre>
+ */
+public class DOSLoadTest {
+
+    static final String LOAD_TESTS = "loadTests";
+
+    /**
+     * The settings of one load test run
+     */
+    static final class Load {
+        int calls = 2000;
+        int threads = 16;
+        int distinctObjects = 500;
+        int urls = 3;
+        long latencyMillis;
+        long jitterMillis;
+        double errorRate;
+        long seed;
+        boolean https;
+        Map<String, String> config = new HashMap<>();
+    }
+
+    /**
+     * The outcome of one load test run
+     */
+    static final class Report {
+        final DOSPluginMetrics.Histogram latency = new DOSPluginMetrics.Histogram();
+        final LongAdder resolved = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        long elapsedNanos;
+        long serverRequests;
+        long serverErrors;
+
+        double getThroughput() {
+            return latency.getCount() / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d calls (%d resolved, %d failed, %d server requests) in %.2f s: %.0f calls/s, "
+                            + "latency ms p50 %.2f, p90 %.2f, p99 %.2f, max %.2f",
+                    latency.getCount(), resolved.sum(), failed.sum(), serverRequests, elapsedNanos / 1e9,
+                    getThroughput(), latency.getPercentileMillis(0.5), latency.getPercentileMillis(0.9),
+                    latency.getPercentileMillis(0.99), latency.getMaxMillis());
+        }
+    }
+
+    static Report run(Load load) throws Exception {
+        SSLSocketFactory defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        try (StubDOSServer server = new StubDOSServer()
+                .urls(load.urls)
+                .latency(load.latencyMillis, load.jitterMillis)
+                .errorRate(load.errorRate)
+                .seed(load.seed)
+                .https(load.https)
+                .threads(load.threads)
+                .start()) {
+            if (load.https) {
+                HttpsURLConnection.setDefaultSSLSocketFactory(StubDOSServer.clientContext().getSocketFactory());
+            }
+            DOSPlugin.DOSPreProvision preProvision = new DOSPlugin.DOSPreProvision();
+            preProvision.setConfiguration(load.config);
+
+            List<String> uris = new ArrayList<>();
+            for (int i = 0; i < load.distinctObjects; i++) {
+                uris.add(server.uri(String.format("630d31c3-381e-488d-b639-%012d", i)));
+            }
+
+            Report report = new Report();
+            ExecutorService callers = Executors.newFixedThreadPool(load.threads);
+            try {
+                List<Future<?>> calls = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int i = 0; i < load.calls; i++) {
+                    String uri = uris.get(i % uris.size());
+                    calls.add(callers.submit(() -> {
+                        long callStart = System.nanoTime();
+                        List<String> urls = preProvision.prepareDownload(uri);
+                        report.latency.record(System.nanoTime() - callStart);
+                        (urls.isEmpty() ? report.failed : report.resolved).increment();
+                    }));
+                }
+                for (Future<?> call : calls) {
+                    call.get();
+                }
+                report.elapsedNanos = System.nanoTime() - start;
+            } finally {
+                callers.shutdownNow();
+            }
+            report.serverRequests = server.getRequestCount();
+            report.serverErrors = server.getErrorCount();
+            return report;
+        } finally {
+            HttpsURLConnection.setDefaultSSLSocketFactory(defaultSocketFactory);
+        }
+    }
+
+    @Test
+    public void testLoadSmoke() throws Exception {
+        Load load = new Load();
+        load.calls = 200;
+        load.threads = 8;
+        load.distinctObjects = 50;
+        load.config.put(DOSPluginUtil.CACHE_MAX_ENTRIES, "0");
+        Report report = run(load);
+        System.out.println("Smoke: " + report);
+
+        Assert.assertEquals(load.calls, report.resolved.sum());
+        Assert.assertTrue(report.serverRequests <= load.calls);
+        Assert.assertTrue(report.serverRequests >= load.distinctObjects);
+    }
+
+    @Test
+    public void testLoadSmokeUnreliableServer() throws Exception {
+        Load load = new Load();
+        load.calls = 100;
+        load.threads = 8;
+        load.distinctObjects = 100;
+        load.errorRate = 0.2;
+        // The server only answers https, so a failed call does not wait on an https attempt at an http server
+        load.https = true;
+        Report report = run(load);
+        System.out.println("Smoke, unreliable: " + report);
+
+        // The seeded server fails the same requests every run
+        Assert.assertTrue(report.serverErrors > 0);
+        Assert.assertEquals(load.calls, report.resolved.sum() + report.failed.sum());
+        Assert.assertTrue(report.resolved.sum() > load.calls * 0.75);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TESTS));
+        Load load = new Load();
+        load.config.put(DOSPluginUtil.CACHE_MAX_ENTRIES, "0");
+        Report report = run(load);
+        System.out.println("Uncached: " + report);
+
+        Assert.assertEquals(load.calls, report.latency.getCount());
+        Assert.assertEquals(load.calls, report.resolved.sum());
+        // Without a cache, every call asks the server, except those coalesced with an identical call in flight
+        Assert.assertTrue(report.serverRequests <= load.calls);
+        Assert.assertTrue(report.serverRequests >= load.distinctObjects);
+    }
+
+    @Test
+    public void testLoadCached() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TESTS));
+        Load load = new Load();
+        Report report = run(load);
+        System.out.println("Cached: " + report);
+
+        Assert.assertEquals(load.calls, report.resolved.sum());
+        // Each object is fetched once, the rest of the calls are answered from the cache
+        Assert.assertEquals(load.distinctObjects, report.serverRequests);
+    }
+
+    @Test
+    public void testLoadSlowUnreliableHttpsServer() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TESTS));
+        Load load = new Load();
+        load.calls = 500;
+        load.distinctObjects = 500;
+        load.latencyMillis = 5;
+        load.jitterMillis = 10;
+        load.errorRate = 0.1;
+        load.https = true;
+        Report report = run(load);
+        System.out.println("Slow, unreliable, https only: " + report);
+
+        Assert.assertEquals(load.calls, report.resolved.sum() + report.failed.sum());
+        // Each call's http attempt fails outright, and its https attempt fails about a tenth of the time
+        Assert.assertTrue(report.resolved.sum() > load.calls * 0.75);
+        Assert.assertTrue(report.serverErrors > 0);
+        Assert.assertTrue(report.latency.getPercentileMillis(0.5) >= load.latencyMillis);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Load load = new Load();
+        load.calls = Integer.getInteger("calls", 100000);
+        load.threads = Integer.getInteger("threads", 32);
+        load.distinctObjects = Integer.getInteger("objects", load.calls);
+        load.urls = Integer.getInteger("urls", load.urls);
+        load.latencyMillis = Long.getLong("latency", 0L);
+        load.jitterMillis = Long.getLong("jitter", 0L);
+        load.errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+        load.seed = Long.getLong("seed", 0L);
+        load.https = Boolean.getBoolean("https");
+        load.config.put(DOSPluginUtil.CACHE_MAX_ENTRIES, System.getProperty("cacheMaxEntries", "0"));
+        System.out.println(run(load));
+    }
+}
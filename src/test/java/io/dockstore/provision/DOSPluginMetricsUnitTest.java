@@ -0,0 +1,140 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class DOSPluginMetricsUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHistogramPercentiles() {
+        DOSPluginMetrics.Histogram histogram = new DOSPluginMetrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+        Assert.assertEquals(100, histogram.getMaxMillis(), 0.001);
+        // Buckets are powers of two, so percentiles are accurate to within a factor of two
+        Assert.assertEquals(50, histogram.getPercentileMillis(0.5), 50);
+        Assert.assertTrue(histogram.getPercentileMillis(0.5) >= 50);
+        Assert.assertTrue(histogram.getPercentileMillis(0.9) >= 90);
+        // Never more than the largest latency seen
+        Assert.assertEquals(100, histogram.getPercentileMillis(0.99), 0.001);
+    }
+
+    @Test
+    public void testHistogramEmpty() {
+        DOSPluginMetrics.Histogram histogram = new DOSPluginMetrics.Histogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMeanMillis(), 0);
+        Assert.assertEquals(0, histogram.getPercentileMillis(0.99), 0);
+    }
+
+    @Test
+    public void testSnapshot() {
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        metrics.recordOutcome(DOSPluginMetrics.Outcome.OK);
+        metrics.recordOutcome(DOSPluginMetrics.Outcome.OK);
+        metrics.recordOutcome(DOSPluginMetrics.Outcome.BAD_URI);
+        metrics.recordConnection(true);
+        metrics.recordConnection(false);
+        metrics.recordUrls("gs", 3);
+        metrics.recordLatency("dataguids.org", DOSPluginMetrics.Phase.CONNECT, TimeUnit.MILLISECONDS.toNanos(5));
+
+        JSONObject snapshot = new JSONObject(metrics.getSnapshot());
+        Assert.assertEquals(2, snapshot.getJSONObject("requests").getLong("OK"));
+        Assert.assertEquals(1, snapshot.getJSONObject("requests").getLong("BAD_URI"));
+        Assert.assertEquals(0, snapshot.getJSONObject("requests").getLong("JSON_ERROR"));
+        Assert.assertEquals(0.5, snapshot.getDouble("https-fallback-rate"), 0);
+        Assert.assertEquals(3, snapshot.getJSONObject("urls-by-scheme").getLong("gs"));
+        Assert.assertEquals(1, snapshot.getJSONObject("latency").getJSONObject("dataguids.org")
+                .getJSONObject("connect").getLong("count"));
+        Assert.assertEquals(5, metrics.getLatencyMillis().get("dataguids.org connect max"), 0.001);
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getCount(DOSPluginMetrics.Outcome.OK));
+        Assert.assertTrue(metrics.getUrlsByScheme().isEmpty());
+        Assert.assertTrue(metrics.getLatencyMillis().isEmpty());
+    }
+
+    @Test
+    public void testDump() throws IOException {
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        metrics.recordOutcome(DOSPluginMetrics.Outcome.NOT_OK);
+        Path file = folder.getRoot().toPath().resolve("metrics").resolve("dos-metrics.json");
+
+        metrics.dump(file);
+
+        JSONObject dumped = new JSONObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, dumped.getJSONObject("requests").getLong("NOT_OK"));
+        // Only the dump itself is left in the directory
+        Assert.assertEquals(1, file.getParent().toFile().list().length);
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        DOSPluginMetrics first = new DOSPluginMetrics();
+        first.register();
+        DOSPluginMetrics second = new DOSPluginMetrics();
+        second.recordOutcome(DOSPluginMetrics.Outcome.IO_ERROR);
+        second.register();
+        // Registering again, as a new configuration does, keeps the same name
+        second.register();
+
+        // Each instance is published under a name of its own, rather than the latest replacing the others
+        ObjectName firstName = new ObjectName(first.getObjectName());
+        ObjectName secondName = new ObjectName(second.getObjectName());
+        Assert.assertNotEquals(firstName, secondName);
+        Assert.assertEquals(2, server.queryNames(new ObjectName(DOSPluginMetrics.OBJECT_NAME + ",*"), null).stream()
+                .filter(name -> name.equals(firstName) || name.equals(secondName)).count());
+        @SuppressWarnings("unchecked")
+        Map<String, Long> requests = (Map<String, Long>)javax.management.JMX
+                .newMXBeanProxy(server, secondName, DOSPluginMetricsMXBean.class).getRequestsByOutcome();
+        Assert.assertEquals(Long.valueOf(1), requests.get("IO_ERROR"));
+
+        first.unregister();
+        second.unregister();
+        Assert.assertFalse(server.isRegistered(firstName));
+        Assert.assertFalse(server.isRegistered(secondName));
+    }
+
+    @Test
+    public void testShutdownUnregisters() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        DOSPluginUtil dosPluginUtil = new DOSPluginUtil();
+        dosPluginUtil.setConfiguration(new MapConfiguration(new HashMap<>()));
+        ObjectName name = new ObjectName(dosPluginUtil.getMetrics().getObjectName());
+        Assert.assertTrue(server.isRegistered(name));
+
+        dosPluginUtil.setConfiguration(new MapConfiguration(Collections.singletonMap("metrics-jmx", "false")));
+        Assert.assertFalse(server.isRegistered(name));
+        dosPluginUtil.setConfiguration(new MapConfiguration(new HashMap<>()));
+        Assert.assertTrue(server.isRegistered(name));
+        dosPluginUtil.shutdown();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
@@ -4,6 +4,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -11,14 +14,19 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -31,10 +39,17 @@ public class DOSPluginUnitTest {
     private DOSPluginUtil dosPluginUtil;
     @InjectMocks
     private DOSPlugin.DOSPreProvision dosPreProvision;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
+        Mockito.when(dosPluginUtil.getMetrics()).thenReturn(new DOSPluginMetrics());
+    }
+
+    private static CompletableFuture<Optional<JSONObject>> response(Optional<JSONObject> json) {
+        return CompletableFuture.completedFuture(json);
     }
 
     @Test
@@ -80,6 +95,24 @@ public class DOSPluginUnitTest {
         Assert.assertEquals(expectedSchemes, dosPreProvision.preferredSchemes);
     }
 
+    @Test
+    public void testSetConfigurationUrlRanking() {
+        Assert.assertFalse(dosPreProvision.endpointRanker.isPresent());
+        dosPreProvision.setConfiguration(Collections.singletonMap("url-ranking", "latency"));
+        Assert.assertTrue(dosPreProvision.endpointRanker.isPresent());
+        dosPreProvision.setConfiguration(Collections.emptyMap());
+        Assert.assertFalse(dosPreProvision.endpointRanker.isPresent());
+    }
+
+    @Test
+    public void testSetConfigurationPassedToUtil() {
+        Map<String, String> config = new HashMap<>();
+        config.put("cache-max-entries", "10");
+
+        dosPreProvision.setConfiguration(config);
+        Mockito.verify(dosPluginUtil).setConfiguration(Mockito.any());
+    }
+
     @Test
     public void testSchemesHandled() {
         Set<String> scheme = new HashSet<>(Collections.singletonList("dos"));
@@ -142,7 +175,7 @@ public class DOSPluginUnitTest {
 
         // Mock expected DOSPluginUtil object functionality when splitURI() and getResponse() are called
         Mockito.when(dosPluginUtil.splitURI("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c")).thenReturn(java.util.Optional.of(split));
-        Mockito.when(dosPluginUtil.getResponse(split)).thenReturn(java.util.Optional.of(expectedJSON));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(response(Optional.of(expectedJSON)));
 
         List<String> actual = dosPreProvision.prepareDownload("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
         Assert.assertEquals(expected, actual);
@@ -208,7 +241,7 @@ public class DOSPluginUnitTest {
 
         // Mock expected DOSPluginUtil object functionality when splitURI() and getResponse() are called
         Mockito.when(dosPluginUtil.splitURI("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c")).thenReturn(java.util.Optional.of(split));
-        Mockito.when(dosPluginUtil.getResponse(split)).thenReturn(java.util.Optional.of(expectedJSON));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(response(Optional.of(expectedJSON)));
 
         List<String> actual = dosPreProvision.prepareDownload("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
         Assert.assertEquals(expected, actual);
@@ -270,12 +303,205 @@ public class DOSPluginUnitTest {
 
         // Mock expected DOSPluginUtil object functionality when splitURI() and getResponse() are called
         Mockito.when(dosPluginUtil.splitURI("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c")).thenReturn(java.util.Optional.of(split));
-        Mockito.when(dosPluginUtil.getResponse(split)).thenReturn(java.util.Optional.of(expectedJSON));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(response(Optional.of(expectedJSON)));
 
         List<String> actual = dosPreProvision.prepareDownload("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testPrepareDownloadRecordsUrlsByScheme() {
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        String uri = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        Mockito.when(dosPluginUtil.getMetrics()).thenReturn(metrics);
+        Mockito.when(dosPluginUtil.splitURI(uri)).thenReturn(java.util.Optional.of(split));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"urls\": [{\"url\": \"gs://gs-url/path1\"}, {\"url\": \"s3://s3-url/path1\"}, "
+                        + "{\"url\": \"gs://gs-url/path2\"}]}}"))));
+
+        dosPreProvision.prepareDownload(uri);
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("gs", 2L);
+        expected.put("s3", 1L);
+        Assert.assertEquals(expected, metrics.getUrlsByScheme());
+    }
+
+    @Test
+    public void testPrepareDownloadAsync() throws Exception {
+        dosPreProvision.preferredSchemes = Arrays.asList("s3", "gs");
+        String uri = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        CompletableFuture<Optional<JSONObject>> lookup = new CompletableFuture<>();
+        Mockito.when(dosPluginUtil.splitURI(uri)).thenReturn(Optional.of(split));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(lookup);
+
+        CompletableFuture<List<String>> urls = dosPreProvision.prepareDownloadAsync(uri);
+        Assert.assertFalse(urls.isDone());
+        lookup.complete(Optional.of(new JSONObject(
+                "{\"data_object\": {\"urls\": [{\"url\": \"gs://gs-url/path1\"}, {\"url\": \"s3://s3-url/path1\"}]}}")));
+        Assert.assertEquals(Arrays.asList("s3://s3-url/path1", "gs://gs-url/path1"), urls.get(30, TimeUnit.SECONDS));
+
+        // URIs the plugin does not handle complete straight away
+        Assert.assertTrue(dosPreProvision.prepareDownloadAsync("fake").get().isEmpty());
+    }
+
+    @Test
+    public void testPrepareDownloadAsyncCancel() {
+        String uri = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        CompletableFuture<Optional<JSONObject>> lookup = new CompletableFuture<>();
+        Mockito.when(dosPluginUtil.splitURI(uri)).thenReturn(Optional.of(split));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(lookup);
+
+        dosPreProvision.prepareDownloadAsync(uri).cancel(true);
+        Assert.assertTrue(lookup.isCancelled());
+    }
+
+    @Test
+    public void testPrepareDownloads() {
+        dosPreProvision.preferredSchemes = Arrays.asList("s3", "gs");
+
+        String uri1 = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        String uri2 = "dos://dos-dss.ucsc-cgp-dev.org/fff5a29f-d184-4e3b-9c5b-6f44aea7f527";
+        String uri3 = "dos://dg.4503/630d31c3-381e-488d-b639-ffffffffffff";
+        ImmutableTriple<String, String, String> split1 =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        ImmutableTriple<String, String, String> split2 =
+                new ImmutableTriple<>("dos", "dos-dss.ucsc-cgp-dev.org", "fff5a29f-d184-4e3b-9c5b-6f44aea7f527");
+        ImmutableTriple<String, String, String> split3 =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ffffffffffff");
+
+        Mockito.when(dosPluginUtil.splitURI(uri1)).thenReturn(java.util.Optional.of(split1));
+        Mockito.when(dosPluginUtil.splitURI(uri2)).thenReturn(java.util.Optional.of(split2));
+        Mockito.when(dosPluginUtil.splitURI(uri3)).thenReturn(java.util.Optional.of(split3));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split1), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"urls\": [{\"url\": \"gs://gs-url/path1\"}, {\"url\": \"s3://s3-url/path1\"}]}}"))));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split2), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"urls\": [{\"url\": \"s3://s3-url/path2\"}]}}"))));
+        // A malformed response fails only its own URI
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split3), Mockito.any())).thenReturn(response(Optional.of(new JSONObject("{}"))));
+
+        Map<String, List<String>> actual = dosPreProvision.prepareDownloads(Arrays.asList(uri1, uri2, uri3, "fake", uri1));
+
+        Assert.assertEquals(Arrays.asList(uri1, uri2, uri3, "fake"), new ArrayList<>(actual.keySet()));
+        Assert.assertEquals(Arrays.asList("s3://s3-url/path1", "gs://gs-url/path1"), actual.get(uri1));
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path2"), actual.get(uri2));
+        Assert.assertTrue(actual.get(uri3).isEmpty());
+        Assert.assertTrue(actual.get("fake").isEmpty());
+        // Every distinct DOS URI is offered for bulk lookup before the URIs are resolved one by one
+        Mockito.verify(dosPluginUtil).loadInBulk(Mockito.eq(Arrays.asList(split1, split2, split3)), Mockito.any());
+    }
+
+    @Test
+    public void testResolve() {
+        String uri = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        ImmutableTriple<String, String, String> split = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        Mockito.when(dosPluginUtil.splitURI(uri)).thenReturn(Optional.of(split));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"size\": \"5\", \"checksums\": [{\"checksum\": \"5d41402abc4b2a76b9719d911017c592\", \"type\": \"md5\"}], "
+                        + "\"urls\": [{\"url\": \"s3://s3-url/path1\"}]}}"))));
+
+        DOSDataObject dataObject = dosPreProvision.resolve(uri).get();
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path1"), dataObject.getUrls());
+        Assert.assertEquals(Optional.of(5L), dataObject.getSize());
+        Assert.assertEquals(Collections.singletonMap("md5", "5d41402abc4b2a76b9719d911017c592"), dataObject.getChecksums());
+        Assert.assertFalse(dosPreProvision.resolve("fake").isPresent());
+    }
+
+    @Test
+    public void testResolveFromContentStore() throws IOException {
+        Path copy = folder.newFolder("store", "md5").toPath().resolve("5d41402abc4b2a76b9719d911017c592");
+        Files.write(copy, "hello".getBytes(StandardCharsets.UTF_8));
+        dosPreProvision.setConfiguration(Collections.singletonMap("content-store-dir", copy.getParent().getParent().toString()));
+
+        String uri = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        ImmutableTriple<String, String, String> split = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        Mockito.when(dosPluginUtil.splitURI(uri)).thenReturn(Optional.of(split));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"size\": \"5\", \"checksums\": [{\"checksum\": \"5D41402ABC4B2A76B9719D911017C592\", \"type\": \"MD5\"}], "
+                        + "\"urls\": [{\"url\": \"s3://s3-url/path1\"}]}}"))));
+
+        // The verified copy is offered before any download
+        Assert.assertEquals(Arrays.asList(copy.toUri().toString(), "s3://s3-url/path1"), dosPreProvision.prepareDownload(uri));
+    }
+
+    @Test
+    public void testPrepareDownloadsSameChecksum() {
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        Mockito.when(dosPluginUtil.getMetrics()).thenReturn(metrics);
+        String uri1 = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        String uri2 = "dos://dos-dss.ucsc-cgp-dev.org/fff5a29f-d184-4e3b-9c5b-6f44aea7f527";
+        String uri3 = "dos://dg.4503/630d31c3-381e-488d-b639-ffffffffffff";
+        ImmutableTriple<String, String, String> split1 = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        ImmutableTriple<String, String, String> split2 = new ImmutableTriple<>("dos", "dos-dss.ucsc-cgp-dev.org", "fff5a29f-d184-4e3b-9c5b-6f44aea7f527");
+        ImmutableTriple<String, String, String> split3 = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ffffffffffff");
+        Mockito.when(dosPluginUtil.splitURI(uri1)).thenReturn(Optional.of(split1));
+        Mockito.when(dosPluginUtil.splitURI(uri2)).thenReturn(Optional.of(split2));
+        Mockito.when(dosPluginUtil.splitURI(uri3)).thenReturn(Optional.of(split3));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split1), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"checksums\": [{\"checksum\": \"aaaa\", \"type\": \"md5\"}], \"urls\": [{\"url\": \"s3://s3-url/path1\"}]}}"))));
+        // The same bytes under another name, with another checksum besides
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split2), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"checksums\": [{\"checksum\": \"bbbb\", \"type\": \"sha256\"}, {\"checksum\": \"AAAA\", \"type\": \"md5\"}], "
+                        + "\"urls\": [{\"url\": \"gs://gs-url/path2\"}]}}"))));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split3), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"checksums\": [{\"checksum\": \"cccc\", \"type\": \"md5\"}], \"urls\": [{\"url\": \"s3://s3-url/path3\"}]}}"))));
+
+        Map<String, List<String>> actual = dosPreProvision.prepareDownloads(Arrays.asList(uri1, uri2, uri3));
+
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path1"), actual.get(uri1));
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path1"), actual.get(uri2));
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path3"), actual.get(uri3));
+        Assert.assertEquals(1, metrics.getDuplicates());
+
+        Map<String, DOSDataObject> dataObjects = dosPreProvision.resolveAll(Arrays.asList(uri1, uri2, uri3, "fake"));
+        Assert.assertEquals(Arrays.asList(uri1, uri2, uri3), new ArrayList<>(dataObjects.keySet()));
+        Assert.assertSame(dataObjects.get(uri1), dataObjects.get(uri2));
+    }
+
+    @Test
+    public void testPrepareDownloadsSameCrc32c() {
+        DOSPluginMetrics metrics = new DOSPluginMetrics();
+        Mockito.when(dosPluginUtil.getMetrics()).thenReturn(metrics);
+        String uri1 = "dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c";
+        String uri2 = "dos://dg.4503/630d31c3-381e-488d-b639-ffffffffffff";
+        String uri3 = "dos://dg.4503/fff5a29f-d184-4e3b-9c5b-6f44aea7f527";
+        ImmutableTriple<String, String, String> split1 = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+        ImmutableTriple<String, String, String> split2 = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ffffffffffff");
+        ImmutableTriple<String, String, String> split3 = new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/fff5a29f-d184-4e3b-9c5b-6f44aea7f527");
+        Mockito.when(dosPluginUtil.splitURI(uri1)).thenReturn(Optional.of(split1));
+        Mockito.when(dosPluginUtil.splitURI(uri2)).thenReturn(Optional.of(split2));
+        Mockito.when(dosPluginUtil.splitURI(uri3)).thenReturn(Optional.of(split3));
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split1), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"size\": \"100\", \"checksums\": [{\"checksum\": \"9a3b0e4f\", \"type\": \"crc32c\"}, "
+                        + "{\"checksum\": \"aaaa\", \"type\": \"md5\"}], \"urls\": [{\"url\": \"s3://s3-url/path1\"}]}}"))));
+        // Different files whose crc32c collide
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split2), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"size\": \"200\", \"checksums\": [{\"checksum\": \"9a3b0e4f\", \"type\": \"crc32c\"}], "
+                        + "\"urls\": [{\"url\": \"s3://s3-url/path2\"}]}}"))));
+        // A server that got the md5 wrong, which the sizes give away
+        Mockito.when(dosPluginUtil.getResponseAsync(Mockito.eq(split3), Mockito.any())).thenReturn(response(Optional.of(new JSONObject(
+                "{\"data_object\": {\"size\": \"300\", \"checksums\": [{\"checksum\": \"aaaa\", \"type\": \"md5\"}], "
+                        + "\"urls\": [{\"url\": \"s3://s3-url/path3\"}]}}"))));
+
+        Map<String, List<String>> actual = dosPreProvision.prepareDownloads(Arrays.asList(uri1, uri2, uri3));
+
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path1"), actual.get(uri1));
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path2"), actual.get(uri2));
+        Assert.assertEquals(Collections.singletonList("s3://s3-url/path3"), actual.get(uri3));
+        Assert.assertEquals(0, metrics.getDuplicates());
+    }
+
+    @Test
+    public void testPrepareDownloadsEmpty() {
+        Assert.assertTrue(dosPreProvision.prepareDownloads(Collections.emptyList()).isEmpty());
+    }
+
     @Test
     public void testPrepareDownloadReturnEmpty1() {
         String targetPath = "dos://dos-dss.ucsc-cgp-dev.org/ffffffff";
@@ -3,12 +3,40 @@ package io.dockstore.provision;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.configuration2.MapConfiguration;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
 
@@ -16,6 +44,9 @@ public class DOSPluginUtilUnitTest {
 
     private static DOSPluginUtil pluginUtil = new DOSPluginUtil();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testSplitUriOldFormat() {
         String uri = "dos://dos-dss.ucsc-cgp-dev.org/fff5a29f-d184-4e3b-9c5b-6f44aea7f527?version=2018-02-28T033124.129027Zf";
@@ -51,6 +82,71 @@ public class DOSPluginUtilUnitTest {
         Assert.assertFalse(pluginUtil.splitURI(uri).isPresent());
     }
 
+    @Test
+    public void testSplitUriPlain() {
+        // The common forms are split without parsing a java.net.URI
+        Assert.assertNotNull(DOSPluginUtil.splitPlainURI("dos://dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c"));
+        Assert.assertNotNull(DOSPluginUtil.splitPlainURI(
+                "dos://dos-dss.ucsc-cgp-dev.org/fff5a29f-d184-4e3b-9c5b-6f44aea7f527?version=2018-02-28T033124.129027Zf"));
+        Assert.assertNotNull(DOSPluginUtil.splitPlainURI("dos://localhost:8080/fff5a29f#fragment"));
+
+        // Escapes and malformed URIs are left to java.net.URI
+        Assert.assertNull(DOSPluginUtil.splitPlainURI("dos://dg.4503/1aad0eb6%2D0d89"));
+        Assert.assertNull(DOSPluginUtil.splitPlainURI("dos://host/path with spaces"));
+        Assert.assertNull(DOSPluginUtil.splitPlainURI("dos://host"));
+        Assert.assertNull(DOSPluginUtil.splitPlainURI("fake"));
+    }
+
+    @Test
+    public void testSplitUriMatchesParseUri() {
+        // Differential test of the fast path against splitting with java.net.URI, over the usual forms and random
+        // mixes of their parts with characters URI rejects, escapes or treats specially
+        String[] schemes = {"dos", "DOS", "dos+s3", "d.o-s", "1dos", "", "dös"};
+        String[] separators = {"://", ":/", ":", ":///", "//", "://://"};
+        String[] authorities = {"dg.4503", "dos-dss.ucsc-cgp-dev.org", "localhost:8080", "host:", "host:99999999999",
+            "dg.", "dg", "DG.4503", "[::1]", "[::1]:80", "user@host", "h%41st", "", "a_b~c", "host:80:80", "-host-", "a..b"};
+        String plainCharacters = "aZ09/-_.~!*'():@&=+$,;?#";
+        String otherCharacters = "%41%2F%zz%[] \"|^`{}<>\u00e9\u0000\t";
+
+        List<String> uris = new ArrayList<>();
+        for (String scheme : schemes) {
+            for (String separator : separators) {
+                for (String authority : authorities) {
+                    uris.add(scheme + separator + authority);
+                    uris.add(scheme + separator + authority + "/630d31c3-381e-488d-b639-ce5d047a0142?version=2018-05-26T134315.070662Z");
+                }
+            }
+        }
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder uri = new StringBuilder()
+                    .append(schemes[random.nextInt(schemes.length)])
+                    .append(separators[random.nextInt(3)])
+                    .append(authorities[random.nextInt(authorities.length)])
+                    .append(random.nextInt(8) == 0 ? "" : "/");
+            for (int j = random.nextInt(16); j > 0; j--) {
+                String characters = random.nextInt(8) == 0 ? otherCharacters : plainCharacters;
+                uri.append(characters.charAt(random.nextInt(characters.length())));
+            }
+            uris.add(uri.toString());
+        }
+
+        java.io.PrintStream err = System.err;
+        try {
+            // Silence the errors reported for the many malformed URIs
+            System.setErr(new java.io.PrintStream(new java.io.ByteArrayOutputStream()));
+            int plain = 0;
+            for (String uri : uris) {
+                Assert.assertEquals(uri, DOSPluginUtil.parseURI(uri), pluginUtil.splitURI(uri));
+                plain += DOSPluginUtil.splitPlainURI(uri) != null ? 1 : 0;
+            }
+            // Make sure the fast path was actually exercised
+            Assert.assertTrue(plain > 1000);
+        } finally {
+            System.setErr(err);
+        }
+    }
+
     @Test
     public void testGetResponse() {
         DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
@@ -97,6 +193,306 @@ public class DOSPluginUtilUnitTest {
         Assert.assertTrue(spyPluginUtil.getResponse(split).isPresent());
     }
 
+    @Test
+    public void testGetResponseCached() {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doReturn(mockConn).when(spyPluginUtil).createConnection(split);
+        Mockito.doReturn(Optional.of(IOUtils.toInputStream("{\"data_object\": {\"urls\": []}}")))
+                .when(spyPluginUtil).downloadJSON(mockConn);
+
+        Assert.assertTrue(spyPluginUtil.getResponse(split).isPresent());
+        Assert.assertTrue(spyPluginUtil.getResponse(split).isPresent());
+
+        // The second lookup is answered from the cache
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).createConnection(split);
+        Assert.assertEquals(1, spyPluginUtil.getResponseCache().hitCount());
+        Assert.assertEquals(1, spyPluginUtil.getResponseCache().missCount());
+    }
+
+    @Test
+    public void testGetResponseNegativeCached() {
+        // Test that unparseable responses are not fetched again
+
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doReturn(mockConn).when(spyPluginUtil).createConnection(split);
+        Mockito.doReturn(Optional.of(IOUtils.toInputStream("not json"))).when(spyPluginUtil).downloadJSON(mockConn);
+
+        Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
+        Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).createConnection(split);
+    }
+
+    @Test
+    public void testCreateConnectionNotFoundNegativeCached() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ffffffffffff");
+
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(mockConn.getResponseCode()).thenReturn(404);
+        Mockito.doReturn(mockConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(mockConn).when(spyPluginUtil).openURL("https", split);
+
+        Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
+        Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).createConnection(split);
+    }
+
+    @Test
+    public void testGetResponseDiskCached() throws IOException {
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+        DOSDiskCache diskCache = new DOSDiskCache(folder.getRoot().toPath(), 60);
+        diskCache.put(split, new JSONObject("{\"data_object\": {\"urls\": []}}"));
+
+        // A fresh instance, as in a new launcher JVM, answers from the disk cache without connecting
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setDiskCache(diskCache);
+
+        Assert.assertTrue(spyPluginUtil.getResponse(split).isPresent());
+        Mockito.verify(spyPluginUtil, Mockito.never()).createConnection(split);
+    }
+
+    @Test
+    public void testGetResponseKeepsConnectionAlive() {
+        // A fully read response must not disconnect, which would close the socket instead of returning it to the pool
+
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doReturn(mockConn).when(spyPluginUtil).createConnection(split);
+        Mockito.doReturn(Optional.of(IOUtils.toInputStream("{\"data_object\": {\"urls\": []}}")))
+                .when(spyPluginUtil).downloadJSON(mockConn);
+
+        Assert.assertTrue(spyPluginUtil.getResponse(split).isPresent());
+        Mockito.verify(spyPluginUtil, Mockito.never()).disconnect(mockConn);
+    }
+
+    @Test
+    public void testGetResponseCoalescesConcurrentLookups() throws Exception {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        // A slow server, so that every caller arrives while the first lookup is still in flight
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doAnswer(invocation -> {
+            Thread.sleep(500);
+            return mockConn;
+        }).when(spyPluginUtil).createConnection(split);
+        Mockito.doAnswer(invocation -> Optional.of(IOUtils.toInputStream("{\"data_object\": {\"urls\": []}}")))
+                .when(spyPluginUtil).downloadJSON(mockConn);
+
+        int callers = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Optional<JSONObject>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return spyPluginUtil.getResponse(split);
+                }));
+            }
+            start.countDown();
+            for (Future<Optional<JSONObject>> result : results) {
+                Assert.assertTrue(result.get(30, TimeUnit.SECONDS).isPresent());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).createConnection(split);
+    }
+
+    @Test
+    public void testGetResponseCoalescedFailure() throws Exception {
+        // Callers waiting on a lookup that fails see the same failure, and a later call tries again
+
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        Mockito.doAnswer(invocation -> {
+            Thread.sleep(200);
+            return null;
+        }).when(spyPluginUtil).createConnection(split);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Optional<JSONObject>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> spyPluginUtil.getResponse(split)));
+            }
+            for (Future<Optional<JSONObject>> result : results) {
+                Assert.assertFalse(result.get(30, TimeUnit.SECONDS).isPresent());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
+        Mockito.verify(spyPluginUtil, Mockito.atMost(5)).createConnection(split);
+        Mockito.verify(spyPluginUtil, Mockito.atLeast(2)).createConnection(split);
+    }
+
+    @Test
+    public void testGetResponseAsync() throws Exception {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        CountDownLatch respond = new CountDownLatch(1);
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doAnswer(invocation -> {
+            respond.await();
+            return mockConn;
+        }).when(spyPluginUtil).createConnection(split);
+        Mockito.doAnswer(invocation -> Optional.of(IOUtils.toInputStream("{\"data_object\": {\"urls\": []}}")))
+                .when(spyPluginUtil).downloadJSON(mockConn);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The caller gets its future back while the lookup is still waiting on the server
+            CompletableFuture<Optional<JSONObject>> response = spyPluginUtil.getResponseAsync(split, executor);
+            Assert.assertFalse(response.isDone());
+            respond.countDown();
+            Assert.assertTrue(response.get(30, TimeUnit.SECONDS).isPresent());
+
+            // Once cached, the future is already complete
+            Assert.assertTrue(spyPluginUtil.getResponseAsync(split, executor).isDone());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGetResponseAsyncCancel() throws Exception {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(30000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        }).when(spyPluginUtil).createConnection(split);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Optional<JSONObject>> first = spyPluginUtil.getResponseAsync(split, executor);
+            CompletableFuture<Optional<JSONObject>> second = spyPluginUtil.getResponseAsync(split, executor);
+            Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+
+            // The lookup carries on while another caller still waits for it
+            first.cancel(true);
+            Assert.assertFalse(interrupted.await(200, TimeUnit.MILLISECONDS));
+            Assert.assertFalse(second.isDone());
+
+            // Once nobody is waiting, it is abandoned
+            second.cancel(true);
+            Assert.assertTrue(interrupted.await(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).createConnection(split);
+    }
+
+    @Test
+    public void testGetResponseAsyncDeadline() throws Exception {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("resolution-deadline-ms", "100"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        // The executor is busy, so the lookup does not even start before the deadline
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch busy = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<Optional<JSONObject>> response = spyPluginUtil.getResponseAsync(split, executor);
+            try {
+                response.get(30, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            // The caller is told of the timeout just before the lookup is abandoned
+            long abandonDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (spyPluginUtil.isInFlight(split) && System.nanoTime() - abandonDeadline < 0) {
+                Thread.sleep(1);
+            }
+            Assert.assertFalse(spyPluginUtil.isInFlight(split));
+            busy.countDown();
+
+            // The abandoned lookup is skipped and a later call, given time to finish, starts afresh
+            spyPluginUtil.setConfiguration(configuration("resolution-deadline-ms", "30000"));
+            HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+            Mockito.doReturn(mockConn).when(spyPluginUtil).createConnection(split);
+            Mockito.doAnswer(invocation -> Optional.of(IOUtils.toInputStream("{\"data_object\": {\"urls\": []}}")))
+                    .when(spyPluginUtil).downloadJSON(mockConn);
+            Assert.assertTrue(spyPluginUtil.getResponseAsync(split, executor).get(30, TimeUnit.SECONDS).isPresent());
+        } finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).createConnection(split);
+    }
+
+    @Test
+    public void testGetResponseDeadlineCutsOffBody() {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("resolution-deadline-ms", "200"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/b1266976-fd47-4a32-a7f4-d367d545abb2");
+
+        // A body that never arrives, until the connection is closed
+        CountDownLatch disconnected = new CountDownLatch(1);
+        InputStream stalledStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    disconnected.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Socket closed");
+            }
+        };
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doAnswer(invocation -> {
+            disconnected.countDown();
+            return null;
+        }).when(mockConn).disconnect();
+        Mockito.doReturn(mockConn).when(spyPluginUtil).createConnection(split);
+        Mockito.doReturn(Optional.of(stalledStream)).when(spyPluginUtil).downloadJSON(mockConn);
+
+        long start = System.nanoTime();
+        Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        // A timeout is not a reason to stop asking
+        Assert.assertNull(spyPluginUtil.getResponseCache().peek(split));
+    }
+
     @Test
     public void testGetResponseReturnEmpty1() {
         // Test for broken link such that createConnection() returns null
@@ -111,7 +507,7 @@ public class DOSPluginUtilUnitTest {
 
     @Test
     public void testGetResponseReturnEmpty2() {
-        // Test for null string such that readStream() returns null
+        // Test for an unreadable response such that readDataObject() returns empty
 
         DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
         ImmutableTriple<String, String, String> split =
@@ -123,8 +519,8 @@ public class DOSPluginUtilUnitTest {
 
         // Return mockConn when createConnection() is called
         Mockito.doReturn(mockConn).when(spyPluginUtil).createConnection(split);
-        // Return null when readStream() is called
-        Mockito.doReturn(null).when(spyPluginUtil).readStream(mockInputStream);
+        // Return empty when readDataObject() is called
+        Mockito.doReturn(Optional.empty()).when(spyPluginUtil).readDataObject(mockInputStream);
 
         Assert.assertFalse(spyPluginUtil.getResponse(split).isPresent());
     }
@@ -205,6 +601,168 @@ public class DOSPluginUtilUnitTest {
         Assert.assertNotNull(spyPluginUtil.createConnection(split));
     }
 
+    @Test
+    public void testCreateConnectionDrainsFailedAttempt() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        // The http attempt fails with an error body, which must be read so its connection can be reused
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        InputStream errorStream = Mockito.spy(IOUtils.toInputStream("<html>Moved Permanently</html>"));
+        Mockito.when(httpConn.getResponseCode()).thenReturn(301);
+        Mockito.when(httpConn.getErrorStream()).thenReturn(errorStream);
+        HttpURLConnection httpsConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpsConn.getResponseCode()).thenReturn(200);
+
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(httpsConn).when(spyPluginUtil).openURL("https", split);
+
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+        Assert.assertEquals(-1, errorStream.read());
+        Mockito.verify(errorStream).close();
+        Mockito.verify(httpConn, Mockito.never()).disconnect();
+    }
+
+    @Test
+    public void testCreateConnectionRemembersProtocol() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpConn.getResponseCode()).thenReturn(404);
+        HttpURLConnection httpsConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpsConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(httpsConn).when(spyPluginUtil).openURL("https", split);
+
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+
+        // Only the first lookup probes http
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).openURL("http", split);
+        Mockito.verify(spyPluginUtil, Mockito.times(2)).openURL("https", split);
+    }
+
+    @Test
+    public void testCreateConnectionReprobesOnFailure() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        // The host answers on http at first, then stops
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpConn.getResponseCode()).thenReturn(200).thenThrow(new IOException("Connection refused"));
+        HttpURLConnection httpsConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpsConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(httpsConn).when(spyPluginUtil).openURL("https", split);
+
+        Assert.assertSame(httpConn, spyPluginUtil.createConnection(split));
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.times(2)).openURL("http", split);
+    }
+
+    @Test
+    public void testCreateConnectionTimeouts() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("connect-timeout-ms", "1000", "read-timeout-ms", "2000"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection mockConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(mockConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(mockConn).when(spyPluginUtil).openURL("http", split);
+
+        Assert.assertSame(mockConn, spyPluginUtil.createConnection(split));
+        Mockito.verify(mockConn).setConnectTimeout(1000);
+        Mockito.verify(mockConn).setReadTimeout(2000);
+    }
+
+    @Test
+    public void testCreateConnectionDeadline() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("resolution-deadline-ms", "100"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        // The first attempt uses up the whole deadline, so the fallback is never tried
+        HttpURLConnection slowConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(slowConn.getResponseCode()).thenAnswer(invocation -> {
+            Thread.sleep(300);
+            return 503;
+        });
+        Mockito.doReturn(slowConn).when(spyPluginUtil).openURL("http", split);
+
+        Assert.assertNull(spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.never()).openURL("https", split);
+    }
+
+    @Test
+    public void testCreateConnectionHedged() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("hedge-delay-ms", "50"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        // http stalls, so https is raced against it and wins
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpConn.getResponseCode()).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return 200;
+        });
+        HttpURLConnection httpsConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpsConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(httpsConn).when(spyPluginUtil).openURL("https", split);
+
+        long start = System.nanoTime();
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+
+        // The losing request is cancelled
+        Mockito.verify(httpConn).disconnect();
+        Mockito.verify(httpsConn, Mockito.never()).disconnect();
+    }
+
+    @Test
+    public void testCreateConnectionHedgeNotNeeded() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("hedge-delay-ms", "1000"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+
+        Assert.assertSame(httpConn, spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.never()).openURL("https", split);
+    }
+
+    @Test
+    public void testCreateConnectionHedgedFallback() throws IOException {
+        // A fast failure falls back without waiting for the hedge delay
+
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("hedge-delay-ms", "10000"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpConn.getResponseCode()).thenReturn(404);
+        HttpURLConnection httpsConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpsConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(httpsConn).when(spyPluginUtil).openURL("https", split);
+
+        long start = System.nanoTime();
+        Assert.assertSame(httpsConn, spyPluginUtil.createConnection(split));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
     @Test
     public void testCreateConnectionReturnNull1() {
         // Test for broken link
@@ -244,14 +802,14 @@ public class DOSPluginUtilUnitTest {
     }
 
     @Test
-    public void testReadStream() {
-        String expectedResponse = "{\"data_object\": {\"checksums\": [{\"checksum\": \"3b0f63a815384a3d44c61b4abd40caf9\", " +
-                "\"type\": \"md5\"}], \"created\": \"2018-05-26T13:43:15.070662\", \"description\": \"\", " +
-                "\"id\": \"dg.4503/630d31c3-381e-488d-b639-ce5d047a0142\", \"mime_type\": \"\", \"name\": null, " +
-                "\"size\": 2201638, \"updated\": \"2018-05-26T13:43:15.070672\", " +
+    public void testReadDataObject() {
+        // Only the fields the plugin uses are kept
+        String expectedResponse = "{\"data_object\": {" +
+                "\"checksums\": [{\"checksum\": \"3b0f63a815384a3d44c61b4abd40caf9\", \"type\": \"md5\"}], " +
+                "\"size\": 2201638, " +
+                "\"updated\": \"2018-05-26T13:43:15.070672\", " +
                 "\"urls\": [{\"url\": \"gs://cgp-commons-multi-region-public/topmed_open_access/44a8837b-4456-5709-b56b-54e23000f13a/NWD100953.recab.cram.crai\"}, " +
-                "{\"url\": \"s3://cgp-commons-public/topmed_open_access/44a8837b-4456-5709-b56b-54e23000f13a/NWD100953.recab.cram.crai\"}], " +
-                "\"version\": \"2ba0ac25\"}}";
+                "{\"url\": \"s3://cgp-commons-public/topmed_open_access/44a8837b-4456-5709-b56b-54e23000f13a/NWD100953.recab.cram.crai\"}]}}";
 
         InputStream testInputStream = IOUtils.toInputStream(
         "{" +
@@ -281,16 +839,548 @@ public class DOSPluginUtilUnitTest {
                 "}" +
         "}");
 
-        Assert.assertEquals(expectedResponse, pluginUtil.readStream(testInputStream));
+        Assert.assertTrue(new JSONObject(expectedResponse).similar(pluginUtil.readDataObject(testInputStream).get()));
     }
 
     @Test
-    public void testReadStreamReturnNull() throws IOException {
+    public void testReadDataObjectReturnEmpty() throws IOException {
         // Test for handling IOExceptions
 
         InputStream mockInputStream = Mockito.mock(InputStream.class);
 
         Mockito.doThrow(new IOException()).when(mockInputStream).read();
-        Assert.assertNull(pluginUtil.readStream(mockInputStream));
+        Mockito.doThrow(new IOException()).when(mockInputStream).read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+        Assert.assertFalse(pluginUtil.readDataObject(mockInputStream).isPresent());
+    }
+
+    @Test
+    public void testReadDataObjectTooLarge() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("max-response-bytes", "64");
+        DOSPluginUtil limitedPluginUtil = new DOSPluginUtil();
+        limitedPluginUtil.setConfiguration(new MapConfiguration(config));
+
+        InputStream testInputStream = IOUtils.toInputStream(
+                "{\"data_object\": {\"urls\": [{\"url\": \"s3://bucket/key\"}], \"description\": \""
+                        + StringUtils.repeat('x', 1000) + "\"}}");
+        Assert.assertFalse(limitedPluginUtil.readDataObject(testInputStream).isPresent());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testReadDataObjectNoUrls() {
+        pluginUtil.readDataObject(IOUtils.toInputStream("{\"data_object\": {\"id\": \"dg.4503/630d31c3\"}}"));
+    }
+
+    @Test
+    public void testGetResponseRecordsMetrics() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection httpConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpConn.getResponseCode()).thenReturn(404);
+        HttpURLConnection httpsConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(httpsConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(httpConn).when(spyPluginUtil).openURL("http", split);
+        Mockito.doReturn(httpsConn).when(spyPluginUtil).openURL("https", split);
+        Mockito.doReturn(Optional.of(IOUtils.toInputStream("{\"data_object\": {\"urls\": []}}")))
+                .when(spyPluginUtil).downloadJSON(httpsConn);
+
+        Assert.assertTrue(spyPluginUtil.getResponse(split).isPresent());
+
+        DOSPluginMetrics metrics = spyPluginUtil.getMetrics();
+        Assert.assertEquals(1, metrics.getCount(DOSPluginMetrics.Outcome.OK));
+        Assert.assertEquals(1, metrics.getHttpsFallbacks());
+        Assert.assertEquals(1.0, metrics.getHttpsFallbackRate(), 0);
+        // Both attempts connected, only the successful one was parsed
+        Assert.assertEquals(2, metrics.getLatency("dataguids.org", DOSPluginMetrics.Phase.CONNECT).get().getCount());
+        Assert.assertEquals(2, metrics.getLatency("dataguids.org", DOSPluginMetrics.Phase.TIME_TO_FIRST_BYTE).get().getCount());
+        Assert.assertEquals(1, metrics.getLatency("dataguids.org", DOSPluginMetrics.Phase.PARSE).get().getCount());
+    }
+
+    @Test
+    public void testGetResponseRecordsFailures() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        ImmutableTriple<String, String, String> notFound =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ffffffffffff");
+        ImmutableTriple<String, String, String> malformed =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+        ImmutableTriple<String, String, String> unreachable =
+                new ImmutableTriple<>("dos", "unreachable.org", "630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection notFoundConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(notFoundConn.getResponseCode()).thenReturn(404);
+        Mockito.doReturn(notFoundConn).when(spyPluginUtil).openURL(Mockito.anyString(), Mockito.eq(notFound));
+        HttpURLConnection malformedConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(malformedConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(malformedConn).when(spyPluginUtil).openURL("http", malformed);
+        Mockito.doReturn(Optional.of(IOUtils.toInputStream("{}"))).when(spyPluginUtil).downloadJSON(malformedConn);
+        HttpURLConnection unreachableConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doThrow(new IOException("Connection refused")).when(unreachableConn).connect();
+        Mockito.doReturn(unreachableConn).when(spyPluginUtil).openURL(Mockito.anyString(), Mockito.eq(unreachable));
+
+        Assert.assertFalse(spyPluginUtil.getResponse(notFound).isPresent());
+        Assert.assertFalse(spyPluginUtil.getResponse(malformed).isPresent());
+        Assert.assertFalse(spyPluginUtil.getResponse(unreachable).isPresent());
+        Assert.assertFalse(spyPluginUtil.splitURI("fake").isPresent());
+
+        DOSPluginMetrics metrics = spyPluginUtil.getMetrics();
+        Assert.assertEquals(0, metrics.getCount(DOSPluginMetrics.Outcome.OK));
+        Assert.assertEquals(1, metrics.getCount(DOSPluginMetrics.Outcome.NOT_OK));
+        Assert.assertEquals(1, metrics.getCount(DOSPluginMetrics.Outcome.JSON_ERROR));
+        Assert.assertEquals(1, metrics.getCount(DOSPluginMetrics.Outcome.IO_ERROR));
+        Assert.assertEquals(1, metrics.getCount(DOSPluginMetrics.Outcome.BAD_URI));
+    }
+
+    @Test
+    public void testCreateConnectionRetriesTransientFailures() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("force-https-hosts", "dataguids.org", "retry-base-delay-ms", "10"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        // The server is briefly unavailable, then recovers
+        HttpURLConnection unavailableConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(unavailableConn.getResponseCode()).thenReturn(503);
+        HttpURLConnection okConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(okConn.getResponseCode()).thenReturn(200);
+        Mockito.doReturn(unavailableConn).doReturn(unavailableConn).doReturn(okConn).when(spyPluginUtil).openURL("https", split);
+
+        Assert.assertSame(okConn, spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.times(3)).openURL("https", split);
+        Assert.assertEquals(2, spyPluginUtil.getMetrics().getRetries());
+    }
+
+    @Test
+    public void testCreateConnectionDoesNotRetryPermanentFailures() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("force-https-hosts", "dataguids.org", "retry-base-delay-ms", "10"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection errorConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(errorConn.getResponseCode()).thenReturn(500);
+        Mockito.doReturn(errorConn).when(spyPluginUtil).openURL("https", split);
+
+        Assert.assertNull(spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).openURL("https", split);
+        Assert.assertEquals(0, spyPluginUtil.getMetrics().getRetries());
+    }
+
+    @Test
+    public void testCreateConnectionHonorsRetryAfter() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("force-https-hosts", "dataguids.org", "retry-base-delay-ms", "10",
+                "retry-max-delay-ms", "1000"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        // Asked to come back in a minute, longer than the lookup will wait, so it gives up rather than retrying early
+        HttpURLConnection throttledConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(throttledConn.getResponseCode()).thenReturn(429);
+        Mockito.when(throttledConn.getHeaderField("Retry-After")).thenReturn("60");
+        Mockito.doReturn(throttledConn).when(spyPluginUtil).openURL("https", split);
+
+        long start = System.nanoTime();
+        Assert.assertNull(spyPluginUtil.createConnection(split));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        Mockito.verify(spyPluginUtil, Mockito.times(1)).openURL("https", split);
+    }
+
+    @Test
+    public void testCreateConnectionCircuitBreaker() throws IOException {
+        DOSPluginUtil spyPluginUtil = Mockito.spy(DOSPluginUtil.class);
+        spyPluginUtil.setConfiguration(configuration("force-https-hosts", "dataguids.org", "max-retries", "1",
+                "retry-base-delay-ms", "10", "circuit-breaker-failures", "3", "circuit-breaker-open-ms", "60000"));
+        ImmutableTriple<String, String, String> split =
+                new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+
+        HttpURLConnection unreachableConn = Mockito.mock(HttpURLConnection.class);
+        Mockito.doThrow(new IOException("Connection refused")).when(unreachableConn).connect();
+        Mockito.doReturn(unreachableConn).when(spyPluginUtil).openURL("https", split);
+
+        // The first lookup fails twice, the second fails once more and opens the circuit, so it is not retried
+        Assert.assertNull(spyPluginUtil.createConnection(split));
+        Assert.assertNull(spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.times(3)).openURL("https", split);
+        Assert.assertTrue(spyPluginUtil.getCircuitBreaker().isOpen("dataguids.org"));
+
+        // Later lookups fail fast without contacting the host
+        Assert.assertNull(spyPluginUtil.createConnection(split));
+        Mockito.verify(spyPluginUtil, Mockito.times(3)).openURL("https", split);
+        Assert.assertEquals(1, spyPluginUtil.getMetrics().getCount(DOSPluginMetrics.Outcome.CIRCUIT_OPEN));
+    }
+
+    @Test
+    public void testCompressedResponses() throws IOException {
+        for (String encoding : new String[] {"gzip", "deflate"}) {
+            try (StubDOSServer server = new StubDOSServer().urls(100).compression(encoding).start()) {
+                DOSPluginUtil compressingPluginUtil = new DOSPluginUtil();
+                compressingPluginUtil.setConfiguration(configuration("metrics-jmx", "false"));
+
+                Optional<JSONObject> response = compressingPluginUtil.getResponse(compressingPluginUtil.splitURI(server.uri("a")).get());
+                Assert.assertEquals(100, response.get().getJSONObject("data_object").getJSONArray("urls").length());
+                Assert.assertEquals(1, server.getCompressedResponseCount());
+                DOSPluginMetrics metrics = compressingPluginUtil.getMetrics();
+                Assert.assertTrue(metrics.getBytesReceived() > 0);
+                Assert.assertTrue(metrics.getBytesReceived() < metrics.getBytesDecoded());
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionDisabled() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().urls(100).compression("gzip").start()) {
+            DOSPluginUtil plainPluginUtil = new DOSPluginUtil();
+            plainPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "http-compression", "false"));
+
+            Assert.assertTrue(plainPluginUtil.getResponse(plainPluginUtil.splitURI(server.uri("a")).get()).isPresent());
+            Assert.assertEquals(0, server.getCompressedResponseCount());
+            DOSPluginMetrics metrics = plainPluginUtil.getMetrics();
+            Assert.assertEquals(metrics.getBytesReceived(), metrics.getBytesDecoded());
+        }
+    }
+
+    @Test
+    public void testRevalidateExpiredResponse() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().etags(true).start()) {
+            DOSPluginUtil revalidatingPluginUtil = new DOSPluginUtil();
+            revalidatingPluginUtil.setConfiguration(configuration("metrics-jmx", "false"));
+            AtomicLong nanos = new AtomicLong();
+            revalidatingPluginUtil.setResponseCache(new DOSResponseCache(10, 60, 10, ticker(nanos)));
+            ImmutableTriple<String, String, String> split = revalidatingPluginUtil.splitURI(server.uri("a")).get();
+
+            JSONObject response = revalidatingPluginUtil.getResponse(split).get();
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+            // The expired copy is still current, so it is kept without being fetched again
+            Assert.assertSame(response, revalidatingPluginUtil.getResponse(split).get());
+            Assert.assertEquals(2, server.getRequestCount());
+            Assert.assertEquals(1, server.getNotModifiedCount());
+            Assert.assertEquals(1, revalidatingPluginUtil.getMetrics().getCount(DOSPluginMetrics.Outcome.NOT_MODIFIED));
+
+            // Its time-to-live starts over
+            Assert.assertSame(response, revalidatingPluginUtil.getResponse(split).get());
+            Assert.assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        try (StubDOSServer server = new StubDOSServer().etags(true).latency(200, 0).start()) {
+            DOSPluginUtil revalidatingPluginUtil = new DOSPluginUtil();
+            revalidatingPluginUtil.setConfiguration(configuration("metrics-jmx", "false"));
+            AtomicLong nanos = new AtomicLong();
+            DOSResponseCache cache = new DOSResponseCache(10, 60, 10, 30, ticker(nanos));
+            revalidatingPluginUtil.setResponseCache(cache);
+            ImmutableTriple<String, String, String> split = revalidatingPluginUtil.splitURI(server.uri("a")).get();
+
+            JSONObject response = revalidatingPluginUtil.getResponse(split).get();
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(70));
+
+            // The stale copy is returned without waiting on the server, which is asked about it in the background
+            long start = System.nanoTime();
+            Assert.assertSame(response, revalidatingPluginUtil.getResponse(split).get());
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+            for (int i = 0; i < 100 && server.getNotModifiedCount() == 0; i++) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(1, server.getNotModifiedCount());
+            for (int i = 0; i < 100 && !cache.isFresh(cache.get(split)); i++) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(cache.isFresh(cache.get(split)));
+
+            // Past the stale window the lookup waits for the revalidation
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(100));
+            start = System.nanoTime();
+            Assert.assertSame(response, revalidatingPluginUtil.getResponse(split).get());
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+            Assert.assertEquals(2, server.getNotModifiedCount());
+        }
+    }
+
+    @Test
+    public void testRevalidateDiskCachedResponse() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().etags(true).start()) {
+            Clock start = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+            DOSPluginUtil firstLaunch = new DOSPluginUtil();
+            firstLaunch.setConfiguration(configuration("metrics-jmx", "false"));
+            firstLaunch.setDiskCache(new DOSDiskCache(folder.getRoot().toPath(), 60, start));
+            ImmutableTriple<String, String, String> split = firstLaunch.splitURI(server.uri("a")).get();
+            Assert.assertTrue(firstLaunch.getResponse(split).isPresent());
+
+            // A later launch finds the entry expired, and only asks the server whether it changed
+            DOSPluginUtil laterLaunch = new DOSPluginUtil();
+            laterLaunch.setConfiguration(configuration("metrics-jmx", "false"));
+            DOSDiskCache laterCache = new DOSDiskCache(folder.getRoot().toPath(), 60, Clock.offset(start, Duration.ofSeconds(90)));
+            laterLaunch.setDiskCache(laterCache);
+            Assert.assertEquals(3, laterLaunch.getResponse(split).get().getJSONObject("data_object").getJSONArray("urls").length());
+            Assert.assertEquals(1, server.getNotModifiedCount());
+            Assert.assertTrue(laterCache.get(split).isPresent());
+        }
+    }
+
+    @Test
+    public void testBulkLookup() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().bulk(true).start()) {
+            DOSPluginUtil bulkPluginUtil = new DOSPluginUtil();
+            bulkPluginUtil.setConfiguration(configuration("metrics-jmx", "false",
+                    "bulk-lookup-hosts", "localhost:" + server.getPort(), "bulk-lookup-max-ids", "4"));
+
+            List<ImmutableTriple<String, String, String>> splits = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                splits.add(bulkPluginUtil.splitURI(server.uri("object-" + i)).get());
+            }
+            ImmutableTriple<String, String, String> missing = bulkPluginUtil.splitURI(server.uri("missing-object")).get();
+            ImmutableTriple<String, String, String> version = bulkPluginUtil.splitURI(server.uri("object-0?version=1")).get();
+            List<ImmutableTriple<String, String, String>> all = new ArrayList<>(splits);
+            all.add(missing);
+            all.add(version);
+
+            bulkPluginUtil.loadInBulk(all, MoreExecutors.directExecutor());
+            // Eleven bare ids in runs of four, the versioned one can only be looked up on its own
+            Assert.assertEquals(3, server.getBulkRequestCount());
+            Assert.assertEquals(3, bulkPluginUtil.getMetrics().getBulkRequests());
+            Assert.assertEquals(10, bulkPluginUtil.getMetrics().getBulkObjects());
+
+            for (ImmutableTriple<String, String, String> split : splits) {
+                JSONObject dataObject = bulkPluginUtil.getResponse(split).get().getJSONObject("data_object");
+                JSONObject expected = StubDOSServer.dataObject(split.getRight(), 3).getJSONObject("data_object");
+                Assert.assertEquals(expected.getJSONArray("urls").getJSONObject(0).getString("url"),
+                        dataObject.getJSONArray("urls").getJSONObject(0).getString("url"));
+                Assert.assertEquals(expected.getString("updated"), dataObject.getString("updated"));
+            }
+            Assert.assertEquals(0, server.getRequestCount());
+
+            // What a bulk lookup did not find is looked up on its own
+            Assert.assertFalse(bulkPluginUtil.getResponse(missing).isPresent());
+            Assert.assertTrue(bulkPluginUtil.getResponse(version).isPresent());
+            Assert.assertEquals(2, server.getRequestCount());
+
+            // Cached objects are not looked up again
+            bulkPluginUtil.loadInBulk(splits, MoreExecutors.directExecutor());
+            Assert.assertEquals(3, server.getBulkRequestCount());
+        }
+    }
+
+    @Test
+    public void testBulkLookupUnsupported() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().start()) {
+            DOSPluginUtil bulkPluginUtil = Mockito.spy(new DOSPluginUtil());
+            bulkPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "bulk-lookup-hosts", "localhost:" + server.getPort()));
+            AtomicInteger bulkRequests = new AtomicInteger();
+            Mockito.doAnswer(invocation -> {
+                bulkRequests.incrementAndGet();
+                return invocation.callRealMethod();
+            }).when(bulkPluginUtil).openBulkURL(Mockito.anyString(), Mockito.anyString());
+
+            List<ImmutableTriple<String, String, String>> splits = Arrays.asList(
+                    bulkPluginUtil.splitURI(server.uri("a")).get(), bulkPluginUtil.splitURI(server.uri("b")).get());
+            bulkPluginUtil.loadInBulk(splits, MoreExecutors.directExecutor());
+            int attempts = bulkRequests.get();
+            Assert.assertTrue(attempts > 0);
+            Assert.assertEquals(0, bulkPluginUtil.getMetrics().getBulkRequests());
+
+            // The objects are looked up one at a time, and the host is not sent bulk requests again
+            for (ImmutableTriple<String, String, String> split : splits) {
+                Assert.assertTrue(bulkPluginUtil.getResponse(split).isPresent());
+            }
+            bulkPluginUtil.loadInBulk(Arrays.asList(bulkPluginUtil.splitURI(server.uri("c")).get(),
+                    bulkPluginUtil.splitURI(server.uri("d")).get()), MoreExecutors.directExecutor());
+            Assert.assertEquals(attempts, bulkRequests.get());
+        }
+    }
+
+    @Test
+    public void testBulkLookupOtherHosts() {
+        DOSPluginUtil bulkPluginUtil = Mockito.spy(new DOSPluginUtil());
+        bulkPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "bulk-lookup-hosts", "dataguids.org"));
+        bulkPluginUtil.loadInBulk(Arrays.asList(
+                bulkPluginUtil.splitURI("dos://dos-dss.ucsc-cgp-dev.org/a").get(),
+                bulkPluginUtil.splitURI("dos://dos-dss.ucsc-cgp-dev.org/b").get(),
+                bulkPluginUtil.splitURI("dos://dg.4503/c").get()), MoreExecutors.directExecutor());
+        // Only one object is on a bulk host, which is no cheaper to look up in bulk
+        Mockito.verify(bulkPluginUtil, Mockito.never()).openBulkURL(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void testResolverFailover() throws IOException {
+        try (StubDOSServer failing = new StubDOSServer().errorRate(1.0).start();
+                StubDOSServer healthy = new StubDOSServer().start()) {
+            DOSPluginUtil replicaPluginUtil = new DOSPluginUtil();
+            replicaPluginUtil.setConfiguration(configuration("metrics-jmx", "false",
+                    "resolvers", "dg.4503=localhost:" + failing.getPort() + "|localhost:" + healthy.getPort()));
+            ImmutableTriple<String, String, String> split = replicaPluginUtil.splitURI("dos://dg.4503/a").get();
+            // Cached under the default resolver, whichever replica answers
+            Assert.assertEquals("dataguids.org", split.getMiddle());
+
+            Assert.assertTrue(replicaPluginUtil.getResponse(split).isPresent());
+            Assert.assertEquals(1, failing.getRequestCount());
+            Assert.assertEquals(1, healthy.getRequestCount());
+            Assert.assertEquals(1, replicaPluginUtil.getMetrics().getFailovers());
+
+            // The failing replica is now tried last, so the next lookup does not wait on it
+            Assert.assertTrue(replicaPluginUtil.getResponse(replicaPluginUtil.splitURI("dos://dg.4503/b").get()).isPresent());
+            Assert.assertEquals(1, failing.getRequestCount());
+            Assert.assertEquals(2, healthy.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testResolverFailoverNotFound() throws IOException {
+        try (StubDOSServer first = new StubDOSServer().start(); StubDOSServer second = new StubDOSServer().start()) {
+            DOSPluginUtil replicaPluginUtil = new DOSPluginUtil();
+            replicaPluginUtil.setConfiguration(configuration("metrics-jmx", "false",
+                    "resolvers", "localhost:" + first.getPort() + "=localhost:" + first.getPort() + "|localhost:" + second.getPort()));
+            ImmutableTriple<String, String, String> split = replicaPluginUtil.splitURI(first.uri("missing-a")).get();
+
+            // Neither replica has it, so it is negatively cached under the key it was asked for
+            Assert.assertFalse(replicaPluginUtil.getResponse(split).isPresent());
+            Assert.assertEquals(1, first.getRequestCount());
+            Assert.assertEquals(1, second.getRequestCount());
+            Assert.assertFalse(replicaPluginUtil.getResponse(split).isPresent());
+            Assert.assertEquals(1, first.getRequestCount());
+            Assert.assertEquals(1, second.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        Path snapshotFile = folder.getRoot().toPath().resolve("snapshot.dos");
+        ImmutableTriple<String, String, String> split = pluginUtil.splitURI("dos://dg.4503/in-snapshot").get();
+        try (DOSSnapshot.Writer writer = new DOSSnapshot.Writer(snapshotFile)) {
+            writer.put(split, StubDOSServer.dataObject("dg.4503/in-snapshot", 2));
+        }
+        DOSPluginUtil snapshotPluginUtil = Mockito.spy(new DOSPluginUtil());
+        snapshotPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "snapshot-file", snapshotFile.toString()));
+
+        Optional<JSONObject> response = snapshotPluginUtil.getResponse(split);
+        Assert.assertEquals(2, response.get().getJSONObject("data_object").getJSONArray("urls").length());
+        Mockito.verify(snapshotPluginUtil, Mockito.never()).createConnection(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testSnapshotUnreadable() throws IOException {
+        Path snapshotFile = folder.newFile("snapshot.dos").toPath();
+        DOSPluginUtil snapshotPluginUtil = new DOSPluginUtil();
+        snapshotPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "snapshot-file", snapshotFile.toString()));
+        Assert.assertFalse(snapshotPluginUtil.getSnapshot().isPresent());
+    }
+
+    @Test
+    public void testOffline() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().bulk(true).start()) {
+            DOSPluginUtil offlinePluginUtil = Mockito.spy(new DOSPluginUtil());
+            offlinePluginUtil.setConfiguration(configuration("metrics-jmx", "false", "offline", "true",
+                    "bulk-lookup-hosts", "localhost:" + server.getPort()));
+
+            ImmutableTriple<String, String, String> split = offlinePluginUtil.splitURI(server.uri("a")).get();
+            offlinePluginUtil.loadInBulk(Arrays.asList(split, offlinePluginUtil.splitURI(server.uri("b")).get()),
+                    MoreExecutors.directExecutor());
+            Assert.assertFalse(offlinePluginUtil.getResponse(split).isPresent());
+            Assert.assertEquals(0, server.getRequestCount());
+            Assert.assertEquals(0, server.getBulkRequestCount());
+            Mockito.verify(offlinePluginUtil, Mockito.never()).createConnection(Mockito.any(), Mockito.any());
+            Assert.assertEquals(1, offlinePluginUtil.getMetrics().getCount(DOSPluginMetrics.Outcome.OFFLINE));
+        }
+    }
+
+    @Test
+    public void testOfflineExpired() {
+        DOSPluginUtil offlinePluginUtil = new DOSPluginUtil();
+        offlinePluginUtil.setConfiguration(configuration("metrics-jmx", "false", "offline", "true"));
+        AtomicLong nanos = new AtomicLong();
+        offlinePluginUtil.setResponseCache(new DOSResponseCache(10, 60, 10, ticker(nanos)));
+        ImmutableTriple<String, String, String> split = offlinePluginUtil.splitURI("dos://dg.4503/expired").get();
+        JSONObject response = StubDOSServer.dataObject("dg.4503/expired", 1);
+        offlinePluginUtil.getResponseCache().put(split, response, DOSValidators.of(response));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+        // With no server to ask, the expired copy is used
+        Assert.assertSame(response, offlinePluginUtil.getResponse(split).get());
+    }
+
+    private static Ticker ticker(AtomicLong nanos) {
+        return new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+    }
+
+    @Test
+    public void testDaemon() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        DOSPluginUtil daemonPluginUtil = new DOSPluginUtil();
+        daemonPluginUtil.setConfiguration(configuration("metrics-jmx", "false"));
+        try (StubDOSServer server = new StubDOSServer().start(); DOSDaemon daemon = new DOSDaemon(daemonPluginUtil, pool, 4, 0).start()) {
+            // Each launcher starts cold, but the daemon resolves an object only once
+            for (int launcher = 0; launcher < 2; launcher++) {
+                DOSPluginUtil launcherPluginUtil = Mockito.spy(new DOSPluginUtil());
+                launcherPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "daemon-port", String.valueOf(daemon.getPort())));
+                ImmutableTriple<String, String, String> split = launcherPluginUtil.splitURI(server.uri("a")).get();
+                Assert.assertEquals(3, launcherPluginUtil.getResponse(split).get().getJSONObject("data_object").getJSONArray("urls").length());
+                Assert.assertFalse(launcherPluginUtil.getResponse(launcherPluginUtil.splitURI(server.uri(StubDOSServer.MISSING_PREFIX + "b")).get()).isPresent());
+
+                // A batch is sent to the daemon in one request, and the lookups that follow are answered from the cache
+                List<ImmutableTriple<String, String, String>> batch = Arrays.asList(launcherPluginUtil.splitURI(server.uri("c")).get(),
+                        launcherPluginUtil.splitURI(server.uri("d")).get());
+                launcherPluginUtil.loadInBulk(batch, MoreExecutors.directExecutor());
+                Assert.assertNotNull(launcherPluginUtil.getResponseCache().peek(batch.get(1)));
+                Assert.assertTrue(launcherPluginUtil.getResponse(batch.get(0)).isPresent());
+
+                Mockito.verify(launcherPluginUtil, Mockito.never()).createConnection(Mockito.any(), Mockito.any());
+                Assert.assertEquals(4, launcherPluginUtil.getMetrics().getCount(DOSPluginMetrics.Outcome.DAEMON));
+            }
+            Assert.assertEquals(4, server.getRequestCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDaemonFailed() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        // An offline daemon fails to resolve what it has not cached, which is not the same as the objects not existing
+        DOSPluginUtil daemonPluginUtil = new DOSPluginUtil();
+        daemonPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "offline", "true"));
+        try (StubDOSServer server = new StubDOSServer().start(); DOSDaemon daemon = new DOSDaemon(daemonPluginUtil, pool, 4, 0).start()) {
+            DOSPluginUtil launcherPluginUtil = new DOSPluginUtil();
+            launcherPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "daemon-port", String.valueOf(daemon.getPort())));
+            ImmutableTriple<String, String, String> split = launcherPluginUtil.splitURI(server.uri("a")).get();
+
+            // Resolved directly instead, and nothing is cached as missing
+            launcherPluginUtil.loadInBulk(Arrays.asList(split), MoreExecutors.directExecutor());
+            Assert.assertNull(launcherPluginUtil.getResponseCache().peek(split));
+            Assert.assertTrue(launcherPluginUtil.getResponse(split).isPresent());
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertTrue(launcherPluginUtil.getDaemon().get().isAvailable());
+            Assert.assertEquals(0, launcherPluginUtil.getMetrics().getCount(DOSPluginMetrics.Outcome.DAEMON));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDaemonNotRunning() throws IOException {
+        try (StubDOSServer server = new StubDOSServer().start()) {
+            DOSPluginUtil launcherPluginUtil = new DOSPluginUtil();
+            launcherPluginUtil.setConfiguration(configuration("metrics-jmx", "false", "daemon-port", String.valueOf(DOSDaemonUnitTest.freePort())));
+            // Resolved directly instead
+            Assert.assertTrue(launcherPluginUtil.getResponse(launcherPluginUtil.splitURI(server.uri("a")).get()).isPresent());
+            Assert.assertFalse(launcherPluginUtil.getDaemon().get().isAvailable());
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertEquals(0, launcherPluginUtil.getMetrics().getCount(DOSPluginMetrics.Outcome.DAEMON));
+        }
+    }
+
+    private static MapConfiguration configuration(String... keyValues) {
+        Map<String, Object> config = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            config.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new MapConfiguration(config);
     }
 }
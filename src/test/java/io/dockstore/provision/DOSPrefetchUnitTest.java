@@ -0,0 +1,153 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DOSPrefetchUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JSONObject file(String path, String... secondaryFiles) {
+        JSONObject file = new JSONObject().put("class", "File").put("path", path);
+        if (secondaryFiles.length > 0) {
+            JSONArray secondary = new JSONArray();
+            for (String location : secondaryFiles) {
+                secondary.put(new JSONObject().put("class", "File").put("location", location));
+            }
+            file.put("secondaryFiles", secondary);
+        }
+        return file;
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testFindDosUris() {
+        JSONObject parameters = new JSONObject()
+                .put("bam", file("dos://dos.example.org/bam", "dos://dos.example.org/bai"))
+                .put("reads", new JSONArray()
+                        .put(new JSONArray().put(file("dos://dos.example.org/r1")).put(file("dos://dos.example.org/r2")))
+                        .put(file("/local/r3")))
+                .put("wf.reference", " dos://dos.example.org/ref")
+                .put("wf.again", "dos://dos.example.org/bam")
+                .put("wf.url", "https://example.org/dos://not")
+                .put("wf.threads", 4);
+
+        // A JSON object's keys are unordered, so only which URIs were found is checked
+        Assert.assertEquals(new HashSet<>(Arrays.asList("dos://dos.example.org/bam", "dos://dos.example.org/bai",
+                "dos://dos.example.org/r1", "dos://dos.example.org/r2", "dos://dos.example.org/ref")),
+                DOSPrefetch.findDosUris(parameters));
+        Assert.assertTrue(DOSPrefetch.findDosUris(new JSONObject().put("n", 1)).isEmpty());
+    }
+
+    @Test
+    public void testPrefetchFillsCache() throws Exception {
+        try (StubDOSServer server = new StubDOSServer().start()) {
+            DOSPlugin.DOSPreProvision preProvision = new DOSPlugin.DOSPreProvision();
+            preProvision.setConfiguration(new HashMap<>());
+
+            String first = server.uri("first");
+            String second = server.uri("second");
+            JSONObject parameters = new JSONObject()
+                    .put("input", file(first, second))
+                    .put("inputs", new JSONArray().put(first));
+
+            Map<String, List<String>> resolved = new DOSPrefetch(preProvision).prefetch(parameters);
+            Assert.assertEquals(new HashSet<>(Arrays.asList(first, second)), resolved.keySet());
+            Assert.assertFalse(resolved.get(first).isEmpty());
+            Assert.assertFalse(resolved.get(second).isEmpty());
+            Assert.assertEquals(2, server.getRequestCount());
+
+            // Provisioning is then answered from the cache
+            Assert.assertEquals(resolved.get(first), preProvision.prepareDownload(first));
+            Assert.assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testReadConfig() throws IOException {
+        File config = write("config", "token = secret\n"
+                + "[dockstore-file-s3-plugin]\n"
+                + "endpoint = https://s3.example.org\n"
+                + "[dockstore-file-dos-plugin]\n"
+                + "scheme-preference = gs, s3\n"
+                + "cache-dir = /tmp/dos\n");
+
+        Map<String, String> section = DOSPrefetch.readConfig(config.toPath());
+        Assert.assertEquals(2, section.size());
+        Assert.assertEquals("gs, s3", section.get("scheme-preference"));
+        Assert.assertEquals("/tmp/dos", section.get("cache-dir"));
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        try (StubDOSServer server = new StubDOSServer().start()) {
+            File config = write("config", "[dockstore-file-dos-plugin]\ncache-max-entries = 10\n");
+            File cwl = write("cwl.json", new JSONObject().put("input", file(server.uri("cwl"))).toString());
+            File wdl = write("wdl.json", new JSONObject()
+                    .put("wf.input", server.uri("cwl"))
+                    .put("wf.missing", server.uri(StubDOSServer.MISSING_PREFIX + "wdl")).toString());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int status = DOSPrefetch.run(new String[] {"--config", config.getPath(), cwl.getPath(), wdl.getPath()},
+                    new PrintStream(out, true, "UTF-8"));
+
+            Assert.assertEquals(DOSPrefetch.EXIT_UNRESOLVED, status);
+            List<String> lines = Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+            Assert.assertEquals(2, lines.size());
+            Assert.assertEquals(server.uri("cwl") + "\t3 URLs", lines.get(0));
+            Assert.assertEquals(server.uri(StubDOSServer.MISSING_PREFIX + "wdl") + "\tunresolved", lines.get(1));
+        }
+    }
+
+    @Test
+    public void testRunMoreUrisThanThreads() throws Exception {
+        try (StubDOSServer server = new StubDOSServer().latency(100, 0).start()) {
+            // Lookups still waiting for one of the two threads would pass the deadline if they were queued all at once
+            File config = write("config", "[dockstore-file-dos-plugin]\nresolver-threads = 2\n"
+                    + "resolution-deadline-ms = 1000\nmax-retries = 0\n");
+            JSONArray inputs = new JSONArray();
+            for (int i = 0; i < 40; i++) {
+                inputs.put(server.uri("object-" + i));
+            }
+            File wdl = write("wdl.json", new JSONObject().put("wf.inputs", inputs).toString());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int status = DOSPrefetch.run(new String[] {"--config", config.getPath(), wdl.getPath()},
+                    new PrintStream(out, true, "UTF-8"));
+
+            Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), 0, status);
+            Assert.assertEquals(40, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testRunUsage() throws IOException {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSPrefetch.run(new String[0], out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSPrefetch.run(new String[] {"--verbose", "params.json"}, out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE,
+                DOSPrefetch.run(new String[] {folder.getRoot().toPath().resolve("missing.json").toString()}, out));
+    }
+}
@@ -0,0 +1,79 @@
+package io.dockstore.provision;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class DOSProtocolAffinityUnitTest {
+
+    private static final Clock START = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnknownHost() {
+        DOSProtocolAffinity affinity = new DOSProtocolAffinity();
+        Assert.assertFalse(affinity.get("dataguids.org").isPresent());
+        Assert.assertEquals(Arrays.asList("http", "https"), affinity.protocolsFor("dataguids.org"));
+    }
+
+    @Test
+    public void testLearnedProtocol() {
+        DOSProtocolAffinity affinity = new DOSProtocolAffinity();
+        affinity.put("dataguids.org", "https");
+
+        Assert.assertEquals(Optional.of("https"), affinity.get("dataguids.org"));
+        // The other protocol is still tried if the learned one fails
+        Assert.assertEquals(Arrays.asList("https", "http"), affinity.protocolsFor("dataguids.org"));
+        Assert.assertEquals(Arrays.asList("http", "https"), affinity.protocolsFor("dos-dss.ucsc-cgp-dev.org"));
+    }
+
+    @Test
+    public void testExpiry() {
+        Path file = folder.getRoot().toPath().resolve("protocol-affinity.properties");
+        new DOSProtocolAffinity(60, Collections.emptySet(), Optional.of(file), START).put("dataguids.org", "https");
+
+        DOSProtocolAffinity before = new DOSProtocolAffinity(60, Collections.emptySet(), Optional.of(file),
+                Clock.offset(START, Duration.ofSeconds(59)));
+        Assert.assertEquals(Optional.of("https"), before.get("dataguids.org"));
+
+        DOSProtocolAffinity after = new DOSProtocolAffinity(60, Collections.emptySet(), Optional.of(file),
+                Clock.offset(START, Duration.ofSeconds(60)));
+        Assert.assertFalse(after.get("dataguids.org").isPresent());
+    }
+
+    @Test
+    public void testHttpsOnlyHosts() {
+        DOSProtocolAffinity affinity = new DOSProtocolAffinity(60, Collections.singleton("dataguids.org"), Optional.empty());
+        affinity.put("dataguids.org", "http");
+
+        Assert.assertEquals(Optional.of("https"), affinity.get("dataguids.org"));
+        Assert.assertEquals(Collections.singletonList("https"), affinity.protocolsFor("dataguids.org"));
+    }
+
+    @Test
+    public void testPersistedAcrossInstances() {
+        // Separate instances stand in for separate launcher processes sharing the file
+        Path file = folder.getRoot().toPath().resolve("protocol-affinity.properties");
+        DOSProtocolAffinity first = new DOSProtocolAffinity(60, Collections.emptySet(), Optional.of(file));
+        DOSProtocolAffinity second = new DOSProtocolAffinity(60, Collections.emptySet(), Optional.of(file));
+        first.put("dataguids.org", "https");
+        second.put("ec2-52-26-45-130.us-west-2.compute.amazonaws.com:8080", "http");
+
+        DOSProtocolAffinity third = new DOSProtocolAffinity(60, Collections.emptySet(), Optional.of(file));
+        Assert.assertEquals(Optional.of("https"), third.get("dataguids.org"));
+        Assert.assertEquals(Optional.of("http"), third.get("ec2-52-26-45-130.us-west-2.compute.amazonaws.com:8080"));
+    }
+}
@@ -0,0 +1,93 @@
+package io.dockstore.provision;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DOSResolversUnitTest {
+
+    private static final List<String> REPLICAS = Arrays.asList("mirror.example.org", "dataguids.org");
+
+    private static ImmutableTriple<String, String, String> split(String uri) {
+        return DOSPluginUtil.splitPlainURI(uri);
+    }
+
+    @Test
+    public void testReplicasFor() {
+        DOSResolvers resolvers = new DOSResolvers(Arrays.asList(
+                "dg.4503 = mirror.example.org | dataguids.org",
+                "dg.45=other.example.org",
+                "DOS-DSS.ucsc-cgp-dev.org=dss-mirror.example.org|dos-dss.ucsc-cgp-dev.org"));
+
+        // The longest prefix wins
+        Assert.assertEquals(REPLICAS, resolvers.replicasFor(split("dos://dg.4503/a")));
+        Assert.assertEquals(Collections.singletonList("other.example.org"), resolvers.replicasFor(split("dos://dg.4567/a")));
+        Assert.assertEquals(Collections.singletonList("dataguids.org"), resolvers.replicasFor(split("dos://dg.ABCD/a")));
+        Assert.assertEquals(Arrays.asList("dss-mirror.example.org", "dos-dss.ucsc-cgp-dev.org"),
+                resolvers.replicasFor(split("dos://dos-dss.ucsc-cgp-dev.org/a")));
+        Assert.assertEquals(Collections.singletonList("example.org"), resolvers.replicasFor(split("dos://example.org/a")));
+    }
+
+    @Test
+    public void testDefaultReplicas() {
+        DOSResolvers resolvers = new DOSResolvers(Arrays.asList("no-hosts", "=dataguids.org", "dg.4503=|"));
+        Assert.assertEquals(Collections.singletonList("dataguids.org"), resolvers.replicasFor(split("dos://dg.4503/a")));
+        Assert.assertEquals(Collections.singletonList("dataguids.org"), resolvers.replicasFor(split("dos://dataguids.org/a")));
+    }
+
+    @Test
+    public void testOrderPrefersFasterReplica() {
+        DOSResolvers resolvers = new DOSResolvers();
+        DOSCircuitBreaker circuitBreaker = new DOSCircuitBreaker();
+        // Unmeasured replicas keep the configured order
+        Assert.assertEquals(REPLICAS, resolvers.order(REPLICAS, circuitBreaker));
+
+        resolvers.started("mirror.example.org");
+        resolvers.finished("mirror.example.org", TimeUnit.MILLISECONDS.toNanos(200), true);
+        resolvers.started("dataguids.org");
+        resolvers.finished("dataguids.org", TimeUnit.MILLISECONDS.toNanos(20), true);
+        Assert.assertEquals(Arrays.asList("dataguids.org", "mirror.example.org"), resolvers.order(REPLICAS, circuitBreaker));
+        Assert.assertEquals(20, resolvers.getMillis("dataguids.org"), 0.01);
+    }
+
+    @Test
+    public void testOrderSpreadsLoad() {
+        DOSResolvers resolvers = new DOSResolvers();
+        DOSCircuitBreaker circuitBreaker = new DOSCircuitBreaker();
+        resolvers.started("mirror.example.org");
+        resolvers.finished("mirror.example.org", TimeUnit.MILLISECONDS.toNanos(20), true);
+        resolvers.started("dataguids.org");
+        resolvers.finished("dataguids.org", TimeUnit.MILLISECONDS.toNanos(40), true);
+        Assert.assertEquals(REPLICAS, resolvers.order(REPLICAS, circuitBreaker));
+
+        // Lookups waiting on the faster replica push the next one to the other
+        resolvers.started("mirror.example.org");
+        resolvers.started("mirror.example.org");
+        Assert.assertEquals(Arrays.asList("dataguids.org", "mirror.example.org"), resolvers.order(REPLICAS, circuitBreaker));
+    }
+
+    @Test
+    public void testOrderFailingReplicaLast() {
+        DOSResolvers resolvers = new DOSResolvers();
+        DOSCircuitBreaker circuitBreaker = new DOSCircuitBreaker(1, TimeUnit.MINUTES.toMillis(1));
+
+        resolvers.started("mirror.example.org");
+        resolvers.finished("mirror.example.org", TimeUnit.MILLISECONDS.toNanos(10), false);
+        Assert.assertEquals(DOSResolvers.FAILURE_PENALTY, resolvers.getMillis("mirror.example.org"), 0.01);
+        Assert.assertEquals(Arrays.asList("dataguids.org", "mirror.example.org"), resolvers.order(REPLICAS, circuitBreaker));
+
+        // Even a fast replica goes last while its circuit is open
+        DOSResolvers fast = new DOSResolvers();
+        fast.started("mirror.example.org");
+        fast.finished("mirror.example.org", TimeUnit.MILLISECONDS.toNanos(1), true);
+        fast.started("dataguids.org");
+        fast.finished("dataguids.org", TimeUnit.MILLISECONDS.toNanos(500), true);
+        circuitBreaker.recordFailure("mirror.example.org");
+        Assert.assertEquals(Arrays.asList("dataguids.org", "mirror.example.org"), fast.order(REPLICAS, circuitBreaker));
+    }
+}
@@ -0,0 +1,142 @@
+package io.dockstore.provision;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSResponseCacheUnitTest {
+
+    private static final ImmutableTriple<String, String, String> KEY1 =
+            new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/630d31c3-381e-488d-b639-ce5d047a0142");
+    private static final ImmutableTriple<String, String, String> KEY2 =
+            new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/1aad0eb6-0d89-4fdd-976c-f9aa248fc88c");
+    private static final ImmutableTriple<String, String, String> KEY3 =
+            new ImmutableTriple<>("dos", "dos-dss.ucsc-cgp-dev.org", "fff5a29f-d184-4e3b-9c5b-6f44aea7f527");
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void testGetAndPut() {
+        DOSResponseCache cache = new DOSResponseCache(10, 60, 10, ticker);
+        JSONObject response = new JSONObject("{\"data_object\": {\"urls\": []}}");
+
+        Assert.assertNull(cache.get(KEY1));
+        cache.put(KEY1, response);
+
+        DOSResponseCache.Entry entry = cache.get(KEY1);
+        Assert.assertNotNull(entry);
+        Assert.assertFalse(entry.isNegative());
+        Assert.assertSame(response, entry.getResponse().get());
+        Assert.assertEquals(1, cache.hitCount());
+        Assert.assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testNegativeEntry() {
+        DOSResponseCache cache = new DOSResponseCache(10, 60, 10, ticker);
+        cache.putNegative(KEY1);
+
+        DOSResponseCache.Entry entry = cache.get(KEY1);
+        Assert.assertNotNull(entry);
+        Assert.assertTrue(entry.isNegative());
+        Assert.assertFalse(entry.getResponse().isPresent());
+    }
+
+    @Test
+    public void testExpiry() {
+        DOSResponseCache cache = new DOSResponseCache(10, 60, 10, ticker);
+        cache.put(KEY1, new JSONObject());
+        cache.putNegative(KEY2);
+
+        // The negative entry expires first
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertNotNull(cache.get(KEY1));
+        Assert.assertNull(cache.get(KEY2));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(50));
+        Assert.assertNull(cache.get(KEY1));
+        Assert.assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() {
+        DOSResponseCache cache = new DOSResponseCache(10, 60, 10, 30, ticker);
+        JSONObject response = new JSONObject();
+        cache.put(KEY1, response);
+        cache.putNegative(KEY2);
+
+        // Past its time-to-live a resolved object is still served, but no longer fresh; a failed lookup is not
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        DOSResponseCache.Entry stale = cache.get(KEY1);
+        Assert.assertSame(response, stale.getResponse().get());
+        Assert.assertFalse(cache.isFresh(stale));
+        Assert.assertNull(cache.peek(KEY1));
+        Assert.assertNull(cache.get(KEY2));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Assert.assertNull(cache.get(KEY1));
+    }
+
+    @Test
+    public void testExpiredEntryWithValidatorsIsKept() {
+        DOSResponseCache cache = new DOSResponseCache(10, 60, 10, ticker);
+        JSONObject response = new JSONObject();
+        DOSValidators validators = new DOSValidators("\"v1\"", null);
+        cache.put(KEY1, response, validators);
+        cache.put(KEY2, new JSONObject());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        Assert.assertNull(cache.get(KEY1));
+        Assert.assertNull(cache.get(KEY2));
+
+        // Only the entry that can be revalidated is kept
+        DOSResponseCache.Entry expired = cache.peekRevalidatable(KEY1);
+        Assert.assertSame(response, expired.getResponse().get());
+        Assert.assertEquals(validators, expired.getValidators());
+        Assert.assertNull(cache.peekRevalidatable(KEY2));
+        Assert.assertEquals(1, cache.evictionCount());
+
+        // Revalidating it starts its time-to-live over
+        cache.put(KEY1, response, validators);
+        Assert.assertTrue(cache.isFresh(cache.get(KEY1)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        DOSResponseCache cache = new DOSResponseCache(2, 60, 10, ticker);
+        cache.put(KEY1, new JSONObject());
+        cache.put(KEY2, new JSONObject());
+
+        // Touch KEY1 so that KEY2 is the least recently used entry
+        Assert.assertNotNull(cache.get(KEY1));
+        cache.put(KEY3, new JSONObject());
+
+        Assert.assertNotNull(cache.get(KEY1));
+        Assert.assertNull(cache.get(KEY2));
+        Assert.assertNotNull(cache.get(KEY3));
+        Assert.assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        DOSResponseCache cache = new DOSResponseCache(0, 60, 0, ticker);
+        cache.put(KEY1, new JSONObject());
+        cache.putNegative(KEY2);
+
+        Assert.assertNull(cache.get(KEY1));
+        Assert.assertNull(cache.get(KEY2));
+        Assert.assertEquals(2, cache.missCount());
+    }
+}
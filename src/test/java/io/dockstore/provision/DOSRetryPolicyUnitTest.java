@@ -0,0 +1,60 @@
+package io.dockstore.provision;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSRetryPolicyUnitTest {
+
+    private static final Clock START = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+
+    @Test
+    public void testIsTransient() {
+        for (int responseCode : new int[] {-1, 429, 502, 503, 504}) {
+            Assert.assertTrue(String.valueOf(responseCode), DOSRetryPolicy.isTransient(responseCode));
+        }
+        for (int responseCode : new int[] {200, 301, 400, 401, 403, 404, 410, 500, 501}) {
+            Assert.assertFalse(String.valueOf(responseCode), DOSRetryPolicy.isTransient(responseCode));
+        }
+    }
+
+    @Test
+    public void testBackoff() {
+        DOSRetryPolicy policy = new DOSRetryPolicy(4, 100, 500);
+        for (int trial = 0; trial < 100; trial++) {
+            // Each wait is between half and all of the exponentially growing ceiling
+            assertBetween(50, 100, policy.delayMillis(0, null).get());
+            assertBetween(100, 200, policy.delayMillis(1, null).get());
+            assertBetween(200, 400, policy.delayMillis(2, null).get());
+            assertBetween(250, 500, policy.delayMillis(3, null).get());
+        }
+        Assert.assertFalse(policy.delayMillis(4, null).isPresent());
+    }
+
+    @Test
+    public void testNoRetries() {
+        Assert.assertFalse(new DOSRetryPolicy(0, 100, 500).delayMillis(0, null).isPresent());
+    }
+
+    @Test
+    public void testRetryAfter() {
+        DOSRetryPolicy policy = new DOSRetryPolicy(3, 100, 5000, START);
+        Assert.assertEquals(Optional.of(2000L), policy.delayMillis(0, "2"));
+        Assert.assertEquals(Optional.of(3000L), policy.delayMillis(0, "Thu, 01 Jan 1970 00:00:03 GMT"));
+        // A date in the past means the request may be retried straight away
+        Assert.assertEquals(Optional.of(0L), policy.delayMillis(0, "Thu, 01 Jan 1970 00:00:00 GMT"));
+        // The server asks for a longer wait than the lookup is willing to make
+        Assert.assertFalse(policy.delayMillis(0, "60").isPresent());
+        // An invalid header is ignored
+        assertBetween(50, 100, policy.delayMillis(0, "soon").get());
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        Assert.assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,105 @@
+package io.dockstore.provision;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DOSSchemeRankingUnitTest {
+
+    @Test
+    public void testOrderBySchemePreference() {
+        DOSSchemeRanking ranking = new DOSSchemeRanking(Arrays.asList("s3", "gs"));
+        List<URI> ordered = ranking.order(uris("https://host/a", "gs://bucket/a", "s3://bucket/a", "ftp://host/a",
+                "gs://bucket/b", "https://host/b"));
+        Assert.assertEquals(uris("s3://bucket/a", "gs://bucket/a", "gs://bucket/b", "https://host/a", "https://host/b",
+                "ftp://host/a"), ordered);
+    }
+
+    @Test
+    public void testOrderNoPreferences() {
+        // Without preferences, URLs are grouped by scheme in the order each scheme first appears
+        DOSSchemeRanking ranking = new DOSSchemeRanking(Collections.emptyList());
+        Assert.assertEquals(uris("gs://bucket/a", "gs://bucket/b", "s3://bucket/a", "relative/path"),
+                ranking.order(uris("gs://bucket/a", "s3://bucket/a", "relative/path", "gs://bucket/b")));
+    }
+
+    @Test
+    public void testOrderDropsDuplicates() {
+        DOSSchemeRanking ranking = new DOSSchemeRanking(Collections.singletonList("s3"));
+        Assert.assertEquals(uris("s3://bucket/a", "gs://bucket/a"),
+                ranking.order(uris("gs://bucket/a", "s3://bucket/a", "gs://bucket/a", "s3://bucket/a")));
+    }
+
+    @Test
+    public void testOrderByHostPattern() {
+        DOSSchemeRanking ranking = new DOSSchemeRanking(
+                Arrays.asList("https://*.googleapis.com", "s3://*-us-east-1", "s3", "https://storage.example.org"));
+        List<URI> ordered = ranking.order(uris("https://other.org/a", "s3://bucket-eu-west-1/a",
+                "https://storage.googleapis.com/a", "s3://my_bucket-us-east-1/a", "https://STORAGE.example.org/a", "gs://b/a"));
+        Assert.assertEquals(uris("https://storage.googleapis.com/a", "s3://my_bucket-us-east-1/a", "s3://bucket-eu-west-1/a",
+                "https://STORAGE.example.org/a", "https://other.org/a", "gs://b/a"), ordered);
+    }
+
+    @Test
+    public void testOrderMatchesGroupingByScheme() {
+        // Differential test against ordering by merging a LinkedHashMap of schemes, as prepareDownload used to
+        String[] schemes = {"s3", "gs", "https", "http", "ftp", "synapse", "S3"};
+        Random random = new Random(7);
+        for (int trial = 0; trial < 500; trial++) {
+            List<String> preferences = new ArrayList<>();
+            for (int i = random.nextInt(5); i > 0; i--) {
+                preferences.add(schemes[random.nextInt(schemes.length)]);
+            }
+            List<URI> urls = new ArrayList<>();
+            for (int i = random.nextInt(30); i > 0; i--) {
+                urls.add(URI.create(schemes[random.nextInt(schemes.length)] + "://bucket/" + urls.size()));
+            }
+            Assert.assertEquals(preferences + " " + urls, groupByScheme(preferences, urls),
+                    new DOSSchemeRanking(preferences).order(urls));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testOrderManyReplicasIsLinear() {
+        List<URI> urls = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            urls.add(URI.create((i % 2 == 0 ? "gs" : "s3") + "://bucket/" + i));
+        }
+        List<URI> ordered = new DOSSchemeRanking(Collections.singletonList("s3")).order(urls);
+        Assert.assertEquals(urls.size(), ordered.size());
+        Assert.assertEquals("s3", ordered.get(0).getScheme());
+        Assert.assertEquals("gs", ordered.get(ordered.size() - 1).getScheme());
+    }
+
+    private static List<URI> groupByScheme(List<String> preferences, List<URI> urls) {
+        Map<String, List<URI>> urlMap = new LinkedHashMap<>();
+        for (URI uri : urls) {
+            urlMap.merge(uri.getScheme(), Collections.singletonList(uri), (list1, list2) ->
+                    Stream.of(list1, list2).flatMap(Collection::stream).collect(Collectors.toList()));
+        }
+        List<URI> ordered = new ArrayList<>();
+        for (String scheme : preferences) {
+            if (urlMap.containsKey(scheme)) {
+                ordered.addAll(urlMap.remove(scheme));
+            }
+        }
+        urlMap.values().forEach(ordered::addAll);
+        return ordered;
+    }
+
+    private static List<URI> uris(String... urls) {
+        return Arrays.stream(urls).map(URI::create).collect(Collectors.toList());
+    }
+}
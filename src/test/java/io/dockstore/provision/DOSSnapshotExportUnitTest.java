@@ -0,0 +1,103 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DOSSnapshotExportUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadUris() throws IOException {
+        File list = write("uris.txt", "# inputs\n dos://dg.4503/a \n\ndos://dg.4503/b\ndos://dg.4503/a\n");
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("dos://dg.4503/a", "dos://dg.4503/b")),
+                DOSSnapshotExport.readUris(list.toPath()));
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        try (StubDOSServer server = new StubDOSServer().start()) {
+            File config = write("config", "[dockstore-file-dos-plugin]\ncache-max-entries = 10\n");
+            File list = write("uris.txt", server.uri("a") + "\n" + server.uri("b") + "\n"
+                    + server.uri(StubDOSServer.MISSING_PREFIX + "c") + "\nnot a uri\n");
+            Path snapshotFile = folder.getRoot().toPath().resolve("snapshot.dos");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int status = DOSSnapshotExport.run(new String[] {"--config", config.getPath(), list.getPath(), snapshotFile.toString()},
+                    new PrintStream(out, true, "UTF-8"));
+
+            Assert.assertEquals(DOSPrefetch.EXIT_UNRESOLVED, status);
+            List<String> lines = Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+            Assert.assertEquals(Arrays.asList(server.uri(StubDOSServer.MISSING_PREFIX + "c") + "\tunresolved",
+                    "not a uri\tunresolved", "2 of 4 URIs written to " + snapshotFile), lines);
+
+            // The snapshot then answers without the server
+            long requests = server.getRequestCount();
+            DOSPluginUtil snapshotPluginUtil = new DOSPluginUtil();
+            snapshotPluginUtil.setConfiguration(new MapConfiguration(
+                    Collections.singletonMap("snapshot-file", snapshotFile.toString())));
+            Assert.assertEquals(2, snapshotPluginUtil.getSnapshot().get().size());
+            Optional<JSONObject> response = snapshotPluginUtil.getResponse(snapshotPluginUtil.splitURI(server.uri("a")).get());
+            Assert.assertEquals(3, response.get().getJSONObject("data_object").getJSONArray("urls").length());
+            Assert.assertEquals(requests, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testRunMoreUrisThanThreads() throws Exception {
+        try (StubDOSServer server = new StubDOSServer().latency(100, 0).start()) {
+            // Lookups still waiting for one of the two threads would pass the deadline if they were queued all at once
+            File config = write("config", "[dockstore-file-dos-plugin]\nresolver-threads = 2\n"
+                    + "resolution-deadline-ms = 1000\nmax-retries = 0\n");
+            StringBuilder uris = new StringBuilder();
+            for (int i = 0; i < 40; i++) {
+                uris.append(server.uri("object-" + i)).append('\n');
+            }
+            File list = write("uris.txt", uris.toString());
+            Path snapshotFile = folder.getRoot().toPath().resolve("snapshot.dos");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int status = DOSSnapshotExport.run(new String[] {"--config", config.getPath(), list.getPath(), snapshotFile.toString()},
+                    new PrintStream(out, true, "UTF-8"));
+
+            Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), 0, status);
+            try (DOSSnapshot snapshot = DOSSnapshot.open(snapshotFile)) {
+                Assert.assertEquals(40, snapshot.size());
+            }
+        }
+    }
+
+    @Test
+    public void testRunUsage() throws IOException {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSSnapshotExport.run(new String[0], out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSSnapshotExport.run(new String[] {"uris.txt"}, out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSSnapshotExport.run(new String[] {"--verbose", "uris.txt", "out.dos"}, out));
+        Assert.assertEquals(DOSPrefetch.EXIT_USAGE, DOSSnapshotExport.run(new String[] {
+            folder.getRoot().toPath().resolve("missing.txt").toString(), folder.getRoot().toPath().resolve("out.dos").toString()}, out));
+    }
+}
@@ -0,0 +1,124 @@
+package io.dockstore.provision;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DOSSnapshotUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ImmutableTriple<String, String, String> split(String id) {
+        return new ImmutableTriple<>("dos", "dataguids.org", "dg.4503/" + id);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("snapshot.dos");
+        try (DOSSnapshot.Writer writer = new DOSSnapshot.Writer(path)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.put(split("object-" + i), StubDOSServer.dataObject("dg.4503/object-" + i, 1 + i % 3));
+            }
+            Assert.assertEquals(1000, writer.size());
+        }
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(Collections.singletonList(path), files.collect(Collectors.toList()));
+        }
+
+        try (DOSSnapshot snapshot = DOSSnapshot.open(path)) {
+            Assert.assertEquals(1000, snapshot.size());
+            for (int i = 0; i < 1000; i++) {
+                JSONObject expected = StubDOSServer.dataObject("dg.4503/object-" + i, 1 + i % 3);
+                Assert.assertTrue(expected.similar(snapshot.get(split("object-" + i)).get()));
+            }
+            Assert.assertFalse(snapshot.get(split("object-1000")).isPresent());
+            // The scheme is not part of the key, the host is
+            Assert.assertTrue(snapshot.get(new ImmutableTriple<>("other", "dataguids.org", "dg.4503/object-1")).isPresent());
+            Assert.assertFalse(snapshot.get(new ImmutableTriple<>("dos", "example.org", "dg.4503/object-1")).isPresent());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("empty.dos");
+        new DOSSnapshot.Writer(path).close();
+        try (DOSSnapshot snapshot = DOSSnapshot.open(path)) {
+            Assert.assertEquals(0, snapshot.size());
+            Assert.assertFalse(snapshot.get(split("a")).isPresent());
+        }
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("snapshot.dos");
+        try (DOSSnapshot.Writer writer = new DOSSnapshot.Writer(path)) {
+            writer.put(split("a"), StubDOSServer.dataObject("a", 1));
+        }
+        try (DOSSnapshot.Writer writer = new DOSSnapshot.Writer(path)) {
+            writer.put(split("b"), StubDOSServer.dataObject("b", 1));
+        }
+        try (DOSSnapshot snapshot = DOSSnapshot.open(path)) {
+            Assert.assertFalse(snapshot.get(split("a")).isPresent());
+            Assert.assertTrue(snapshot.get(split("b")).isPresent());
+        }
+    }
+
+    @Test
+    public void testReplaceConcurrently() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("snapshot.dos");
+        // Each writer has a temporary file of its own, so neither overwrites the other's
+        DOSSnapshot.Writer first = new DOSSnapshot.Writer(path);
+        DOSSnapshot.Writer second = new DOSSnapshot.Writer(path);
+        first.put(split("a"), StubDOSServer.dataObject("a", 1));
+        second.put(split("b"), StubDOSServer.dataObject("b", 1));
+        second.close();
+        first.close();
+        try (DOSSnapshot snapshot = DOSSnapshot.open(path)) {
+            Assert.assertEquals(1, snapshot.size());
+            Assert.assertTrue(snapshot.get(split("a")).isPresent());
+        }
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testOpenNotASnapshot() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("snapshot.dos");
+        for (byte[] content : Arrays.asList(new byte[0], "not a snapshot at all".getBytes(StandardCharsets.UTF_8))) {
+            Files.write(path, content);
+            try {
+                DOSSnapshot.open(path).close();
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("is not a DOS snapshot"));
+            }
+        }
+
+        // A snapshot that was cut short
+        try (DOSSnapshot.Writer writer = new DOSSnapshot.Writer(path)) {
+            writer.put(split("a"), StubDOSServer.dataObject("a", 1));
+        }
+        byte[] whole = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(whole, whole.length - 1));
+        try {
+            DOSSnapshot.open(path).close();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("is not a DOS snapshot"));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.dockstore.provision;
+
+import java.net.HttpURLConnection;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+
+public class DOSValidatorsUnitTest {
+
+    private static final JSONObject RESPONSE = new JSONObject("{\"data_object\": {\"urls\": [], \"updated\": \"2018-05-26T13:43:15.070662Z\"}}");
+
+    @Test
+    public void testFromHeaders() {
+        HttpURLConnection conn = Mockito.mock(HttpURLConnection.class);
+        Mockito.when(conn.getHeaderField("ETag")).thenReturn("\"v1\"");
+        Mockito.when(conn.getHeaderField("Last-Modified")).thenReturn("Mon, 28 May 2018 09:00:00 GMT");
+
+        DOSValidators validators = DOSValidators.of(conn, RESPONSE);
+        Assert.assertEquals(new DOSValidators("\"v1\"", "Mon, 28 May 2018 09:00:00 GMT"), validators);
+
+        HttpURLConnection request = Mockito.mock(HttpURLConnection.class);
+        validators.apply(request);
+        Mockito.verify(request).setRequestProperty("If-None-Match", "\"v1\"");
+        Mockito.verify(request).setRequestProperty("If-Modified-Since", "Mon, 28 May 2018 09:00:00 GMT");
+    }
+
+    @Test
+    public void testFromUpdated() {
+        // Without a Last-Modified header, the data object's updated time stands in for it
+        HttpURLConnection conn = Mockito.mock(HttpURLConnection.class);
+        Assert.assertEquals(new DOSValidators(null, "Sat, 26 May 2018 13:43:15 GMT"), DOSValidators.of(conn, RESPONSE));
+
+        JSONObject noOffset = new JSONObject("{\"data_object\": {\"updated\": \"2018-05-26T13:43:15.070672\"}}");
+        Assert.assertEquals(new DOSValidators(null, "Sat, 26 May 2018 13:43:15 GMT"), DOSValidators.of(conn, noOffset));
+
+        JSONObject offset = new JSONObject("{\"data_object\": {\"updated\": \"2018-05-26T15:43:15+02:00\"}}");
+        Assert.assertEquals(new DOSValidators(null, "Sat, 26 May 2018 13:43:15 GMT"), DOSValidators.of(conn, offset));
+    }
+
+    @Test
+    public void testNone() {
+        HttpURLConnection conn = Mockito.mock(HttpURLConnection.class);
+        Assert.assertTrue(DOSValidators.of(conn, new JSONObject("{\"data_object\": {\"urls\": []}}")).isEmpty());
+        Assert.assertTrue(DOSValidators.of(conn, new JSONObject("{\"data_object\": {\"updated\": \"yesterday\"}}")).isEmpty());
+
+        HttpURLConnection request = Mockito.mock(HttpURLConnection.class);
+        DOSValidators.NONE.apply(request);
+        Mockito.verifyZeroInteractions(request);
+    }
+
+    @Test
+    public void testJSON() {
+        DOSValidators validators = new DOSValidators("\"v1\"", "Sat, 26 May 2018 13:43:15 GMT");
+        Assert.assertEquals(validators, DOSValidators.fromJSON(validators.toJSON().toString()));
+        Assert.assertEquals(new DOSValidators("\"v1\"", null), DOSValidators.fromJSON(new DOSValidators("\"v1\"", null).toJSON().toString()));
+        Assert.assertTrue(DOSValidators.fromJSON("garbage").isEmpty());
+    }
+}
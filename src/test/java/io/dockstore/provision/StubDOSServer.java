@@ -0,0 +1,400 @@
+package io.dockstore.provision;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A DOS server on the JDK's built-in HTTP server, serving <code>/ga4gh/dos/v1/dataobjects/{id}</code> on localhost
+ * so that tests and benchmarks can drive the plugin over real sockets without network access.
+ *
+ * The server answers on either http or https, like a DOS host that only supports one of them. Every object exists
+ * and lists the configured number of URLs, except ids starting with {@value #MISSING_PREFIX}, which are not found.
+ * Responses may be delayed, a fraction of them may fail with a 500, and they may be compressed for clients that accept it.
+ * Which requests fail and how long each is delayed follow from the seed, the id and how many times the id has been
+ * asked for, so a run fails the same requests however its calls happen to be scheduled.
+ * With ETags enabled, an object never changes, so a request conditional on its ETag is answered with a 304. With bulk
+ * lookups enabled, the server also answers <code>POST /bulk/documents</code> like indexd, with the records of the ids
+ * posted that exist.
+ *
+ * The https server uses a self-signed certificate for localhost, which clients trust through {@link #clientContext()}.
+ */
+class StubDOSServer implements AutoCloseable {
+
+    static final String API = "/ga4gh/dos/v1/dataobjects/";
+    static final String MISSING_PREFIX = "missing-";
+    static final String BULK_API = "/bulk/documents";
+
+    private static final String KEYSTORE = "/stub-dos-server.jks";
+    private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+    private static final String[] URL_TEMPLATES = {
+        "gs://commons-bucket/topmed/%s/NWD%06d.b38.irc.v1.cram",
+        "s3://commons-bucket/topmed/%s/NWD%06d.b38.irc.v1.cram",
+        "https://storage.googleapis.com/commons-bucket/topmed/%s/NWD%06d.b38.irc.v1.cram",
+    };
+
+    static {
+        // Otherwise small responses wait on delayed acknowledgements, which would swamp the latencies being measured
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private int urls = 3;
+    private long latencyMillis;
+    private long jitterMillis;
+    private double errorRate;
+    private long seed;
+    private boolean https;
+    private int threads = 32;
+    private String compression;
+    private boolean etags;
+    private boolean bulk;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder notModifiedResponses = new LongAdder();
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder errorResponses = new LongAdder();
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param count The number of URLs each data object lists
+     */
+    StubDOSServer urls(int count) {
+        this.urls = count;
+        return this;
+    }
+
+    /**
+     * @param millis The delay before every response
+     * @param jitter Up to this many more milliseconds, chosen at random for each response
+     */
+    StubDOSServer latency(long millis, long jitter) {
+        this.latencyMillis = millis;
+        this.jitterMillis = jitter;
+        return this;
+    }
+
+    /**
+     * @param rate The fraction of requests, between 0 and 1, that fail with a 500
+     */
+    StubDOSServer errorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * @param seed Chooses which requests fail and how long each is delayed
+     */
+    StubDOSServer seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param enabled Whether the server answers on https instead of http
+     */
+    StubDOSServer https(boolean enabled) {
+        this.https = enabled;
+        return this;
+    }
+
+    /**
+     * @param count The number of requests handled at once
+     */
+    StubDOSServer threads(int count) {
+        this.threads = count;
+        return this;
+    }
+
+    /**
+     * @param encoding The Content-Encoding, gzip or deflate, to compress responses with when the request accepts it
+     */
+    StubDOSServer compression(String encoding) {
+        this.compression = encoding;
+        return this;
+    }
+
+    /**
+     * @param enabled Whether data objects are sent with an ETag, and conditional requests answered
+     */
+    StubDOSServer etags(boolean enabled) {
+        this.etags = enabled;
+        return this;
+    }
+
+    /**
+     * @param enabled Whether the server answers bulk lookups, otherwise they are not found
+     */
+    StubDOSServer bulk(boolean enabled) {
+        this.bulk = enabled;
+        return this;
+    }
+
+    StubDOSServer start() throws IOException {
+        InetSocketAddress address = new InetSocketAddress("localhost", 0);
+        // Queue at least as many connections as there are threads to serve them, rather than the default of 50
+        int backlog = Math.max(threads, 50);
+        if (https) {
+            HttpsServer httpsServer = HttpsServer.create(address, backlog);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(serverContext()));
+            server = httpsServer;
+        } else {
+            server = HttpServer.create(address, backlog);
+        }
+        server.createContext(API, this::handle);
+        if (bulk) {
+            server.createContext(BULK_API, this::handleBulk);
+        }
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("stub-dos-server-%d").setDaemon(true).build());
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param id The data object id
+     * @return The DOS URI of the object on this server
+     */
+    String uri(String id) {
+        return "dos://localhost:" + getPort() + "/" + id;
+    }
+
+    /**
+     * @return The number of data object requests answered, whatever their status
+     */
+    long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * @return The number of responses that were sent compressed
+     */
+    long getCompressedResponseCount() {
+        return compressedResponses.sum();
+    }
+
+    /**
+     * @return The number of bulk lookups answered
+     */
+    long getBulkRequestCount() {
+        return bulkRequests.sum();
+    }
+
+    /**
+     * @return The number of requests failed with a 500 because of the error rate
+     */
+    long getErrorCount() {
+        return errorResponses.sum();
+    }
+
+    /**
+     * @return The number of conditional requests answered with a 304
+     */
+    long getNotModifiedCount() {
+        return notModifiedResponses.sum();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+            requests.increment();
+            String id = exchange.getRequestURI().getPath().substring(API.length());
+            int attempt = attempts.computeIfAbsent(id, k -> new AtomicInteger()).getAndIncrement();
+            Random random = new Random(Objects.hash(seed, id, attempt));
+            long delay = latencyMillis + (jitterMillis > 0 ? (long)(random.nextDouble() * (jitterMillis + 1)) : 0);
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+
+            if (id.startsWith(MISSING_PREFIX)) {
+                send(exchange, 404, new JSONObject().put("msg", "Data object not found").put("status_code", 404));
+            } else if (errorRate > 0 && random.nextDouble() < errorRate) {
+                errorResponses.increment();
+                send(exchange, 500, new JSONObject().put("msg", "Internal server error").put("status_code", 500));
+            } else if (etags && etag(id).equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.increment();
+                exchange.getResponseHeaders().set("ETag", etag(id));
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                if (etags) {
+                    exchange.getResponseHeaders().set("ETag", etag(id));
+                }
+                send(exchange, 200, dataObject(id, urls));
+            }
+        } catch (InterruptedException e) {
+            // The server is stopping
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+            bulkRequests.increment();
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            JSONArray records = new JSONArray();
+            for (Object id : new JSONArray(new JSONTokener(in))) {
+                if (!id.toString().startsWith(MISSING_PREFIX)) {
+                    records.put(record(id.toString(), urls));
+                }
+            }
+            send(exchange, 200, records.toString());
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        send(exchange, status, body.toString());
+    }
+
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (compression != null && accepted != null && accepted.contains(compression)) {
+            bytes = compress(bytes);
+            exchange.getResponseHeaders().set("Content-Encoding", compression);
+            compressedResponses.increment();
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static String etag(String id) {
+        return "\"" + id + "\"";
+    }
+
+    private byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = "gzip".equals(compression) ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * @param id       The data object id
+     * @param urlCount The number of URLs the data object lists, spread over the gs, s3 and https schemes
+     * @return A DOS data object response with the usual descriptive fields around its URLs
+     */
+    static JSONObject dataObject(String id, int urlCount) {
+        JSONArray urlList = new JSONArray();
+        for (int i = 0; i < urlCount; i++) {
+            String url = String.format(URL_TEMPLATES[i % URL_TEMPLATES.length], id, i / URL_TEMPLATES.length);
+            urlList.put(new JSONObject().put("url", url).put("system_metadata", new JSONObject().put("region", "us")));
+        }
+        JSONObject dataObject = new JSONObject()
+                .put("id", id)
+                .put("name", "NWD000001.b38.irc.v1.cram")
+                .put("size", "17179869184")
+                .put("created", "2018-05-26T13:43:15.070662Z")
+                .put("updated", "2018-05-26T13:43:15.070662Z")
+                .put("version", "2018-05-26T134315.070662Z")
+                .put("mime_type", "application/octet-stream")
+                .put("checksums", new JSONArray()
+                        .put(new JSONObject().put("checksum", "8a6e1e5d4a3fb3c1b0a52d9e1c4f3ab7").put("type", "md5")))
+                .put("urls", urlList)
+                .put("aliases", new JSONArray().put("NWD000001"));
+        return new JSONObject().put("data_object", dataObject);
+    }
+
+    /**
+     * @param id       The data object id
+     * @param urlCount The number of URLs the record lists
+     * @return An indexd record of the same object as {@link #dataObject(String, int)}
+     */
+    static JSONObject record(String id, int urlCount) {
+        JSONObject dataObject = dataObject(id, urlCount).getJSONObject("data_object");
+        JSONArray urlList = new JSONArray();
+        for (Object url : dataObject.getJSONArray("urls")) {
+            urlList.put(((JSONObject)url).getString("url"));
+        }
+        return new JSONObject()
+                .put("did", id)
+                .put("file_name", dataObject.getString("name"))
+                .put("size", Long.parseLong(dataObject.getString("size")))
+                .put("hashes", new JSONObject().put("md5", "8a6e1e5d4a3fb3c1b0a52d9e1c4f3ab7"))
+                .put("created_date", dataObject.getString("created"))
+                .put("updated_date", dataObject.getString("updated"))
+                .put("urls", urlList);
+    }
+
+    /**
+     * @return A context trusting the stub server's self-signed certificate
+     */
+    static SSLContext clientContext() {
+        try {
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(keyStore());
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SSLContext serverContext() throws IOException {
+        try {
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore(), KEYSTORE_PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static KeyStore keyStore() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = StubDOSServer.class.getResourceAsStream(KEYSTORE)) {
+            keyStore.load(in, KEYSTORE_PASSWORD);
+        }
+        return keyStore;
+    }
+}